@@ -26,8 +26,7 @@ import com.google.android.flexbox.FlexboxLayout;
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.checkbox.MaterialCheckBox;
 import com.google.android.material.textfield.TextInputLayout;
-import com.openmobl.pttDriver.db.DriverDatabase;
-import com.openmobl.pttDriver.db.DriverSQLiteDatabase;
+import com.openmobl.pttDriver.db.AsyncDriverDatabase;
 import com.openmobl.pttDriver.model.Device;
 import com.openmobl.pttDriver.model.Device.DeviceType;
 import com.openmobl.pttDriver.model.Driver;
@@ -78,7 +77,7 @@ public class DeviceEditFragment extends DialogFragment {
     private List<Driver> mDrivers;
     private DeviceType mEditingDeviceType = DeviceType.BLUETOOTH;
 
-    private DriverDatabase mDb;
+    private AsyncDriverDatabase mDb;
 
     private DeviceEditListener mListener;
 
@@ -103,7 +102,7 @@ public class DeviceEditFragment extends DialogFragment {
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
-        mDb = new DriverSQLiteDatabase(getActivity());
+        mDb = AsyncDriverDatabase.getInstance(requireContext());
     }
 
     @Override
@@ -228,46 +227,10 @@ public class DeviceEditFragment extends DialogFragment {
             }
         });
 
-        mDrivers = getAllDrivers();
-
-        if (mDrivers != null && mDrivers.size() > 0) {
-            ArrayAdapter<Driver> driverDropdownAdapter = new ArrayAdapter<>(requireContext(), R.layout.driver_list_item, mDrivers);
-            mDriverDropdown.setAdapter(driverDropdownAdapter);
-            mDriverDropdown.setOnItemClickListener(new AdapterView.OnItemClickListener() {
-                @Override
-                public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                    mDriver = mDrivers.get(position);
-
-                    try {
-                        PttDriver driverObj = new PttDriver(requireContext(), mDriver.getJson());
-
-                        if (mPttDownKeyDelay.getEditText() != null) {
-                            mPttDownKeyDelay.getEditText().setText(Integer.toString(driverObj.getReadObj().getDefaultPttDownKeyDelay()));
-                        }
-
-                        if (mEditingDeviceType == DeviceType.LOCAL) {
-                            String generated = getResources().getString(R.string.local_device_address_prefix) + mDriver.getName().replaceAll("[^a-zA-Z\\d]","_");
-                            mDeviceMac.setText(generated);
-                            if (mAdvancedMode) {
-                                if (mDeviceMacInput.getEditText() != null) {
-                                    mDeviceMacInput.getEditText().setText(generated);
-                                }
-                            }
-                        }
-                    } catch (Exception e) {
-                        Log.d(TAG, "Driver JSON: " + mDriver.getJson());
-                        e.printStackTrace();
-                    }
-                }
-            });
-        } else {
-            TextView error = (TextView)view.findViewById(R.id.editdevice_label_pttNoDriversLabel);
-
-            error.setVisibility(View.VISIBLE);
-            //mDriverDropdown.setInputType();
-
-            mDriver = Driver.getEmptyDriver();
-        }
+        mDb.getDrivers(drivers -> {
+            if (isAdded())
+                setDrivers(view, drivers);
+        });
 
         Device old = getDevice();
         if (old != null) {
@@ -275,14 +238,10 @@ public class DeviceEditFragment extends DialogFragment {
             mDeviceLabel.setText(old.getName());
             mDeviceMac.setText(old.getMacAddress());
             mDeviceSelected = true;
-            mDriver = lookupDriver(old.getDriverId());
             mAutoConnect.setChecked(old.getAutoConnect());
             mAutoReconnect.setChecked(old.getAutoReconnect());
             if (mPttDownKeyDelay.getEditText() != null)
                 mPttDownKeyDelay.getEditText().setText(Integer.toString(old.getPttDownDelay()));
-            if (mDriver.getId() != -1) {
-                mDriverDropdown.setText(mDriver.getName(), false);
-            }
         } else {
             mAutoConnect.setChecked(Device.getAutoConnectDefault());
             mAutoReconnect.setChecked(Device.getAutoReconnectDefault());
@@ -362,18 +321,66 @@ public class DeviceEditFragment extends DialogFragment {
         }
     }
 
-    private Driver lookupDriver(int id) {
-        if (id >= 0) {
-            Driver driver = mDb.getDriver(id);
+    // Drivers are loaded off the main thread, the dropdown is filled once they arrive
+    private void setDrivers(View view, List<Driver> drivers) {
+        mDrivers = drivers;
+
+        if (mDrivers != null && mDrivers.size() > 0) {
+            ArrayAdapter<Driver> driverDropdownAdapter = new ArrayAdapter<>(requireContext(), R.layout.driver_list_item, mDrivers);
+            mDriverDropdown.setAdapter(driverDropdownAdapter);
+            mDriverDropdown.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+                @Override
+                public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                    mDriver = mDrivers.get(position);
+
+                    try {
+                        PttDriver driverObj = mDriver.toPttDriver();
 
-            return (driver != null) ? driver : Driver.getEmptyDriver();
+                        if (mPttDownKeyDelay.getEditText() != null) {
+                            mPttDownKeyDelay.getEditText().setText(Integer.toString(driverObj.getReadObj().getDefaultPttDownKeyDelay()));
+                        }
+
+                        if (mEditingDeviceType == DeviceType.LOCAL) {
+                            String generated = getResources().getString(R.string.local_device_address_prefix) + mDriver.getName().replaceAll("[^a-zA-Z\\d]","_");
+                            mDeviceMac.setText(generated);
+                            if (mAdvancedMode) {
+                                if (mDeviceMacInput.getEditText() != null) {
+                                    mDeviceMacInput.getEditText().setText(generated);
+                                }
+                            }
+                        }
+                    } catch (Exception e) {
+                        Log.d(TAG, "Driver JSON: " + mDriver.getJson());
+                        e.printStackTrace();
+                    }
+                }
+            });
         } else {
-            return Driver.getEmptyDriver();
+            TextView error = (TextView)view.findViewById(R.id.editdevice_label_pttNoDriversLabel);
+
+            error.setVisibility(View.VISIBLE);
+            //mDriverDropdown.setInputType();
+
+            mDriver = Driver.getEmptyDriver();
+        }
+
+        Device old = getDevice();
+        if (old != null) {
+            mDriver = lookupDriver(old.getDriverId());
+            if (mDriver.getId() != -1) {
+                mDriverDropdown.setText(mDriver.getName(), false);
+            }
         }
     }
 
-    private List<Driver> getAllDrivers() {
-        return mDb.getDrivers();
+    private Driver lookupDriver(int id) {
+        if (id >= 0 && mDrivers != null) {
+            for (Driver driver : mDrivers) {
+                if (driver.getId() == id)
+                    return driver;
+            }
+        }
+        return Driver.getEmptyDriver();
     }
 
     private boolean validate() {
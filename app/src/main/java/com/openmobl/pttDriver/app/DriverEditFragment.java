@@ -194,7 +194,7 @@ public class DriverEditFragment extends DialogFragment {
             Uri driverPath = resultData.getData();
 
             try {
-                PttDriver driver = new PttDriver(getContext(), driverPath);
+                PttDriver driver = new PttDriver(requireContext().getContentResolver().openInputStream(driverPath));
 
                 Log.d(TAG, "Parsed PttDriver:\n" + driver);
 
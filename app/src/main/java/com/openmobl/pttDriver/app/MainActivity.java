@@ -10,8 +10,7 @@ import com.openmobl.pttDriver.app.ui.main.DeviceOrDriverViewModel;
 import com.openmobl.pttDriver.app.ui.main.DevicesViewModel;
 import com.openmobl.pttDriver.app.ui.main.DriversViewModel;
 import com.openmobl.pttDriver.app.ui.main.SectionsPagerAdapter;
-import com.openmobl.pttDriver.db.DriverDatabase;
-import com.openmobl.pttDriver.db.DriverSQLiteDatabase;
+import com.openmobl.pttDriver.db.AsyncDriverDatabase;
 import com.openmobl.pttDriver.model.Device;
 import com.openmobl.pttDriver.model.Driver;
 import com.openmobl.pttDriver.model.ModelDataAction;
@@ -30,6 +29,7 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
+import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Handler;
 import android.text.Html;
@@ -50,9 +50,9 @@ import androidx.core.app.ActivityCompat;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.viewpager.widget.ViewPager;
 
+import com.openmobl.pttDriver.utils.LatencyTracer;
 import com.openmobl.pttDriver.utils.ServiceUtils;
 
-import java.util.List;
 import java.util.Map;
 
 //@RequiresApi(api = Build.VERSION_CODES.P)
@@ -82,7 +82,7 @@ public class MainActivity extends AppCompatActivity implements DeviceStatusListe
 
     private boolean mHasPermissions = false;
 
-    private DriverDatabase mDatabase;
+    private AsyncDriverDatabase mDatabase;
 
     private DevicesViewModel mDevicesViewModel;
     private DriversViewModel mDriversViewModel;
@@ -133,7 +133,7 @@ public class MainActivity extends AppCompatActivity implements DeviceStatusListe
 
         super.onCreate(savedInstanceState);
 
-        mDatabase = new DriverSQLiteDatabase(getApplicationContext());
+        mDatabase = AsyncDriverDatabase.getInstance(this);
 
         mDriversViewModel = new ViewModelProvider(this).get(DriversViewModel.class);
         mDriversViewModel.setDataSource(mDatabase);
@@ -384,9 +384,8 @@ public class MainActivity extends AppCompatActivity implements DeviceStatusListe
     public void onDriverEdit(ModelDataAction action, Driver driver) {
         Log.v(TAG, "onDriverEdit " + action + " on Driver: " + driver.toStringFull());
 
+        // Both lists are refreshed once the write is done
         mDatabase.addOrUpdateDriver(driver);
-        mDriversViewModel.refreshSource();
-        mDevicesViewModel.refreshSource();
     }
 
     private void addDevice() {
@@ -424,7 +423,7 @@ public class MainActivity extends AppCompatActivity implements DeviceStatusListe
 
                 if (driver != null) {
                     try {
-                        pttDriver = new PttDriver(getApplicationContext(), driver.getJson());
+                        pttDriver = new PttDriver(driver.getJson());
                     } catch (Exception e) {
                         e.printStackTrace();
 
@@ -461,37 +460,20 @@ public class MainActivity extends AppCompatActivity implements DeviceStatusListe
 
     private void connectToDevice(final Device device) {
         if (device != null) {
-            Driver driver = null;
-            PttDriver pttDriver = null;
-            IDeviceDriverService service = mDeviceServiceManager.getService(device.getId());
-
-            if (device.getDriverId() != -1) {
-                driver = mDatabase.getDriver(device.getDriverId());
-            } else {
-                List<Driver> drivers = mDatabase.getDrivers();
-
-                for (Driver test : drivers) {
-                    if (test.getDeviceNameMatch() != null) {
-                        if (device.getName().contains(test.getDeviceNameMatch())) {
-                            driver = test;
-                        }
-                    }
-                }
-            }
-
-            if (driver != null) {
-                try {
-                    pttDriver = new PttDriver(getApplicationContext(), driver.getJson());
-                } catch (Exception e) {
-                    e.printStackTrace();
+            mDatabase.getDriverForDevice(device, driver -> {
+                if (!isDestroyed())
+                    connectToDevice(device, driver);
+            });
+        } else {
+            // Show error
+        }
+    }
 
-                    Log.d(TAG, "Received exception opening \"" + driver.getName() + "\": " + e);
-                    Log.v(TAG, "Driver JSON: " + driver.getJson());
+    private void connectToDevice(final Device device, final PttDriver pttDriver) {
+        if (device != null) {
+            IDeviceDriverService service = mDeviceServiceManager.getService(device.getId());
 
-                    // Show error
-                    return;
-                }
-            } else {
+            if (pttDriver == null) {
                 // Show error
                 return;
             }
@@ -510,7 +492,7 @@ public class MainActivity extends AppCompatActivity implements DeviceStatusListe
                 handler.postDelayed(new Runnable() {
                     @Override
                     public void run() {
-                        connectToDevice(device);
+                        connectToDevice(device, pttDriver);
                     }
                 }, 500);
 
@@ -547,7 +529,6 @@ public class MainActivity extends AppCompatActivity implements DeviceStatusListe
         Log.v(TAG, "onDeviceEdit " + action + " on Device: " + device.toStringFull());
 
         mDatabase.addOrUpdateDevice(device);
-        mDevicesViewModel.refreshSource();
     }
 
     @Override
@@ -569,6 +550,9 @@ public class MainActivity extends AppCompatActivity implements DeviceStatusListe
             case R.id.menu_action_about_app:
                 showAboutDialog();
                 break;
+            case R.id.menu_action_latency:
+                showLatencyDialog();
+                break;
             case R.id.menu_action_bt_settings:
                 Intent intent = new Intent();
                 intent.setAction(android.provider.Settings.ACTION_BLUETOOTH_SETTINGS);
@@ -638,6 +622,34 @@ public class MainActivity extends AppCompatActivity implements DeviceStatusListe
         ((TextView)dialog.findViewById(android.R.id.message)).setMovementMethod(LinkMovementMethod.getInstance());
     }
 
+    private void showLatencyDialog() {
+        StringBuilder report = new StringBuilder();
+
+        for (DeviceDriverServiceHolder holder : mDeviceServiceManager.getAllServices().values()) {
+            if (holder != null && holder.getService() != null) {
+                LatencyTracer tracer = holder.getService().getLatencyTracer();
+
+                report.append(tracer.getName());
+                report.append("\n");
+                report.append(tracer.report());
+                report.append("\n");
+            }
+        }
+
+        AlertDialog dialog = new AlertDialog.Builder(this)
+                .setTitle(getString(R.string.latency))
+                .setMessage(report.length() > 0 ? report.toString() : getString(R.string.latency_none))
+                .setPositiveButton(getString(R.string.ok), new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int whichButton) {
+                        // Do nothing
+                    }
+                })
+                .create();
+        dialog.show();
+
+        ((TextView)dialog.findViewById(android.R.id.message)).setTypeface(Typeface.MONOSPACE);
+    }
+
     /*
     @Override
     public void onBackStackChanged() {
@@ -0,0 +1,15 @@
+package com.openmobl.pttDriver.app;
+
+import android.app.Application;
+
+import com.openmobl.pttDriver.platform.AndroidPlatform;
+
+public class PttDriverApplication extends Application {
+    @Override
+    public void onCreate() {
+        // Before any driver is parsed or service started
+        AndroidPlatform.install();
+
+        super.onCreate();
+    }
+}
@@ -11,7 +11,7 @@ import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModel;
 
 import com.openmobl.pttDriver.app.MainActivity;
-import com.openmobl.pttDriver.db.DriverDatabase;
+import com.openmobl.pttDriver.db.AsyncDriverDatabase;
 import com.openmobl.pttDriver.model.ModelDataAction;
 import com.openmobl.pttDriver.model.Record;
 
@@ -25,7 +25,7 @@ public class DeviceOrDriverViewModel extends ViewModel {
 
     private MutableLiveData<Bundle> mModelDataEvent = new MutableLiveData<>();
 
-    public void setDataSource(DriverDatabase db) { }
+    public void setDataSource(AsyncDriverDatabase db) { }
 
     public void sendDataEvent(Record record, ModelDataAction action) {
         Bundle newEvent = new Bundle();
@@ -5,41 +5,40 @@ import android.app.Application;
 import androidx.annotation.NonNull;
 import androidx.arch.core.util.Function;
 import androidx.lifecycle.LiveData;
-import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.MediatorLiveData;
 import androidx.lifecycle.Transformations;
 
-import com.openmobl.pttDriver.db.DriverDatabase;
-import com.openmobl.pttDriver.db.DriverSQLiteDatabase;
-import com.openmobl.pttDriver.model.Device;
+import com.openmobl.pttDriver.db.AsyncDriverDatabase;
+import com.openmobl.pttDriver.model.DeviceWithDriver;
 import com.openmobl.pttDriver.model.DeviceWithStatus;
 import com.openmobl.pttDriver.model.Record;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class DevicesViewModel extends DeviceOrDriverViewModel {
-    private MutableLiveData<List<Device>> mDevices = new MutableLiveData<>();
-    private DriverDatabase mDb;
-    private LiveData<List<Record>> mRecords = Transformations.map(mDevices, new Function<List<Device>, List<Record>>() {
+    private MediatorLiveData<List<DeviceWithDriver>> mDevices = new MediatorLiveData<>();
+    private AsyncDriverDatabase mDb;
+    private LiveData<List<Record>> mRecords = Transformations.map(mDevices, new Function<List<DeviceWithDriver>, List<Record>>() {
         @Override
-        public List<Record> apply(List<Device> input) {
-            List<Record> records = new ArrayList<>();
-
-            records.addAll(input);
-
-            return records;
+        public List<Record> apply(List<DeviceWithDriver> input) {
+            // The published lists are never changed, a new one comes with every change
+            return Collections.unmodifiableList(input);
         }
     });
 
     @Override
-    public void setDataSource(DriverDatabase db) {
+    public void setDataSource(AsyncDriverDatabase db) {
+        if (mDb != null)
+            mDevices.removeSource(mDb.getDevicesLiveData());
         mDb = db;
+        mDevices.addSource(db.getDevicesLiveData(), mDevices::setValue);
     }
 
     @Override
     public void refreshSource() {
         if (mDb != null)
-            mDevices.setValue(mDb.getDevices());
+            mDb.refreshDevices();
     }
 
     @Override
@@ -5,41 +5,40 @@ import android.app.Application;
 import androidx.annotation.NonNull;
 import androidx.arch.core.util.Function;
 import androidx.lifecycle.LiveData;
-import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.MediatorLiveData;
 import androidx.lifecycle.Transformations;
 
-import com.openmobl.pttDriver.db.DriverDatabase;
-import com.openmobl.pttDriver.db.DriverSQLiteDatabase;
+import com.openmobl.pttDriver.db.AsyncDriverDatabase;
 import com.openmobl.pttDriver.model.Device;
 import com.openmobl.pttDriver.model.Driver;
 import com.openmobl.pttDriver.model.Record;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class DriversViewModel extends DeviceOrDriverViewModel {
-    private MutableLiveData<List<Driver>> mDrivers = new MutableLiveData<>();
-    private DriverDatabase mDb;
+    private MediatorLiveData<List<Driver>> mDrivers = new MediatorLiveData<>();
+    private AsyncDriverDatabase mDb;
     private LiveData<List<Record>> mRecords = Transformations.map(mDrivers, new Function<List<Driver>, List<Record>>() {
         @Override
         public List<Record> apply(List<Driver> input) {
-            List<Record> records = new ArrayList<>();
-
-            records.addAll(input);
-
-            return records;
+            // The published lists are never changed, a new one comes with every change
+            return Collections.unmodifiableList(input);
         }
     });
 
     @Override
-    public void setDataSource(DriverDatabase db) {
+    public void setDataSource(AsyncDriverDatabase db) {
+        if (mDb != null)
+            mDrivers.removeSource(mDb.getDriversLiveData());
         mDb = db;
+        mDrivers.addSource(db.getDriversLiveData(), mDrivers::setValue);
     }
 
     @Override
     public void refreshSource() {
         if (mDb != null)
-            mDrivers.setValue(mDb.getDrivers());
+            mDb.refreshDrivers();
     }
 
     @Override
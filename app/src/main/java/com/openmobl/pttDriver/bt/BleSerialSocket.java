@@ -2,6 +2,7 @@ package com.openmobl.pttDriver.bt;
 
 import com.openmobl.pttDriver.Constants;
 import com.openmobl.pttDriver.R;
+import com.openmobl.pttDriver.service.MetricsRegistry;
 import com.openmobl.pttDriver.utils.TextUtil;
 
 import android.app.Activity;
@@ -72,6 +73,7 @@ public class BleSerialSocket extends BluetoothGattCallback implements SerialSock
     private boolean mWritePending;
     private boolean mCanceled;
     private boolean mConnected;
+    private MetricsRegistry mMetrics;
     private int payloadSize = DEFAULT_MTU-3;
 
     public BleSerialSocket(Context context, BluetoothDevice device) {
@@ -130,6 +132,18 @@ public class BleSerialSocket extends BluetoothGattCallback implements SerialSock
         return mDevice.getName() != null ? mDevice.getName() : mDevice.getAddress();
     }
 
+    @Override
+    public void setMetrics(MetricsRegistry metrics) {
+        mMetrics = metrics;
+    }
+
+    private void onGattError(int status) {
+        Log.d(TAG, "gatt error " + status);
+
+        if (mMetrics != null)
+            mMetrics.increment(MetricsRegistry.Counter.GATT_ERRORS);
+    }
+
     @Override
     public String getAddress() {
         return mDevice.getAddress();
@@ -248,6 +262,9 @@ public class BleSerialSocket extends BluetoothGattCallback implements SerialSock
     public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
         Log.v(TAG, "Received onConnectionStateChange: " + status + ", " + newState);
 
+        if (status != BluetoothGatt.GATT_SUCCESS)
+            onGattError(status);
+
         // status directly taken from gat_api.h, e.g. 133=0x85=GATT_ERROR ~= timeout
         if (newState == BluetoothProfile.STATE_CONNECTED) {
             Log.d(TAG,"connect status "+status+", discoverServices");
@@ -358,6 +375,8 @@ public class BleSerialSocket extends BluetoothGattCallback implements SerialSock
         if (status ==  BluetoothGatt.GATT_SUCCESS) {
             payloadSize = mtu - 3;
             Log.d(TAG, "payload size "+payloadSize);
+        } else {
+            onGattError(status);
         }
         connectCharacteristics3(gatt);
     }
@@ -481,6 +500,7 @@ public class BleSerialSocket extends BluetoothGattCallback implements SerialSock
                 descriptor.getCharacteristic().getUuid())) {
             Log.d(TAG,"writing read characteristic descriptor for " + descriptor.getCharacteristic().getUuid() + "finished, status="+status);
             if (status != BluetoothGatt.GATT_SUCCESS) {
+                onGattError(status);
                 onSerialConnectError(new IOException("write descriptor failed"));
             } else {
                 // onCharacteristicChanged with incoming data can happen after writeDescriptor(ENABLE_INDICATION/NOTIFICATION)
@@ -522,6 +542,9 @@ public class BleSerialSocket extends BluetoothGattCallback implements SerialSock
 
             Log.d(TAG,"read (onCharacteristicChanged), len = " + data.length + ", data = " + TextUtil.toHexString(data));
 
+            if (mMetrics != null)
+                mMetrics.increment(MetricsRegistry.Counter.PACKETS_READ);
+
             onSerialRead(data, characteristic.getService().getUuid(), characteristic.getUuid());
         }
     }
@@ -605,6 +628,7 @@ public class BleSerialSocket extends BluetoothGattCallback implements SerialSock
         if (mCanceled || !mConnected)
             return;
         if (status != BluetoothGatt.GATT_SUCCESS) {
+            onGattError(status);
             onSerialIoError(new IOException("write failed"));
             return;
         }
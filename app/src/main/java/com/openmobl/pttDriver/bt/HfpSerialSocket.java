@@ -5,6 +5,7 @@ import com.openmobl.pttDriver.R;
 import com.openmobl.pttDriver.bt.hfp.AtCommandHandler;
 import com.openmobl.pttDriver.bt.hfp.AtCommandResult;
 import com.openmobl.pttDriver.bt.hfp.AtParser;
+import com.openmobl.pttDriver.service.MetricsRegistry;
 import com.openmobl.pttDriver.utils.BluetoothScoAudioUtils;
 import com.openmobl.pttDriver.utils.TextUtil;
 
@@ -24,9 +25,9 @@ import android.os.Handler;
 import android.util.Log;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Method;
 import java.security.InvalidParameterException;
-import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.Executors;
@@ -46,6 +47,7 @@ public class HfpSerialSocket implements Runnable, SerialSocket {
     private final BluetoothDevice mDevice;
     private BluetoothSocket mSocket;
     private boolean mConnected;
+    private MetricsRegistry mMetrics;
     private AtParser mAtParser;
 
     // Some code from com/android/phone/BluetoothHandsFree.java @ jb-release
@@ -405,6 +407,11 @@ public class HfpSerialSocket implements Runnable, SerialSocket {
         return mDevice.getName() != null ? mDevice.getName() : mDevice.getAddress();
     }
 
+    @Override
+    public void setMetrics(MetricsRegistry metrics) {
+        mMetrics = metrics;
+    }
+
     @Override
     public String getAddress() {
         return mDevice.getAddress();
@@ -495,9 +502,9 @@ public class HfpSerialSocket implements Runnable, SerialSocket {
         }
     }
 
-    private void onSerialRead(byte[] data) {
+    private void onSerialRead(byte[] buffer, int length) {
         if (mListener != null)
-            mListener.onSerialRead(data, null, null);
+            mListener.onSerialRead(buffer, 0, length, null, null);
     }
 
     @Override
@@ -525,15 +532,20 @@ public class HfpSerialSocket implements Runnable, SerialSocket {
         mConnected = true;
 
         try {
+            InputStream input = mSocket.getInputStream();
             byte[] buffer = new byte[1024];
             int len;
 
             while (mConnected) {
-                len = mSocket.getInputStream().read(buffer);
+                len = input.read(buffer);
+
+                if (len < 0)
+                    throw new IOException("end of stream");
 
-                byte[] data = Arrays.copyOf(buffer, len);
+                if (mMetrics != null)
+                    mMetrics.increment(MetricsRegistry.Counter.PACKETS_READ);
 
-                onSerialRead(data);
+                onSerialRead(buffer, len);
             }
         } catch (Exception e) {
             Log.d(TAG, "Exception in HFP run loop: " + e);
@@ -1,6 +1,7 @@
 package com.openmobl.pttDriver.bt;
 
 import com.openmobl.pttDriver.Constants;
+import com.openmobl.pttDriver.service.MetricsRegistry;
 
 import android.app.Activity;
 import android.bluetooth.BluetoothDevice;
@@ -12,8 +13,8 @@ import android.content.IntentFilter;
 import android.util.Log;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.InvalidParameterException;
-import java.util.Arrays;
 import java.util.UUID;
 import java.util.concurrent.Executors;
 
@@ -30,6 +31,7 @@ public class SppSerialSocket implements Runnable, SerialSocket {
     private final BluetoothDevice mDevice;
     private BluetoothSocket mSocket;
     private boolean mConnected;
+    private MetricsRegistry mMetrics;
 
     public SppSerialSocket(Context context, BluetoothDevice device) {
         if(context instanceof Activity)
@@ -62,6 +64,11 @@ public class SppSerialSocket implements Runnable, SerialSocket {
         return mDevice.getName() != null ? mDevice.getName() : mDevice.getAddress();
     }
 
+    @Override
+    public void setMetrics(MetricsRegistry metrics) {
+        mMetrics = metrics;
+    }
+
     @Override
     public String getAddress() {
         return mDevice.getAddress();
@@ -154,16 +161,21 @@ public class SppSerialSocket implements Runnable, SerialSocket {
         mConnected = true;
 
         try {
+            InputStream input = mSocket.getInputStream();
             byte[] buffer = new byte[1024];
             int len;
 
             while (mConnected) {
-                len = mSocket.getInputStream().read(buffer);
+                len = input.read(buffer);
+
+                if (len < 0)
+                    throw new IOException("end of stream");
 
-                byte[] data = Arrays.copyOf(buffer, len);
+                if (mMetrics != null)
+                    mMetrics.increment(MetricsRegistry.Counter.PACKETS_READ);
 
                 if (mListener != null)
-                    mListener.onSerialRead(data, null, null);
+                    mListener.onSerialRead(buffer, 0, len, null, null);
             }
         } catch (Exception e) {
             Log.d(TAG, "Exception in SPP run loop: " + e);
@@ -0,0 +1,346 @@
+package com.openmobl.pttDriver.db;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.openmobl.pttDriver.model.Device;
+import com.openmobl.pttDriver.model.DeviceWithDriver;
+import com.openmobl.pttDriver.model.Driver;
+import com.openmobl.pttDriver.model.PttDriver;
+import com.openmobl.pttDriver.model.Record;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs a {@link DriverDatabaseCache} off the main thread.
+ *
+ * Every write goes through a single writer thread, in the order it was made, while reads run on a small
+ * pool of reader threads. With the write ahead log of {@link DriverSQLiteDatabase} a read never waits
+ * for a write in progress, it sees the last committed state.
+ *
+ * Reads return a {@link Future} and can also hand their result to a {@link Callback} on the main
+ * thread. The device and driver lists are published as {@link LiveData}, the devices with their drivers.
+ * On each {@link DriverDatabaseCache.Change} only the records it names are read again from the cache and
+ * replaced in, added to or removed from the published list, the devices also for the drivers they use.
+ * Full refreshes requested while one is still queued are coalesced into it.
+ */
+public class AsyncDriverDatabase {
+    private static final String TAG = AsyncDriverDatabase.class.getName();
+
+    private static final int READER_THREADS = 2;
+
+    private static AsyncDriverDatabase sInstance;
+
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    // Reads one record of a list from the cache, null when it no longer exists
+    private interface RecordLookup<T> {
+        T get(int id);
+    }
+
+    // A list published as LiveData, in the order of the ids, reloaded on demand and patched on changes
+    private class RefreshableList<T extends Record> {
+        private final MutableLiveData<List<T>> mLiveData = new MutableLiveData<>();
+        private final Callable<List<T>> mQuery;
+        private final RecordLookup<T> mLookup;
+        private final AtomicBoolean mPending = new AtomicBoolean();
+        // Last list published, null until the first refresh
+        private List<T> mCurrent;
+
+        RefreshableList(Callable<List<T>> query, RecordLookup<T> lookup) {
+            mQuery = query;
+            mLookup = lookup;
+        }
+
+        void refresh() {
+            // A queued refresh has not read anything yet, it will also cover this request
+            if (!mPending.compareAndSet(false, true))
+                return;
+
+            mReaders.execute(() -> {
+                mPending.set(false);
+
+                // Reads are from memory, holding the lock keeps two updates from publishing out of order
+                synchronized (this) {
+                    try {
+                        publish(mQuery.call());
+                    } catch (Exception e) {
+                        Log.d(TAG, "Refresh failed: " + e);
+                    }
+                }
+            });
+        }
+
+        // Reads the records with these ids again, in place of the whole list
+        void update(Set<Integer> ids) {
+            if (ids.isEmpty())
+                return;
+
+            mReaders.execute(() -> {
+                synchronized (this) {
+                    if (mCurrent == null)
+                        return;
+
+                    List<T> list = new ArrayList<>(mCurrent);
+
+                    for (int id : ids) {
+                        T record = mLookup.get(id);
+                        int index = indexOf(list, id);
+
+                        if (index >= 0 && list.get(index).getId() == id) {
+                            if (record != null) {
+                                list.set(index, record);
+                            } else {
+                                list.remove(index);
+                            }
+                        } else if (record != null) {
+                            list.add(-index - 1, record);
+                        }
+                    }
+
+                    publish(list);
+                }
+            });
+        }
+
+        // Index of the id in the list, or -(insertion point) - 1 as Collections.binarySearch
+        private int indexOf(List<T> list, int id) {
+            int low = 0;
+            int high = list.size() - 1;
+
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int midId = list.get(mid).getId();
+
+                if (midId < id) {
+                    low = mid + 1;
+                } else if (midId > id) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        private void publish(List<T> list) {
+            mCurrent = list;
+            mLiveData.postValue(list);
+        }
+
+        // Ids of the listed records that match, for records that depend on others
+        synchronized Set<Integer> find(RecordFilter<T> filter) {
+            Set<Integer> ids = new HashSet<>();
+
+            if (mCurrent != null) {
+                for (T record : mCurrent) {
+                    if (filter.matches(record))
+                        ids.add(record.getId());
+                }
+            }
+            return ids;
+        }
+    }
+
+    private interface RecordFilter<T> {
+        boolean matches(T record);
+    }
+
+    private final DriverDatabaseCache mDatabase;
+    private final ExecutorService mWriter;
+    private final ExecutorService mReaders;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final RefreshableList<DeviceWithDriver> mDevices;
+    private final RefreshableList<Driver> mDrivers;
+
+    // Shared by every activity and fragment of the process, so all their writes go through one writer
+    public static synchronized AsyncDriverDatabase getInstance(Context context) {
+        if (sInstance == null)
+            sInstance = new AsyncDriverDatabase(
+                    new DriverDatabaseCache(new DriverSQLiteDatabase(context.getApplicationContext())));
+        return sInstance;
+    }
+
+    public AsyncDriverDatabase(DriverDatabaseCache database) {
+        mDatabase = database;
+        mWriter = Executors.newSingleThreadExecutor(r -> new Thread(r, "DriverDatabase writer"));
+        mReaders = Executors.newFixedThreadPool(READER_THREADS, r -> new Thread(r, "DriverDatabase reader"));
+
+        mDevices = new RefreshableList<>(mDatabase::getDevicesWithDrivers, this::getDeviceWithDriver);
+        mDrivers = new RefreshableList<>(mDatabase::getDrivers, mDatabase::getDriver);
+
+        mDatabase.addChangeListener(change -> {
+            Set<Integer> ids = new HashSet<>();
+
+            ids.addAll(change.getAdded());
+            ids.addAll(change.getUpdated());
+            ids.addAll(change.getRemoved());
+
+            if (change.getType() == Record.RecordType.DEVICE) {
+                mDevices.update(ids);
+            } else {
+                mDrivers.update(ids);
+                // The devices carry their driver
+                mDevices.update(mDevices.find(device -> ids.contains(device.getDriverId())));
+            }
+        });
+    }
+
+    private DeviceWithDriver getDeviceWithDriver(int id) {
+        Device device = mDatabase.getDevice(id);
+
+        return device != null ? new DeviceWithDriver(device, mDatabase.getDriver(device.getDriverId())) : null;
+    }
+
+    // For callers already off the main thread, its reads are served from memory
+    public DriverDatabaseCache getDatabase() {
+        return mDatabase;
+    }
+
+    public void addChangeListener(DriverDatabaseCache.ChangeListener listener) {
+        mDatabase.addChangeListener(listener);
+    }
+
+    public void removeChangeListener(DriverDatabaseCache.ChangeListener listener) {
+        mDatabase.removeChangeListener(listener);
+    }
+
+    public LiveData<List<DeviceWithDriver>> getDevicesLiveData() {
+        return mDevices.mLiveData;
+    }
+
+    public LiveData<List<Driver>> getDriversLiveData() {
+        return mDrivers.mLiveData;
+    }
+
+    public void refreshDevices() {
+        mDevices.refresh();
+    }
+
+    public void refreshDrivers() {
+        mDrivers.refresh();
+    }
+
+    public Future<List<Device>> getDevices(Callback<List<Device>> callback) {
+        return read(mDatabase::getDevices, callback);
+    }
+
+    public Future<List<Driver>> getDrivers(Callback<List<Driver>> callback) {
+        return read(mDatabase::getDrivers, callback);
+    }
+
+    public Future<Device> getDevice(int id, Callback<Device> callback) {
+        return read(() -> mDatabase.getDevice(id), callback);
+    }
+
+    public Future<Driver> getDriver(int id, Callback<Driver> callback) {
+        return read(() -> mDatabase.getDriver(id), callback);
+    }
+
+    /**
+     * The driver set on the device, or the best match for its name when it has none, loaded on the reader
+     * pool so the main thread never parses it. A device of the device list already has its driver, which
+     * is not read again.
+     *
+     * @return null when the device has no driver or it fails to load
+     */
+    public Future<PttDriver> getDriverForDevice(Device device, Callback<PttDriver> callback) {
+        Driver joined = device instanceof DeviceWithDriver ? ((DeviceWithDriver)device).getDriver() : null;
+
+        return read(() -> {
+            Driver driver = joined != null ? joined :
+                    device.getDriverId() != -1 ?
+                            mDatabase.getDriver(device.getDriverId()) :
+                            mDatabase.getDriverForDeviceName(device.getName());
+
+            if (driver == null)
+                return null;
+
+            try {
+                return driver.toPttDriver();
+            } catch (Exception e) {
+                Log.d(TAG, "Received exception opening \"" + driver.getName() + "\": " + e);
+                Log.v(TAG, "Driver JSON: " + driver.getJson());
+                return null;
+            }
+        }, callback);
+    }
+
+    public Future<?> addOrUpdateDevice(Device device) {
+        return write(() -> mDatabase.addOrUpdateDevice(device));
+    }
+
+    public Future<?> removeDevice(Device device) {
+        return write(() -> mDatabase.removeDevice(device));
+    }
+
+    public Future<?> addOrUpdateDevices(List<Device> devices) {
+        return write(() -> mDatabase.addOrUpdateDevices(devices));
+    }
+
+    public Future<?> removeDevices(List<Device> devices) {
+        return write(() -> mDatabase.removeDevices(devices));
+    }
+
+    public Future<?> addOrUpdateDriver(Driver driver) {
+        return write(() -> mDatabase.addOrUpdateDriver(driver));
+    }
+
+    public Future<?> removeDriver(Driver driver) {
+        return write(() -> mDatabase.removeDriver(driver));
+    }
+
+    public Future<?> addOrUpdateDrivers(List<Driver> drivers) {
+        return write(() -> mDatabase.addOrUpdateDrivers(drivers));
+    }
+
+    public Future<?> removeDrivers(List<Driver> drivers) {
+        return write(() -> mDatabase.removeDrivers(drivers));
+    }
+
+    private <T> Future<T> read(Callable<T> query, Callback<T> callback) {
+        return mReaders.submit(() -> {
+            try {
+                T result = query.call();
+
+                if (callback != null)
+                    mMainHandler.post(() -> callback.onResult(result));
+
+                return result;
+            } catch (Exception e) {
+                Log.d(TAG, "Read failed: " + e);
+                throw e;
+            }
+        });
+    }
+
+    private Future<?> write(Runnable update) {
+        return mWriter.submit(() -> {
+            try {
+                update.run();
+            } catch (RuntimeException e) {
+                Log.d(TAG, "Write failed: " + e);
+                // The cache reloads the database after a failed write, without a change to publish
+                mDevices.refresh();
+                mDrivers.refresh();
+                throw e;
+            }
+        });
+    }
+}
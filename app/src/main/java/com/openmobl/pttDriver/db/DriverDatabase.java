@@ -1,6 +1,7 @@
 package com.openmobl.pttDriver.db;
 
 import com.openmobl.pttDriver.model.Device;
+import com.openmobl.pttDriver.model.DeviceWithDriver;
 import com.openmobl.pttDriver.model.Driver;
 
 import java.util.List;
@@ -11,6 +12,8 @@ public interface DriverDatabase {
 
     List<Device> getDevices();
     List<Driver> getDrivers();
+    // Every device with its driver, in a single query
+    List<DeviceWithDriver> getDevicesWithDrivers();
 
     Device getDevice(int id);
     Device getDevice(String macAddress);
@@ -21,9 +24,16 @@ public interface DriverDatabase {
     void updateDevice(Device device);
     void removeDevice(int id);
     void removeDevice(Device device);
+    // In a single transaction
+    void addOrUpdateDevices(List<Device> devices);
+    void removeDevices(List<Device> devices);
 
     Driver getDriver(int id);
     Driver getDriver(String name);
+    // Best driver for a device without one, matched on the deviceName and watchForDeviceName of the drivers
+    Driver getDriverForDeviceName(String deviceName);
+    // Id of that driver, -1 when none matches
+    int getDriverIdForDeviceName(String deviceName);
     boolean driverExists(int id);
     boolean driverExists(String name);
     void addDriver(Driver driver);
@@ -31,4 +41,7 @@ public interface DriverDatabase {
     void updateDriver(Driver driver);
     void removeDriver(int id);
     void removeDriver(Driver driver);
+    // In a single transaction
+    void addOrUpdateDrivers(List<Driver> drivers);
+    void removeDrivers(List<Driver> drivers);
 }
@@ -0,0 +1,414 @@
+package com.openmobl.pttDriver.db;
+
+import android.util.Log;
+
+import com.openmobl.pttDriver.model.Device;
+import com.openmobl.pttDriver.model.DeviceWithDriver;
+import com.openmobl.pttDriver.model.Driver;
+import com.openmobl.pttDriver.model.Record.RecordType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps every device and driver of a {@link DriverDatabase} in memory, so reads never reach SQLite.
+ *
+ * The records are held in an immutable snapshot, indexed by id, MAC address and name, that is replaced
+ * as a whole on every write. Reads take the current snapshot without locking. Writes go through to the
+ * database first, one at a time, and then publish a new snapshot and a {@link Change} for each type of
+ * record they touched. The records handed out, and those written, are shared with the snapshot and must
+ * not be changed afterwards.
+ */
+public class DriverDatabaseCache implements DriverDatabase {
+    private static final String TAG = DriverDatabaseCache.class.getName();
+
+    /**
+     * Ids of the records of one type added, updated and removed by a write.
+     */
+    public static class Change {
+        private final RecordType mType;
+        private final Set<Integer> mAdded = new LinkedHashSet<>();
+        private final Set<Integer> mUpdated = new LinkedHashSet<>();
+        private final Set<Integer> mRemoved = new LinkedHashSet<>();
+
+        Change(RecordType type) {
+            mType = type;
+        }
+
+        public RecordType getType() { return mType; }
+        public Set<Integer> getAdded() { return Collections.unmodifiableSet(mAdded); }
+        public Set<Integer> getUpdated() { return Collections.unmodifiableSet(mUpdated); }
+        public Set<Integer> getRemoved() { return Collections.unmodifiableSet(mRemoved); }
+
+        public boolean contains(int id) {
+            return mAdded.contains(id) || mUpdated.contains(id) || mRemoved.contains(id);
+        }
+
+        boolean isEmpty() {
+            return mAdded.isEmpty() && mUpdated.isEmpty() && mRemoved.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return mType + " added " + mAdded + " updated " + mUpdated + " removed " + mRemoved;
+        }
+    }
+
+    // Called on the thread that made the write, after the new snapshot is published
+    public interface ChangeListener {
+        void onChange(Change change);
+    }
+
+    private static class Snapshot {
+        final Map<Integer, Device> mDevicesById;
+        final Map<String, Device> mDevicesByMac = new HashMap<>();
+        final Map<Integer, Driver> mDriversById;
+        final Map<String, Driver> mDriversByName = new HashMap<>();
+        final List<Device> mDevices;
+        final List<Driver> mDrivers;
+        final List<DeviceWithDriver> mDevicesWithDrivers;
+
+        // Takes the maps, which are in the order of the ids
+        Snapshot(LinkedHashMap<Integer, Device> devices, LinkedHashMap<Integer, Driver> drivers) {
+            mDevicesById = devices;
+            mDriversById = drivers;
+            mDevices = new ArrayList<>(devices.values());
+            mDrivers = new ArrayList<>(drivers.values());
+            mDevicesWithDrivers = new ArrayList<>(mDevices.size());
+
+            for (Device device : mDevices) {
+                mDevicesByMac.put(device.getMacAddress(), device);
+                mDevicesWithDrivers.add(new DeviceWithDriver(device, drivers.get(device.getDriverId())));
+            }
+            for (Driver driver : mDrivers) {
+                mDriversByName.put(driver.getName(), driver);
+            }
+        }
+    }
+
+    private final DriverDatabase mDatabase;
+    private final Object mWriteLock = new Object();
+    // Null until first used, or after a failed write
+    private volatile Snapshot mSnapshot;
+    private final List<ChangeListener> mListeners = new CopyOnWriteArrayList<>();
+
+    public DriverDatabaseCache(DriverDatabase database) {
+        mDatabase = database;
+    }
+
+    public void addChangeListener(ChangeListener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeChangeListener(ChangeListener listener) {
+        mListeners.remove(listener);
+    }
+
+    private Snapshot snapshot() {
+        Snapshot snapshot = mSnapshot;
+
+        if (snapshot == null) {
+            synchronized (mWriteLock) {
+                if (mSnapshot == null)
+                    mSnapshot = load();
+                snapshot = mSnapshot;
+            }
+        }
+
+        return snapshot;
+    }
+
+    private Snapshot load() {
+        LinkedHashMap<Integer, Device> devices = new LinkedHashMap<>();
+        LinkedHashMap<Integer, Driver> drivers = new LinkedHashMap<>();
+
+        for (Device device : mDatabase.getDevices()) {
+            devices.put(device.getId(), device);
+        }
+        for (Driver driver : mDatabase.getDrivers()) {
+            drivers.put(driver.getId(), driver);
+        }
+
+        Log.v(TAG, "Loaded " + devices.size() + " devices and " + drivers.size() + " drivers");
+
+        return new Snapshot(devices, drivers);
+    }
+
+    // A write to the database and the changes it makes to the snapshot
+    private interface Write {
+        void apply(LinkedHashMap<Integer, Device> devices, LinkedHashMap<Integer, Driver> drivers,
+                   Change deviceChange, Change driverChange);
+    }
+
+    private void write(Write write) {
+        Change deviceChange = new Change(RecordType.DEVICE);
+        Change driverChange = new Change(RecordType.DRIVER);
+
+        synchronized (mWriteLock) {
+            Snapshot snapshot = snapshot();
+            LinkedHashMap<Integer, Device> devices = new LinkedHashMap<>(snapshot.mDevicesById);
+            LinkedHashMap<Integer, Driver> drivers = new LinkedHashMap<>(snapshot.mDriversById);
+
+            try {
+                write.apply(devices, drivers, deviceChange, driverChange);
+            } catch (RuntimeException e) {
+                // The write may have been partly made, load the database again on next use
+                mSnapshot = null;
+                throw e;
+            }
+
+            mSnapshot = new Snapshot(devices, drivers);
+        }
+
+        // Outside the lock, a listener may read or write
+        for (Change change : new Change[] { deviceChange, driverChange }) {
+            if (!change.isEmpty()) {
+                for (ChangeListener listener : mListeners) {
+                    listener.onChange(change);
+                }
+            }
+        }
+    }
+
+    private static void putDevice(LinkedHashMap<Integer, Device> devices, Device device, Change change) {
+        if (devices.put(device.getId(), device) == null) {
+            change.mAdded.add(device.getId());
+        } else {
+            change.mUpdated.add(device.getId());
+        }
+    }
+
+    private static void putDriver(LinkedHashMap<Integer, Driver> drivers, Driver driver, Change change) {
+        if (drivers.put(driver.getId(), driver) == null) {
+            change.mAdded.add(driver.getId());
+        } else {
+            change.mUpdated.add(driver.getId());
+        }
+    }
+
+    private static void removeDevice(LinkedHashMap<Integer, Device> devices, int id, Change change) {
+        if (devices.remove(id) != null)
+            change.mRemoved.add(id);
+    }
+
+    // The devices of a removed driver are left without one, as in the database
+    private static void removeDriver(LinkedHashMap<Integer, Device> devices, LinkedHashMap<Integer, Driver> drivers,
+                                     int id, Change deviceChange, Change driverChange) {
+        if (drivers.remove(id) == null)
+            return;
+
+        driverChange.mRemoved.add(id);
+
+        for (Map.Entry<Integer, Device> entry : devices.entrySet()) {
+            Device device = entry.getValue();
+
+            if (device.getDriverId() == id) {
+                entry.setValue(new Device(device.getId(), device.getDeviceType(), device.getName(),
+                        device.getMacAddress(), -1, device.getAutoConnect(), device.getAutoReconnect(),
+                        device.getPttDownDelay()));
+                deviceChange.mUpdated.add(device.getId());
+            }
+        }
+    }
+
+    @Override
+    public void open() {
+        mDatabase.open();
+    }
+
+    @Override
+    public void close() {
+        mDatabase.close();
+    }
+
+    @Override
+    public List<Device> getDevices() {
+        return new ArrayList<>(snapshot().mDevices);
+    }
+
+    @Override
+    public List<Driver> getDrivers() {
+        return new ArrayList<>(snapshot().mDrivers);
+    }
+
+    @Override
+    public List<DeviceWithDriver> getDevicesWithDrivers() {
+        return new ArrayList<>(snapshot().mDevicesWithDrivers);
+    }
+
+    @Override
+    public Device getDevice(int id) {
+        return snapshot().mDevicesById.get(id);
+    }
+
+    @Override
+    public Device getDevice(String macAddress) {
+        return snapshot().mDevicesByMac.get(macAddress);
+    }
+
+    @Override
+    public boolean deviceExists(int id) {
+        return snapshot().mDevicesById.containsKey(id);
+    }
+
+    @Override
+    public boolean deviceExists(String macAddress) {
+        return snapshot().mDevicesByMac.containsKey(macAddress);
+    }
+
+    @Override
+    public void addDevice(Device device) {
+        write((devices, drivers, deviceChange, driverChange) -> {
+            mDatabase.addDevice(device);
+            putDevice(devices, device, deviceChange);
+        });
+    }
+
+    @Override
+    public void addOrUpdateDevice(Device device) {
+        write((devices, drivers, deviceChange, driverChange) -> {
+            mDatabase.addOrUpdateDevice(device);
+            putDevice(devices, device, deviceChange);
+        });
+    }
+
+    @Override
+    public void updateDevice(Device device) {
+        write((devices, drivers, deviceChange, driverChange) -> {
+            mDatabase.updateDevice(device);
+            if (devices.containsKey(device.getId()))
+                putDevice(devices, device, deviceChange);
+        });
+    }
+
+    @Override
+    public void removeDevice(int id) {
+        write((devices, drivers, deviceChange, driverChange) -> {
+            mDatabase.removeDevice(id);
+            removeDevice(devices, id, deviceChange);
+        });
+    }
+
+    @Override
+    public void removeDevice(Device device) {
+        removeDevice(device.getId());
+    }
+
+    @Override
+    public void addOrUpdateDevices(List<Device> devices) {
+        write((cachedDevices, drivers, deviceChange, driverChange) -> {
+            mDatabase.addOrUpdateDevices(devices);
+            for (Device device : devices) {
+                putDevice(cachedDevices, device, deviceChange);
+            }
+        });
+    }
+
+    @Override
+    public void removeDevices(List<Device> devices) {
+        write((cachedDevices, drivers, deviceChange, driverChange) -> {
+            mDatabase.removeDevices(devices);
+            for (Device device : devices) {
+                removeDevice(cachedDevices, device.getId(), deviceChange);
+            }
+        });
+    }
+
+    @Override
+    public Driver getDriver(int id) {
+        return snapshot().mDriversById.get(id);
+    }
+
+    @Override
+    public Driver getDriver(String name) {
+        return snapshot().mDriversByName.get(name);
+    }
+
+    // Matched by the index of the database, which stays current with every write, and read from the snapshot
+    @Override
+    public Driver getDriverForDeviceName(String deviceName) {
+        int id = getDriverIdForDeviceName(deviceName);
+
+        return id >= 0 ? getDriver(id) : null;
+    }
+
+    @Override
+    public int getDriverIdForDeviceName(String deviceName) {
+        return mDatabase.getDriverIdForDeviceName(deviceName);
+    }
+
+    @Override
+    public boolean driverExists(int id) {
+        return snapshot().mDriversById.containsKey(id);
+    }
+
+    @Override
+    public boolean driverExists(String name) {
+        return snapshot().mDriversByName.containsKey(name);
+    }
+
+    @Override
+    public void addDriver(Driver driver) {
+        write((devices, drivers, deviceChange, driverChange) -> {
+            mDatabase.addDriver(driver);
+            putDriver(drivers, driver, driverChange);
+        });
+    }
+
+    @Override
+    public void addOrUpdateDriver(Driver driver) {
+        write((devices, drivers, deviceChange, driverChange) -> {
+            mDatabase.addOrUpdateDriver(driver);
+            putDriver(drivers, driver, driverChange);
+        });
+    }
+
+    @Override
+    public void updateDriver(Driver driver) {
+        write((devices, drivers, deviceChange, driverChange) -> {
+            mDatabase.updateDriver(driver);
+            if (drivers.containsKey(driver.getId()))
+                putDriver(drivers, driver, driverChange);
+        });
+    }
+
+    @Override
+    public void removeDriver(int id) {
+        write((devices, drivers, deviceChange, driverChange) -> {
+            mDatabase.removeDriver(id);
+            removeDriver(devices, drivers, id, deviceChange, driverChange);
+        });
+    }
+
+    @Override
+    public void removeDriver(Driver driver) {
+        removeDriver(driver.getId());
+    }
+
+    @Override
+    public void addOrUpdateDrivers(List<Driver> drivers) {
+        write((devices, cachedDrivers, deviceChange, driverChange) -> {
+            mDatabase.addOrUpdateDrivers(drivers);
+            for (Driver driver : drivers) {
+                putDriver(cachedDrivers, driver, driverChange);
+            }
+        });
+    }
+
+    @Override
+    public void removeDrivers(List<Driver> drivers) {
+        write((devices, cachedDrivers, deviceChange, driverChange) -> {
+            mDatabase.removeDrivers(drivers);
+            for (Driver driver : drivers) {
+                removeDriver(devices, cachedDrivers, driver.getId(), deviceChange, driverChange);
+            }
+        });
+    }
+}
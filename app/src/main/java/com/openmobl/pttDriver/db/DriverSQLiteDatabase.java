@@ -1,76 +1,128 @@
 package com.openmobl.pttDriver.db;
 
+import static com.openmobl.pttDriver.db.DriverSchema.*;
+
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
 
 import androidx.annotation.Nullable;
 
+import com.openmobl.pttDriver.model.CompiledDriver;
 import com.openmobl.pttDriver.model.Device;
+import com.openmobl.pttDriver.model.DeviceWithDriver;
 import com.openmobl.pttDriver.model.Driver;
+import com.openmobl.pttDriver.model.DriverMatchIndex;
+import com.openmobl.pttDriver.model.PttDriver;
+import com.openmobl.pttDriver.model.PttDriverRegistry;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class DriverSQLiteDatabase  extends SQLiteOpenHelper implements DriverDatabase {
     private static final String TAG = DriverSQLiteDatabase.class.getName();
 
     public static final String DB_NAME = "pttdriver.db";
-    public static final int DB_VERSION = 3;
+    public static final int DB_VERSION = 5;
 
     private static final int DEVWATCH_ADD_AFTER_VER = 1;
     private static final int DEVTYPE_ADD_AFTER_VER = 2;
+    private static final int COMPILED_ADD_AFTER_VER = 3;
+    private static final int INDEXES_ADD_AFTER_VER = 4;
+
+    // One per database file, shared by every helper opened on it and loaded on first use
+    private static final Map<String, DriverMatchIndex> sMatchIndexes = new HashMap<>();
+
+    private interface IndexChange {
+        void apply(DriverMatchIndex index);
+    }
+
+    // Changes to the match index made by the transaction in progress, applied as one batch once it
+    // commits. Only the thread holding the write transaction touches it.
+    private List<IndexChange> mIndexChanges;
+
+    // Write statements compiled on first use, by SQL. Queries are left to the statement cache of the
+    // connection, which reuses them as long as their SQL is the same.
+    private final Map<String, SQLiteStatement> mStatements = new HashMap<>();
+
+    // Column indices of a cursor, resolved once instead of for every row
+    private static class DeviceColumns {
+        final int mId;
+        final int mType;
+        final int mName;
+        final int mMac;
+        final int mDriverId;
+        final int mAutoConnect;
+        final int mAutoReconnect;
+        final int mPttDownDelay;
+
+        DeviceColumns(Cursor cursor) {
+            mId = cursor.getColumnIndex(DEVICE_ID);
+            mType = cursor.getColumnIndex(DEVICE_TYPE);
+            mName = cursor.getColumnIndex(DEVICE_NAME);
+            mMac = cursor.getColumnIndex(DEVICE_MAC);
+            mDriverId = cursor.getColumnIndex(DEVICE_DRIVER_ID);
+            mAutoConnect = cursor.getColumnIndex(DEVICE_AUTOCONNECT);
+            mAutoReconnect = cursor.getColumnIndex(DEVICE_AUTORECONNECT);
+            mPttDownDelay = cursor.getColumnIndex(DEVICE_PTTDOWN_DELAY);
+        }
+    }
 
-    private static final String TABLE_DEVICES = "devices";
-    private static final String DEVICE_ID = "_id";
-    private static final String DEVICE_TYPE = "type";
-    private static final String DEVICE_NAME = "name";
-    private static final String DEVICE_MAC = "mac";
-    private static final String DEVICE_DRIVER_ID = "driver";
-    private static final String DEVICE_AUTOCONNECT = "auto_connect";
-    private static final String DEVICE_AUTORECONNECT = "auto_reconnect";
-    private static final String DEVICE_PTTDOWN_DELAY = "ptt_down_delay";
-    private static final String TABLE_DEVICES_CREATE_SQL = "CREATE TABLE IF NOT EXISTS `" + TABLE_DEVICES + "` ("
-            + "`" + DEVICE_ID + "` INTEGER PRIMARY KEY AUTOINCREMENT,"
-            + "`" + DEVICE_TYPE + "` TEXT NOT NULL,"
-            + "`" + DEVICE_NAME + "` TEXT NOT NULL,"
-            + "`" + DEVICE_MAC + "` TEXT NOT NULL UNIQUE,"
-            + "`" + DEVICE_DRIVER_ID + "` INTEGER,"
-            + "`" + DEVICE_AUTOCONNECT + "` INTEGER NOT NULL,"
-            + "`" + DEVICE_AUTORECONNECT + "` INTEGER NOT NULL,"
-            + "`" + DEVICE_PTTDOWN_DELAY + "` INTEGER NOT NULL"
-            + ");";
-
-    private static final String TABLE_DRIVERS = "drivers";
-    private static final String DRIVER_ID = "_id";
-    private static final String DRIVER_NAME = "name";
-    private static final String DRIVER_TYPE = "type";
-    private static final String DRIVER_DEV_NAME_MATCH = "device_name";
-    private static final String DRIVER_WATCH_FOR_DEV = "device_watchfor_name";
-    private static final String DRIVER_JSON = "json";
-    private static final String TABLE_DRIVERS_CREATE_SQL = "CREATE TABLE IF NOT EXISTS `" + TABLE_DRIVERS + "` ("
-            + "`" + DRIVER_ID + "` INTEGER PRIMARY KEY AUTOINCREMENT,"
-            + "`" + DRIVER_NAME + "` TEXT NOT NULL UNIQUE,"
-            + "`" + DRIVER_DEV_NAME_MATCH + "` TEXT,"
-            + "`" + DRIVER_WATCH_FOR_DEV + "` TEXT,"
-            + "`" + DRIVER_TYPE + "` TEXT NOT NULL,"
-            + "`" + DRIVER_JSON + "` TEXT NOT NULL"
-            + ");";
+    private static class DriverColumns {
+        final int mId;
+        final int mName;
+        final int mType;
+        final int mJson;
+        final int mDeviceNameMatch;
+        final int mWatchForDeviceName;
+        final int mCompiled;
+        final int mCompiledHash;
+
+        DriverColumns(Cursor cursor) {
+            this(cursor, "");
+        }
+
+        // Columns of a driver joined to another table, named with a prefix
+        DriverColumns(Cursor cursor, String prefix) {
+            mId = cursor.getColumnIndex(prefix + DRIVER_ID);
+            mName = cursor.getColumnIndex(prefix + DRIVER_NAME);
+            mType = cursor.getColumnIndex(prefix + DRIVER_TYPE);
+            mJson = cursor.getColumnIndex(prefix + DRIVER_JSON);
+            mDeviceNameMatch = cursor.getColumnIndex(prefix + DRIVER_DEV_NAME_MATCH);
+            mWatchForDeviceName = cursor.getColumnIndex(prefix + DRIVER_WATCH_FOR_DEV);
+            mCompiled = cursor.getColumnIndex(prefix + DRIVER_COMPILED);
+            mCompiledHash = cursor.getColumnIndex(prefix + DRIVER_COMPILED_HASH);
+        }
+    }
 
     public DriverSQLiteDatabase(Context context) {
-        super(context, DB_NAME, null, DB_VERSION);
+        this(context, DB_NAME);
     }
 
     public DriverSQLiteDatabase(Context context, String name) {
         super(context, name, null, DB_VERSION);
+
+        // Readers see the last committed state instead of waiting for a write in progress
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(TABLE_DEVICES_CREATE_SQL);
         db.execSQL(TABLE_DRIVERS_CREATE_SQL);
+        createIndexes(db);
+    }
+
+    private void createIndexes(SQLiteDatabase db) {
+        for (String index : INDEXES_CREATE_SQL) {
+            db.execSQL(index);
+        }
     }
 
     private void updateTableAddColumns(SQLiteDatabase db, String table, String[] columns) {
@@ -98,6 +150,62 @@ public class DriverSQLiteDatabase  extends SQLiteOpenHelper implements DriverDat
 
             updateTableAddColumns(db, TABLE_DEVICES, columns);
         }
+        if (oldVersion <= COMPILED_ADD_AFTER_VER) {
+            String[] columns = new String[] {
+                    "`" + DRIVER_COMPILED + "` BLOB",
+                    "`" + DRIVER_COMPILED_HASH + "` TEXT"
+            };
+
+            updateTableAddColumns(db, TABLE_DRIVERS, columns);
+            compileDrivers(db);
+        }
+        if (oldVersion <= INDEXES_ADD_AFTER_VER) {
+            createIndexes(db);
+        }
+    }
+
+    private void compileDrivers(SQLiteDatabase db) {
+        Cursor cursor = db.query(TABLE_DRIVERS, new String[]{ DRIVER_ID, DRIVER_JSON },
+                null, null, null, null, null);
+        int idColumn = cursor.getColumnIndex(DRIVER_ID);
+        int jsonColumn = cursor.getColumnIndex(DRIVER_JSON);
+
+        cursor.moveToFirst();
+        while (!cursor.isAfterLast()) {
+            String json = cursor.getString(jsonColumn);
+            ContentValues values = new ContentValues();
+
+            values.put(DRIVER_COMPILED, compile(json));
+            values.put(DRIVER_COMPILED_HASH, CompiledDriver.hash(json));
+
+            db.update(TABLE_DRIVERS, values, DRIVER_ID + "=?",
+                    new String[]{ Integer.toString(cursor.getInt(idColumn)) });
+            cursor.moveToNext();
+        }
+
+        cursor.close();
+    }
+
+    // Null when the JSON is not a valid driver, loading it then reports the error as before
+    private static byte[] compile(String json) {
+        try {
+            PttDriver driver = new PttDriver(json);
+
+            if (driver.isValid())
+                return CompiledDriver.compile(driver);
+        } catch (Exception e) {
+            Log.d(TAG, "Failed to compile driver: " + e);
+        }
+
+        return null;
+    }
+
+    private void ensureCompiled(Driver driver) {
+        String hash = CompiledDriver.hash(driver.getJson());
+
+        if (driver.getCompiled() == null || !hash.equals(driver.getCompiledHash())) {
+            driver.setCompiled(compile(driver.getJson()), hash);
+        }
     }
 
     @Override
@@ -105,19 +213,100 @@ public class DriverSQLiteDatabase  extends SQLiteOpenHelper implements DriverDat
 
     }
 
-    private boolean rowExists(String table, String field, String value) {
-        Cursor c = getReadableDatabase().query(
-                table,
-                new String[]{ field },
-                field + "=?",
-                new String[]{ value },
-                null,
-                null,
-                null);
+    @Override
+    public void close() {
+        synchronized (mStatements) {
+            for (SQLiteStatement statement : mStatements.values()) {
+                statement.close();
+            }
+            mStatements.clear();
+        }
+
+        super.close();
+    }
+
+    private SQLiteStatement statement(String sql) {
+        synchronized (mStatements) {
+            SQLiteStatement statement = mStatements.get(sql);
+
+            if (statement == null) {
+                statement = getWritableDatabase().compileStatement(sql);
+                mStatements.put(sql, statement);
+            }
+
+            return statement;
+        }
+    }
+
+    // A statement holds its bindings, it is bound and run by one thread at a time. Write statements
+    // only run in a transaction, so their lock is never awaited while holding the database.
+    private long queryLong(String sql, String arg) {
+        SQLiteStatement statement = statement(sql);
+
+        synchronized (statement) {
+            statement.bindString(1, arg);
+            return statement.simpleQueryForLong();
+        }
+    }
+
+    private int execute(String sql, long arg) {
+        SQLiteStatement statement = statement(sql);
+
+        synchronized (statement) {
+            statement.bindLong(1, arg);
+            return statement.executeUpdateDelete();
+        }
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, @Nullable String value) {
+        if (value != null) {
+            statement.bindString(index, value);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
+    // Nested calls join the transaction they run in
+    private void inTransaction(Runnable work) {
+        SQLiteDatabase db = getWritableDatabase();
+
+        db.beginTransactionNonExclusive();
+
+        boolean outermost = mIndexChanges == null;
+        List<IndexChange> changes = outermost ? new ArrayList<>() : mIndexChanges;
+
+        mIndexChanges = changes;
+        try {
+            work.run();
+            db.setTransactionSuccessful();
+        } finally {
+            if (outermost)
+                mIndexChanges = null;
+            db.endTransaction();
+        }
+
+        // Rolled back changes never reach the index
+        if (outermost && !changes.isEmpty()) {
+            DriverMatchIndex index = getMatchIndex();
+
+            index.update(() -> {
+                for (IndexChange change : changes) {
+                    change.apply(index);
+                }
+            });
+        }
+    }
+
+    private void putMatches(Driver driver) {
+        int id = driver.getId();
+        String deviceName = driver.getDeviceNameMatch();
+        String watchForDeviceName = driver.getWatchForDeviceName();
 
-        c.moveToFirst();
+        mIndexChanges.add(index -> index.put(id, deviceName, watchForDeviceName));
+    }
 
-        return !c.isAfterLast();
+    private void removeMatches(int id) {
+        mIndexChanges.add(index -> index.remove(id));
     }
 
     private boolean getBoolean(Cursor cursor, int columnIndex) {
@@ -155,127 +344,169 @@ public class DriverSQLiteDatabase  extends SQLiteOpenHelper implements DriverDat
         return value ? 1 : 0;
     }
 
+    private Device readDevice(Cursor cursor, DeviceColumns columns) {
+        return new Device(cursor.getInt(columns.mId),
+                Device.DeviceType.toDeviceType(cursor.getString(columns.mType)),
+                cursor.getString(columns.mName),
+                cursor.getString(columns.mMac),
+                getInt(cursor, columns.mDriverId, -1),
+                getBoolean(cursor, columns.mAutoConnect),
+                getBoolean(cursor, columns.mAutoReconnect),
+                cursor.getInt(columns.mPttDownDelay));
+    }
+
     @Override
     public List<Device> getDevices() {
         List<Device> devices = new ArrayList<>();
-        Cursor cursor = getReadableDatabase().query(
-                TABLE_DEVICES,
-                new String[]{ DEVICE_ID, DEVICE_TYPE, DEVICE_NAME, DEVICE_MAC, DEVICE_DRIVER_ID,
-                        DEVICE_AUTOCONNECT, DEVICE_AUTORECONNECT, DEVICE_PTTDOWN_DELAY },
-                null, null, null, null, null);
+        Cursor cursor = getReadableDatabase().rawQuery(DEVICES_SELECT_SQL, null);
 
-        cursor.moveToFirst();
-        while (!cursor.isAfterLast()) {
-            Device device = new Device(cursor.getInt(cursor.getColumnIndex(DEVICE_ID)),
-                    Device.DeviceType.toDeviceType(cursor.getString(cursor.getColumnIndex(DEVICE_TYPE))),
-                    cursor.getString(cursor.getColumnIndex(DEVICE_NAME)),
-                    cursor.getString(cursor.getColumnIndex(DEVICE_MAC)),
-                    getInt(cursor, cursor.getColumnIndex(DEVICE_DRIVER_ID), -1),
-                    getBoolean(cursor, cursor.getColumnIndex(DEVICE_AUTOCONNECT)),
-                    getBoolean(cursor, cursor.getColumnIndex(DEVICE_AUTORECONNECT)),
-                    cursor.getInt(cursor.getColumnIndex(DEVICE_PTTDOWN_DELAY)));
-            devices.add(device);
-            cursor.moveToNext();
-        }
+        try {
+            DeviceColumns columns = new DeviceColumns(cursor);
 
-        cursor.close();
+            while (cursor.moveToNext()) {
+                devices.add(readDevice(cursor, columns));
+            }
+        } finally {
+            cursor.close();
+        }
 
         return devices;
     }
 
-    private Device getDeviceBy(String columnName, String value) {
-        Cursor cursor = getReadableDatabase().query(TABLE_DEVICES,
-                new String[] { DEVICE_ID, DEVICE_TYPE, DEVICE_NAME, DEVICE_MAC, DEVICE_DRIVER_ID,
-                        DEVICE_AUTOCONNECT, DEVICE_AUTORECONNECT, DEVICE_PTTDOWN_DELAY },
-                columnName + "=?",
-                new String[] { value }, null, null, null);
+    @Override
+    public List<DeviceWithDriver> getDevicesWithDrivers() {
+        List<DeviceWithDriver> devices = new ArrayList<>();
+        // Devices using the same driver share one Driver
+        Map<Integer, Driver> drivers = new HashMap<>();
+        Cursor cursor = getReadableDatabase().rawQuery(DEVICES_WITH_DRIVERS_SELECT_SQL, null);
+
+        try {
+            DeviceColumns deviceColumns = new DeviceColumns(cursor);
+            DriverColumns driverColumns = new DriverColumns(cursor, JOINED_DRIVER_PREFIX);
 
-        if (!cursor.moveToFirst())
-            return null;
+            while (cursor.moveToNext()) {
+                Driver driver = null;
 
-        Device device = new Device(cursor.getInt(cursor.getColumnIndex(DEVICE_ID)),
-                Device.DeviceType.toDeviceType(cursor.getString(cursor.getColumnIndex(DEVICE_TYPE))),
-                cursor.getString(cursor.getColumnIndex(DEVICE_NAME)),
-                cursor.getString(cursor.getColumnIndex(DEVICE_MAC)),
-                getInt(cursor, cursor.getColumnIndex(DEVICE_DRIVER_ID), -1),
-                getBoolean(cursor, cursor.getColumnIndex(DEVICE_AUTOCONNECT)),
-                getBoolean(cursor, cursor.getColumnIndex(DEVICE_AUTORECONNECT)),
-                cursor.getInt(cursor.getColumnIndex(DEVICE_PTTDOWN_DELAY)));
+                if (!cursor.isNull(driverColumns.mId)) {
+                    int driverId = cursor.getInt(driverColumns.mId);
 
-        cursor.close();
+                    driver = drivers.get(driverId);
+                    if (driver == null) {
+                        driver = readDriver(cursor, driverColumns);
+                        drivers.put(driverId, driver);
+                    }
+                }
+
+                devices.add(new DeviceWithDriver(readDevice(cursor, deviceColumns), driver));
+            }
+        } finally {
+            cursor.close();
+        }
 
-        return device;
+        return devices;
+    }
+
+    private Device getDeviceBy(String sql, String value) {
+        Cursor cursor = getReadableDatabase().rawQuery(sql, new String[] { value });
+
+        try {
+            return cursor.moveToFirst() ? readDevice(cursor, new DeviceColumns(cursor)) : null;
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
     public Device getDevice(int id) {
-        return getDeviceBy(DEVICE_ID, String.valueOf(id));
+        return getDeviceBy(DEVICE_SELECT_BY_ID_SQL, String.valueOf(id));
     }
 
     @Override
     public Device getDevice(String macAddress) {
-        return getDeviceBy(DEVICE_MAC, macAddress);
+        return getDeviceBy(DEVICE_SELECT_BY_MAC_SQL, macAddress);
     }
 
     @Override
     public boolean deviceExists(int id) {
-        return rowExists(TABLE_DEVICES, DEVICE_ID, String.valueOf(id));
+        return queryLong(DEVICE_ID_BY_ID_SQL, String.valueOf(id)) >= 0;
     }
 
     @Override
     public boolean deviceExists(String macAddress) {
-        return rowExists(TABLE_DEVICES, DEVICE_MAC, macAddress);
+        return queryLong(DEVICE_ID_BY_MAC_SQL, macAddress) >= 0;
+    }
+
+    // Binds DEVICE_COLUMNS, in order
+    private void bindDevice(SQLiteStatement statement, Device device) {
+        statement.bindString(1, device.getDeviceType().toString());
+        bindString(statement, 2, device.getName());
+        bindString(statement, 3, device.getMacAddress());
+        statement.bindLong(4, device.getDriverId());
+        statement.bindLong(5, booleanToInt(device.getAutoConnect()));
+        statement.bindLong(6, booleanToInt(device.getAutoReconnect()));
+        statement.bindLong(7, device.getPttDownDelay());
     }
 
     @Override
     public void addDevice(Device device) {
-        ContentValues values = new ContentValues();
+        inTransaction(() -> {
+            SQLiteStatement statement = statement(DEVICE_INSERT_SQL);
 
-        values.put(DEVICE_NAME, device.getName());
-        values.put(DEVICE_TYPE, device.getDeviceType().toString());
-        values.put(DEVICE_MAC, device.getMacAddress());
-        values.put(DEVICE_DRIVER_ID, device.getDriverId());
-        values.put(DEVICE_AUTOCONNECT, booleanToInt(device.getAutoConnect()));
-        values.put(DEVICE_AUTORECONNECT, booleanToInt(device.getAutoReconnect()));
-        values.put(DEVICE_PTTDOWN_DELAY, device.getPttDownDelay());
-
-        device.setId((int)getWritableDatabase().insert(TABLE_DEVICES, null, values));
+            synchronized (statement) {
+                bindDevice(statement, device);
+                device.setId((int)statement.executeInsert());
+            }
+        });
     }
 
-    @Override
-    public void addOrUpdateDevice(Device device) {
-        if (device.getId() >= 0 && driverExists(device.getId()) ||
-                driverExists(device.getMacAddress())) {
-            updateDevice(device);
+    // Updates the device stored with its id, or else with its MAC address, or adds it
+    private void upsertDevice(Device device) {
+        if (device.getId() >= 0 && updateDeviceRow(device) > 0)
+            return;
+
+        long id = queryLong(DEVICE_ID_BY_MAC_SQL, device.getMacAddress());
+
+        if (id >= 0) {
+            device.setId((int)id);
+            updateDeviceRow(device);
         } else {
             addDevice(device);
         }
     }
 
     @Override
-    public void updateDevice(Device device) {
-        ContentValues values = new ContentValues();
+    public void addOrUpdateDevice(Device device) {
+        inTransaction(() -> upsertDevice(device));
+    }
 
-        values.put(DEVICE_NAME, device.getName());
-        values.put(DEVICE_TYPE, device.getDeviceType().toString());
-        values.put(DEVICE_MAC, device.getMacAddress());
-        values.put(DEVICE_DRIVER_ID, device.getDriverId());
-        values.put(DEVICE_AUTOCONNECT, booleanToInt(device.getAutoConnect()));
-        values.put(DEVICE_AUTORECONNECT, booleanToInt(device.getAutoReconnect()));
-        values.put(DEVICE_PTTDOWN_DELAY, device.getPttDownDelay());
+    @Override
+    public void addOrUpdateDevices(List<Device> devices) {
+        inTransaction(() -> {
+            for (Device device : devices) {
+                upsertDevice(device);
+            }
+        });
+    }
+
+    private int updateDeviceRow(Device device) {
+        SQLiteStatement statement = statement(DEVICE_UPDATE_SQL);
+
+        synchronized (statement) {
+            bindDevice(statement, device);
+            statement.bindLong(DEVICE_COLUMNS.length + 1, device.getId());
+            return statement.executeUpdateDelete();
+        }
+    }
 
-        getWritableDatabase().update(
-                TABLE_DEVICES,
-                values,
-                DEVICE_ID + "=?",
-                new String[]{ Integer.toString(device.getId()) });
+    @Override
+    public void updateDevice(Device device) {
+        inTransaction(() -> updateDeviceRow(device));
     }
 
     @Override
     public void removeDevice(int id) {
         if (id > 0) {
-            getWritableDatabase().delete(TABLE_DEVICES, DEVICE_ID + "=?",
-                    new String[]{ String.valueOf(id) });
+            inTransaction(() -> execute(DEVICE_DELETE_SQL, id));
         }
     }
 
@@ -288,135 +519,221 @@ public class DriverSQLiteDatabase  extends SQLiteOpenHelper implements DriverDat
         }
     }
 
+    @Override
+    public void removeDevices(List<Device> devices) {
+        inTransaction(() -> {
+            for (Device device : devices) {
+                removeDevice(device);
+            }
+        });
+    }
+
+    private Driver readDriver(Cursor cursor, DriverColumns columns) {
+        Driver driver = new Driver(cursor.getInt(columns.mId),
+                cursor.getString(columns.mName),
+                cursor.getString(columns.mType),
+                cursor.getString(columns.mJson),
+                cursor.getString(columns.mDeviceNameMatch),
+                cursor.getString(columns.mWatchForDeviceName));
+
+        driver.setCompiled(cursor.getBlob(columns.mCompiled), cursor.getString(columns.mCompiledHash));
+
+        return driver;
+    }
+
     @Override
     public List<Driver> getDrivers() {
         List<Driver> drivers = new ArrayList<>();
-        Cursor cursor = getReadableDatabase().query(
-                TABLE_DRIVERS,
-                new String[]{
-                        DRIVER_ID, DRIVER_NAME, DRIVER_TYPE,
-                        DRIVER_DEV_NAME_MATCH, DRIVER_WATCH_FOR_DEV, DRIVER_JSON
-                    },
-                null, null, null, null, null);
+        Cursor cursor = getReadableDatabase().rawQuery(DRIVERS_SELECT_SQL, null);
 
-        cursor.moveToFirst();
-        while (!cursor.isAfterLast()) {
-            Driver driver = new Driver(cursor.getInt(cursor.getColumnIndex(DRIVER_ID)),
-                    cursor.getString(cursor.getColumnIndex(DRIVER_NAME)),
-                    cursor.getString(cursor.getColumnIndex(DRIVER_TYPE)),
-                    cursor.getString(cursor.getColumnIndex(DRIVER_JSON)),
-                    cursor.getString(cursor.getColumnIndex(DRIVER_DEV_NAME_MATCH)),
-                    cursor.getString(cursor.getColumnIndex(DRIVER_WATCH_FOR_DEV)));
-            drivers.add(driver);
-            cursor.moveToNext();
-        }
+        try {
+            DriverColumns columns = new DriverColumns(cursor);
 
-        cursor.close();
+            while (cursor.moveToNext()) {
+                drivers.add(readDriver(cursor, columns));
+            }
+        } finally {
+            cursor.close();
+        }
 
         return drivers;
     }
 
-    private Driver getDriverBy(String columnName, String value) {
-        Cursor cursor = getReadableDatabase().query(TABLE_DRIVERS,
-                new String[] {
-                        DRIVER_ID, DRIVER_NAME, DRIVER_TYPE,
-                        DRIVER_DEV_NAME_MATCH, DRIVER_WATCH_FOR_DEV, DRIVER_JSON
-                    },
-                columnName + "=?",
-                new String[] { value }, null, null, null);
+    private Driver getDriverBy(String sql, String value) {
+        Cursor cursor = getReadableDatabase().rawQuery(sql, new String[] { value });
 
-        if (!cursor.moveToFirst())
-            return null;
+        try {
+            return cursor.moveToFirst() ? readDriver(cursor, new DriverColumns(cursor)) : null;
+        } finally {
+            cursor.close();
+        }
+    }
 
-        Driver driver = new Driver(cursor.getInt(cursor.getColumnIndex(DRIVER_ID)),
-                cursor.getString(cursor.getColumnIndex(DRIVER_NAME)),
-                cursor.getString(cursor.getColumnIndex(DRIVER_TYPE)),
-                cursor.getString(cursor.getColumnIndex(DRIVER_JSON)),
-                cursor.getString(cursor.getColumnIndex(DRIVER_DEV_NAME_MATCH)),
-                cursor.getString(cursor.getColumnIndex(DRIVER_WATCH_FOR_DEV)));
+    @Override
+    public Driver getDriver(int id) {
+        return getDriverBy(DRIVER_SELECT_BY_ID_SQL, String.valueOf(id));
+    }
 
-        cursor.close();
+    @Override
+    public Driver getDriver(String name) {
+        return getDriverBy(DRIVER_SELECT_BY_NAME_SQL, name);
+    }
 
-        return driver;
+    private DriverMatchIndex getMatchIndex() {
+        synchronized (sMatchIndexes) {
+            DriverMatchIndex index = sMatchIndexes.get(getDatabaseName());
+
+            if (index == null) {
+                DriverMatchIndex loaded = new DriverMatchIndex();
+
+                Cursor cursor = getReadableDatabase().rawQuery(DRIVER_PATTERNS_SELECT_SQL, null);
+                int idColumn = cursor.getColumnIndex(DRIVER_ID);
+                int deviceNameColumn = cursor.getColumnIndex(DRIVER_DEV_NAME_MATCH);
+                int watchForColumn = cursor.getColumnIndex(DRIVER_WATCH_FOR_DEV);
+
+                loaded.update(() -> {
+                    while (cursor.moveToNext()) {
+                        loaded.put(cursor.getInt(idColumn),
+                                cursor.getString(deviceNameColumn),
+                                cursor.getString(watchForColumn));
+                    }
+                });
+
+                cursor.close();
+
+                sMatchIndexes.put(getDatabaseName(), loaded);
+                index = loaded;
+            }
+
+            return index;
+        }
     }
 
     @Override
-    public Driver getDriver(int id) {
-        return getDriverBy(DRIVER_ID, String.valueOf(id));
+    public Driver getDriverForDeviceName(String deviceName) {
+        int id = getDriverIdForDeviceName(deviceName);
+
+        return id >= 0 ? getDriver(id) : null;
     }
 
+    // Served from the match index, without a query once it is loaded
     @Override
-    public Driver getDriver(String name) {
-        return getDriverBy(DRIVER_NAME, name);
+    public int getDriverIdForDeviceName(String deviceName) {
+        DriverMatchIndex.Match match = getMatchIndex().findBest(deviceName);
+
+        if (match == null)
+            return -1;
+
+        Log.v(TAG, "Device \"" + deviceName + "\" matched driver " + match);
+
+        return match.getDriverId();
     }
 
     @Override
     public boolean driverExists(int id) {
-        return rowExists(TABLE_DRIVERS, DRIVER_ID, String.valueOf(id));
+        return queryLong(DRIVER_ID_BY_ID_SQL, String.valueOf(id)) >= 0;
     }
 
     @Override
     public boolean driverExists(String name) {
-        return rowExists(TABLE_DRIVERS, DRIVER_NAME, name);
+        return queryLong(DRIVER_ID_BY_NAME_SQL, name) >= 0;
+    }
+
+    // Binds DRIVER_COLUMNS, in order
+    private void bindDriver(SQLiteStatement statement, Driver driver) {
+        ensureCompiled(driver);
+
+        bindString(statement, 1, driver.getName());
+        bindString(statement, 2, driver.getType());
+        bindString(statement, 3, driver.getJson());
+        bindString(statement, 4, driver.getDeviceNameMatch());
+        bindString(statement, 5, driver.getWatchForDeviceName());
+        if (driver.getCompiled() != null) {
+            statement.bindBlob(6, driver.getCompiled());
+        } else {
+            statement.bindNull(6);
+        }
+        bindString(statement, 7, driver.getCompiledHash());
     }
 
     @Override
     public void addDriver(Driver driver) {
-        ContentValues values = new ContentValues();
+        inTransaction(() -> {
+            SQLiteStatement statement = statement(DRIVER_INSERT_SQL);
 
-        values.put(DRIVER_NAME, driver.getName());
-        values.put(DRIVER_TYPE, driver.getType());
-        values.put(DRIVER_JSON, driver.getJson());
-        values.put(DRIVER_DEV_NAME_MATCH, driver.getDeviceNameMatch());
-        values.put(DRIVER_WATCH_FOR_DEV, driver.getWatchForDeviceName());
+            synchronized (statement) {
+                bindDriver(statement, driver);
+                driver.setId((int)statement.executeInsert());
+            }
+            if (driver.getId() >= 0) {
+                putMatches(driver);
+            }
+        });
+    }
 
+    // Updates the driver stored with its id, or else with its name, or adds it
+    private void upsertDriver(Driver driver) {
+        if (driver.getId() >= 0 && updateDriverRow(driver))
+            return;
 
-        driver.setId((int)getWritableDatabase().insert(TABLE_DRIVERS, null, values));
-    }
+        long id = queryLong(DRIVER_ID_BY_NAME_SQL, driver.getName());
 
-    @Override
-    public void addOrUpdateDriver(Driver driver) {
-        if (driver.getId() >= 0 && driverExists(driver.getId()) ||
-            driverExists(driver.getName())) {
-            updateDriver(driver);
+        if (id >= 0) {
+            driver.setId((int)id);
+            updateDriverRow(driver);
         } else {
             addDriver(driver);
         }
     }
 
     @Override
-    public void updateDriver(Driver driver) {
-        ContentValues values = new ContentValues();
+    public void addOrUpdateDriver(Driver driver) {
+        inTransaction(() -> upsertDriver(driver));
+    }
+
+    @Override
+    public void addOrUpdateDrivers(List<Driver> drivers) {
+        inTransaction(() -> {
+            for (Driver driver : drivers) {
+                upsertDriver(driver);
+            }
+        });
+    }
+
+    private boolean updateDriverRow(Driver driver) {
+        SQLiteStatement statement = statement(DRIVER_UPDATE_SQL);
+        int updated;
+
+        synchronized (statement) {
+            bindDriver(statement, driver);
+            statement.bindLong(DRIVER_COLUMNS.length + 1, driver.getId());
+            updated = statement.executeUpdateDelete();
+        }
+
+        if (updated > 0) {
+            PttDriverRegistry.getInstance().invalidate(driver.getId());
+            putMatches(driver);
+        }
 
-        values.put(DRIVER_NAME, driver.getName());
-        values.put(DRIVER_TYPE, driver.getType());
-        values.put(DRIVER_JSON, driver.getJson());
-        values.put(DRIVER_DEV_NAME_MATCH, driver.getDeviceNameMatch());
-        values.put(DRIVER_WATCH_FOR_DEV, driver.getWatchForDeviceName());
+        return updated > 0;
+    }
 
-        getWritableDatabase().update(
-                TABLE_DRIVERS,
-                values,
-                DRIVER_ID + "=?",
-                new String[]{ Integer.toString(driver.getId()) });
+    @Override
+    public void updateDriver(Driver driver) {
+        inTransaction(() -> updateDriverRow(driver));
     }
 
     @Override
     public void removeDriver(int id) {
         if (id > 0) {
-            getWritableDatabase().delete(TABLE_DRIVERS, DRIVER_ID + "=?",
-                    new String[]{ String.valueOf(id) });
-
-            // Remove References
-            ContentValues values = new ContentValues();
-
-            values.put(DEVICE_DRIVER_ID, -1);
-
-            getWritableDatabase().update(
-                    TABLE_DEVICES,
-                    values,
-                    DEVICE_DRIVER_ID + "=?",
-                    new String[]{ Integer.toString(id) });
+            inTransaction(() -> {
+                execute(DRIVER_DELETE_SQL, id);
+                PttDriverRegistry.getInstance().invalidate(id);
+                removeMatches(id);
+
+                // Remove References
+                execute(DRIVER_CLEAR_REFERENCES_SQL, id);
+            });
         }
     }
 
@@ -428,4 +745,13 @@ public class DriverSQLiteDatabase  extends SQLiteOpenHelper implements DriverDat
             removeDriver(id);
         }
     }
+
+    @Override
+    public void removeDrivers(List<Driver> drivers) {
+        inTransaction(() -> {
+            for (Driver driver : drivers) {
+                removeDriver(driver);
+            }
+        });
+    }
 }
@@ -116,7 +116,7 @@ public class Device implements Record, Parcelable {
     public boolean getAutoReconnect() { return mAutoReconnect; }
     public static boolean getAutoReconnectDefault() { return true; }
     public int getPttDownDelay() { return mPttDownDelay; }
-    public static int getPttDownDelayDefault() { return 0; }
+    public static int getPttDownDelayDefault() { return PttDriver.getPttDownDelayDefault(); }
     @Override
     public String getDetails() {
         return "";
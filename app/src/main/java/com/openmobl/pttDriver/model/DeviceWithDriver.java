@@ -0,0 +1,28 @@
+package com.openmobl.pttDriver.model;
+
+/**
+ * A device loaded together with its driver, see DriverDatabase.getDevicesWithDrivers. The driver
+ * carries its compiled form, so connecting does not read it again.
+ */
+public class DeviceWithDriver extends Device {
+    private static final String TAG = DeviceWithDriver.class.getName();
+
+    private final Driver mDriver;
+
+    public DeviceWithDriver(Device device, Driver driver) {
+        super(device.getId(), device.getDeviceType(), device.getName(), device.getMacAddress(),
+                device.getDriverId(), driver != null ? driver.getName() : "",
+                device.getAutoConnect(), device.getAutoReconnect(), device.getPttDownDelay());
+
+        mDriver = driver;
+    }
+
+    // Null when the device has no driver or its driver was removed
+    public Driver getDriver() { return mDriver; }
+    public String getDriverType() { return mDriver != null ? mDriver.getType() : null; }
+
+    @Override
+    public String getDetails() {
+        return getDriverName();
+    }
+}
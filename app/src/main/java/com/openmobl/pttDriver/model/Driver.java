@@ -5,6 +5,8 @@ import android.os.Parcelable;
 
 import androidx.annotation.NonNull;
 
+import java.io.IOException;
+
 public class Driver implements Record, Parcelable {
     private static final String TAG = Driver.class.getName();
 
@@ -14,6 +16,9 @@ public class Driver implements Record, Parcelable {
     private String mJson;
     private String mDeviceNameMatch;
     private String mWatchForDeviceName;
+    // CompiledDriver form of the JSON and the hash of the JSON it was compiled from
+    private byte[] mCompiled;
+    private String mCompiledHash;
 
     public static final Parcelable.Creator<Driver> CREATOR = new Parcelable.Creator<Driver>() {
 
@@ -80,6 +85,17 @@ public class Driver implements Record, Parcelable {
     public String getJson() { return mJson; }
     public String getDeviceNameMatch() { return mDeviceNameMatch; }
     public String getWatchForDeviceName() { return mWatchForDeviceName; }
+    public byte[] getCompiled() { return mCompiled; }
+    public String getCompiledHash() { return mCompiledHash; }
+    public void setCompiled(byte[] compiled, String compiledHash) {
+        mCompiled = compiled;
+        mCompiledHash = compiledHash;
+    }
+
+    // Shared driver from the registry, the JSON is only parsed when it changed since it was compiled
+    public PttDriver toPttDriver() throws IOException {
+        return PttDriverRegistry.getInstance().get(mId, mJson, mCompiled, mCompiledHash);
+    }
     @Override
     public String getDetails() {
         return "";
@@ -103,6 +119,8 @@ public class Driver implements Record, Parcelable {
         parcel.writeString(mJson);
         parcel.writeString(mDeviceNameMatch);
         parcel.writeString(mWatchForDeviceName);
+        parcel.writeByteArray(mCompiled);
+        parcel.writeString(mCompiledHash);
     }
 
     private void readFromParcel(Parcel parcel) {
@@ -112,6 +130,8 @@ public class Driver implements Record, Parcelable {
         mJson = parcel.readString();
         mDeviceNameMatch = parcel.readString();
         mWatchForDeviceName = parcel.readString();
+        mCompiled = parcel.createByteArray();
+        mCompiledHash = parcel.readString();
     }
 
     public static Driver getEmptyDriver() {
@@ -0,0 +1,21 @@
+package com.openmobl.pttDriver.platform;
+
+import android.os.SystemClock;
+import android.view.KeyEvent;
+
+import com.openmobl.pttDriver.BuildConfig;
+
+/**
+ * Backs the core {@link Platform} with logcat, elapsedRealtimeNanos and KeyEvent.
+ */
+public final class AndroidPlatform {
+    private AndroidPlatform() {
+    }
+
+    public static void install() {
+        Platform.setLogger(android.util.Log::println);
+        Platform.setClock(SystemClock::elapsedRealtimeNanos);
+        Platform.setKeyCodes(KeyEvent::keyCodeFromString);
+        Platform.setDebug(BuildConfig.DEBUG);
+    }
+}
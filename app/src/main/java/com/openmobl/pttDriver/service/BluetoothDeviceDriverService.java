@@ -6,17 +6,28 @@ import static android.app.PendingIntent.FLAG_IMMUTABLE;
 import com.openmobl.pttDriver.BuildConfig;
 import com.openmobl.pttDriver.Constants;
 import com.openmobl.pttDriver.R;
+import com.openmobl.pttDriver.bt.CapturingSerialListener;
+import com.openmobl.pttDriver.bt.FramingSerialListener;
 import com.openmobl.pttDriver.bt.HfpSerialSocket;
+import com.openmobl.pttDriver.bt.SerialFramer;
 import com.openmobl.pttDriver.bt.hfp.AtCommandResult;
+import com.openmobl.pttDriver.db.AsyncDriverDatabase;
+import com.openmobl.pttDriver.db.DriverDatabaseCache;
 import com.openmobl.pttDriver.model.Device;
+import com.openmobl.pttDriver.model.IntentDescriptor;
 import com.openmobl.pttDriver.model.PttDriver;
+import com.openmobl.pttDriver.model.PttDriverRegistry;
+import com.openmobl.pttDriver.model.Record;
 import com.openmobl.pttDriver.bt.BleDeviceDelegate;
 import com.openmobl.pttDriver.bt.BleSerialSocket;
 import com.openmobl.pttDriver.bt.SerialListener;
 import com.openmobl.pttDriver.bt.SerialSocket;
+import com.openmobl.pttDriver.bt.SerialSocketFactory;
 import com.openmobl.pttDriver.bt.SppSerialSocket;
+import com.openmobl.pttDriver.utils.LatencyTracer;
 import com.openmobl.pttDriver.utils.SoundUtils;
 import com.openmobl.pttDriver.utils.TextUtil;
+import com.openmobl.pttDriver.utils.TimerWheel;
 
 import android.app.Notification;
 import android.app.PendingIntent;
@@ -32,41 +43,61 @@ import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
 
-import android.os.SystemClock;
 import android.util.Log;
-import android.view.KeyEvent;
 
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.core.app.NotificationChannelCompat;
 import androidx.core.app.NotificationCompat;
 import androidx.core.app.NotificationManagerCompat;
 
+import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class BluetoothDeviceDriverService extends Service implements IDeviceDriverService, SerialListener {
     private static final String TAG = BluetoothDeviceDriverService.class.getName();
 
+    // Per packet logging builds strings on every button edge, keep it out of release builds
+    private static final boolean DEBUG = BuildConfig.DEBUG;
+
+    private static final byte[] AT_OK = new AtCommandResult(AtCommandResult.OK).toString().getBytes();
+
     // If we stay connected for more than two minutes, we can reset the reset count
     private static final long RECONNECT_COUNT_RESET_MILLI = 120000;
     // If we try to reconnect more than this many times reset the count which resets the back-off delay
     private static final long RECONNECT_COUNT_RESET_AFTER = 60;
 
+    // Raw traffic ring, kept across restarts of the service
+    private static final String CAPTURE_FILE = "traffic.cap";
+    private static final String ARG_SNAPSHOT = "--snapshot";
+
+    // Connects through these sockets instead of the radio, such as LoopbackSerialSocket under load
+    private static volatile SerialSocketFactory sSocketFactory;
+
     private DeviceConnectionState mConnectionState = DeviceConnectionState.Disconnected;
     private boolean mEnabledSent = false;
     private long mReconnectCount;
     private Date mLastReconnectAttempt;
-    private String mLastIntentSent;
-    private Date mLastIntentSentTime;
+    private volatile PttEventPipeline mEventPipeline;
 
     private SerialSocket mSocket;
+    private DeviceEventDispatcher mEventDispatcher;
+    private LatencyTracer mLatencyTracer;
+    private MetricsRegistry mMetrics;
+    private TrafficCapture mCapture;
 
     private BluetoothDevice mPttDevice;
+    private volatile int mDeviceId = -1;
     private BluetoothDevice mPttWatchForDevice;
     private PttDriver mPttDriver;
     private BleDeviceDelegate mPttDeviceDelegate;
@@ -111,12 +142,40 @@ public class BluetoothDeviceDriverService extends Service implements IDeviceDriv
         @Override
         public void run() {
             Log.v(TAG, "Try reconnect to device");
+            mReconnectPending.set(false);
             connect();
         }
     };
+    // Set from scheduling the back-off until the attempt runs. The wheel belongs to the dispatch thread,
+    // so whether an attempt is pending is never asked of the timeout itself.
+    private final AtomicBoolean mReconnectPending = new AtomicBoolean();
+    // Back-off runs on the dispatch thread timers, the attempt itself on the main thread
+    private final TimerWheel.Timeout mReconnectTimeout = new TimerWheel.Timeout() {
+        @Override
+        protected void onTimeout(long now) {
+            mReconnectTimerHandler.post(mReconnectCallback);
+        }
+    };
 
     private DeviceStatusListener mStatusListener;
 
+    // Edits to the connected device take effect without reconnecting
+    private final DriverDatabaseCache.ChangeListener mDeviceChangeListener = change -> {
+        if (change.getType() != Record.RecordType.DEVICE || !change.contains(mDeviceId))
+            return;
+
+        mReconnectTimerHandler.post(() -> {
+            Device device = AsyncDriverDatabase.getInstance(this).getDatabase().getDevice(mDeviceId);
+
+            if (device != null) {
+                Log.v(TAG, "Device " + mDeviceId + " changed");
+                applyDeviceSettings(device);
+            } else {
+                Log.v(TAG, "Device " + mDeviceId + " removed");
+            }
+        });
+    };
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         Log.v(TAG, "onStartCommand");
@@ -131,6 +190,11 @@ public class BluetoothDeviceDriverService extends Service implements IDeviceDriv
         android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_URGENT_AUDIO);
 
         mReconnectTimerHandler = new Handler(getMainLooper());
+        mLatencyTracer = new LatencyTracer();
+        mMetrics = new MetricsRegistry();
+        mCapture = TrafficCapture.open(new File(getCacheDir(), CAPTURE_FILE), TrafficCapture.DEFAULT_SLOT_COUNT);
+        mEventDispatcher = new DeviceEventDispatcher(TAG, this, mLatencyTracer, mMetrics);
+        registerGauges();
 
         createNotification(getString(R.string.status_disconnected));
 
@@ -146,6 +210,8 @@ public class BluetoothDeviceDriverService extends Service implements IDeviceDriv
         filter.addAction(BluetoothDevice.ACTION_ACL_DISCONNECT_REQUESTED);
         filter.addAction(BluetoothDevice.ACTION_ACL_DISCONNECTED);
         registerReceiver(mDeviceConnectReceiver, filter);
+
+        AsyncDriverDatabase.getInstance(this).addChangeListener(mDeviceChangeListener);
     }
 
     @Override
@@ -160,6 +226,10 @@ public class BluetoothDeviceDriverService extends Service implements IDeviceDriv
             e.printStackTrace();
         }
 
+        AsyncDriverDatabase.getInstance(this).removeChangeListener(mDeviceChangeListener);
+
+        mEventDispatcher.quit();
+
         cancelNotification();
 
         super.onDestroy();
@@ -183,15 +253,27 @@ public class BluetoothDeviceDriverService extends Service implements IDeviceDriv
             BluetoothAdapter btAdapter = btManager.getAdapter();
 
             mPttDevice = btAdapter.getRemoteDevice(device.getMacAddress());
+            mDeviceId = device.getId();
+
+            setPttDownKeyDelay(device.getPttDownDelay());
 
-            mPttDownKeyDelay = device.getPttDownDelay();
-            mPttDownKeyDelayOverride = true;
+            mLatencyTracer.setName(device.getName());
+            mMetrics.setName(device.getName());
 
             checkConnectOnComplete();
         } else {
             mPttDevice = null;
+            mDeviceId = -1;
         }
     }
+    // The settings of the device that can change while connected, a new address needs setPttDevice
+    private void applyDeviceSettings(Device device) {
+        setPttDownKeyDelay(device.getPttDownDelay());
+        setAutomaticallyReconnect(device.getAutoReconnect());
+
+        mLatencyTracer.setName(device.getName());
+        mMetrics.setName(device.getName());
+    }
     @Override
     public boolean deviceIsValid() {
         return mPttDevice != null;
@@ -229,6 +311,7 @@ public class BluetoothDeviceDriverService extends Service implements IDeviceDriv
 
         mPttDriver = driver;
         createDeviceDelegate();
+        prepareIntentDispatch();
 
         if (mPttWatchForDevice != null && mPttDriver.getWatchForDeviceName() != null) {
             setPttWatchForDevice(mPttDriver.getWatchForDeviceName());
@@ -267,6 +350,32 @@ public class BluetoothDeviceDriverService extends Service implements IDeviceDriv
             }
         }
     }
+    private void prepareIntentDispatch() {
+        if (mEventPipeline != null) {
+            final PttEventPipeline previous = mEventPipeline;
+
+            mEventDispatcher.getHandler().post(previous::reset);
+            mEventPipeline = null;
+        }
+
+        if (mPttDriver != null && mPttDriver.isValid()) {
+            PttDriver.PttReadObj readObj = mPttDriver.getReadObj();
+
+            mEventPipeline = new PttEventPipeline(mPttDriver, mEventDispatcher.getScheduler(),
+                    intent -> DeviceEventBroadcaster.sendDriverIntent(this, intent), mLatencyTracer, mMetrics);
+            if (mPttDownKeyDelayOverride)
+                mEventPipeline.setPttDownKeyDelay(mPttDownKeyDelay);
+            mLatencyTracer.setIntents(readObj.getIntentDescriptors(), readObj.getIntentDescriptorCount());
+        }
+    }
+    // Socket -> capture -> framer -> dispatch thread -> service
+    private SerialListener createSerialListener() {
+        SerialFramer framer = PttEventPipeline.usesSerialIntentMap(mPttDriver) ? SerialFramer.create(mPttDriver.getReadObj()) : null;
+
+        SerialListener listener = framer != null ? new FramingSerialListener(mEventDispatcher, framer, mLatencyTracer) : mEventDispatcher;
+
+        return new CapturingSerialListener(listener, mCapture);
+    }
     // Connect on complete signals the device driver to connect to the device when all necessary fields
     // have been set and are valid.
     public void setConnectOnComplete(boolean connectOnComplete) {
@@ -295,6 +404,8 @@ public class BluetoothDeviceDriverService extends Service implements IDeviceDriv
     public void setPttDownKeyDelay(int delay) {
         mPttDownKeyDelay = delay;
         mPttDownKeyDelayOverride = true;
+        if (mEventPipeline != null)
+            mEventPipeline.setPttDownKeyDelay(delay);
     }
     public int getPttDownKeyDelay() { return mPttDownKeyDelay; }
 
@@ -329,6 +440,63 @@ public class BluetoothDeviceDriverService extends Service implements IDeviceDriv
         return mConnectionState;
     }
 
+    private void setConnectionState(DeviceConnectionState state) {
+        mConnectionState = state;
+        mMetrics.enterState(state);
+        mCapture.setState(state);
+    }
+
+    @Override
+    public LatencyTracer getLatencyTracer() {
+        return mLatencyTracer;
+    }
+
+    private void registerGauges() {
+        mMetrics.registerGauge("queueDepth", mEventDispatcher::getQueueDepth);
+        mMetrics.registerGauge("maxQueueDepth", mEventDispatcher::getMaxQueueDepth);
+        mMetrics.registerGauge("dispatched", mEventDispatcher::getDispatchedCount);
+        mMetrics.registerGauge("lastDispatchLagNanos", mEventDispatcher::getLastDispatchLagNanos);
+        mMetrics.registerGauge("maxDispatchLagNanos", mEventDispatcher::getMaxDispatchLagNanos);
+        mMetrics.registerGauge("averageDispatchLagNanos", mEventDispatcher::getAverageDispatchLagNanos);
+        mMetrics.registerGauge("readToSentP50Nanos", () -> mLatencyTracer.getEndToEnd().getPercentileNanos(50));
+        mMetrics.registerGauge("readToSentP99Nanos", () -> mLatencyTracer.getEndToEnd().getPercentileNanos(99));
+        mMetrics.registerGauge("readToSentMaxNanos", () -> mLatencyTracer.getEndToEnd().getMaxNanos());
+        // Shared by every service of the process
+        mMetrics.registerGauge("driverRegistryHits", () -> PttDriverRegistry.getInstance().getHits());
+        mMetrics.registerGauge("driverRegistryMisses", () -> PttDriverRegistry.getInstance().getMisses());
+        mMetrics.registerGauge("driverRegistryEvictions", () -> PttDriverRegistry.getInstance().getEvictions());
+        mMetrics.registerGauge("driverRegistrySize", () -> PttDriverRegistry.getInstance().size());
+    }
+
+    // adb shell dumpsys activity service com.openmobl.pttDriver/.service.BluetoothDeviceDriverService [--json]
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        if (args != null && Arrays.asList(args).contains(ARG_SNAPSHOT)) {
+            snapshotCapture(writer);
+            return;
+        }
+        mMetrics.dump(writer, args);
+    }
+
+    // adb shell dumpsys activity service ... --snapshot, then adb pull the path printed
+    private void snapshotCapture(PrintWriter writer) {
+        File dir = getExternalFilesDir(null) != null ? getExternalFilesDir(null) : getFilesDir();
+        File file = new File(dir, "capture-" + System.currentTimeMillis() + ".bin");
+
+        try {
+            mCapture.snapshot(file);
+            writer.println(file.getAbsolutePath());
+        } catch (IOException e) {
+            writer.println("Failed to snapshot the capture: " + e.getMessage());
+        }
+        writer.flush();
+    }
+
+    @VisibleForTesting
+    public static void setSerialSocketFactory(SerialSocketFactory socketFactory) {
+        sSocketFactory = socketFactory;
+    }
+
     @Override
     public void connect() {
         Log.v(TAG, "connect()");
@@ -339,25 +507,32 @@ public class BluetoothDeviceDriverService extends Service implements IDeviceDriv
                 //BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
                 //BluetoothDevice device = bluetoothAdapter.getRemoteDevice(deviceAddress);
                 status(R.string.status_connecting);
-                mConnectionState = DeviceConnectionState.Pending;
-
-                switch (mPttDriver.getType()) {
-                    case BLE:
-                    case BLE_SERIAL:
-                    case BLE_GAIA:
-                        mSocket = new BleSerialSocket(this, mPttDevice, mPttDeviceDelegate);
-                        break;
-                    case SPP:
-                    case SPP_GAIA:
-                        mSocket = new SppSerialSocket(this, mPttDevice);
-                        break;
-                    case HFP:
-                        mSocket = new HfpSerialSocket(this, mPttDevice);
-                        break;
-                    default:
-                        return;
+                setConnectionState(DeviceConnectionState.Pending);
+
+                SerialSocketFactory socketFactory = sSocketFactory;
+
+                if (socketFactory != null) {
+                    mSocket = socketFactory.create(mPttDriver);
+                } else {
+                    switch (mPttDriver.getType()) {
+                        case BLE:
+                        case BLE_SERIAL:
+                        case BLE_GAIA:
+                            mSocket = new BleSerialSocket(this, mPttDevice, mPttDeviceDelegate);
+                            break;
+                        case SPP:
+                        case SPP_GAIA:
+                            mSocket = new SppSerialSocket(this, mPttDevice);
+                            break;
+                        case HFP:
+                            mSocket = new HfpSerialSocket(this, mPttDevice);
+                            break;
+                        default:
+                            return;
+                    }
                 }
-                mSocket.connect(this);
+                mSocket.setMetrics(mMetrics);
+                mSocket.connect(createSerialListener());
 
 
                 createNotification(mSocket != null ? getString(R.string.connecting_to_prefix) + " " + getDeviceName() : getString(R.string.background_service));
@@ -373,7 +548,7 @@ public class BluetoothDeviceDriverService extends Service implements IDeviceDriv
     @Override
     public void disconnect() {
         status(R.string.status_disconnecting);
-        mConnectionState = DeviceConnectionState.Disconnected;
+        setConnectionState(DeviceConnectionState.Disconnected);
         mEnabledSent = false;
 
         createNotification(getString(R.string.status_disconnected));
@@ -387,6 +562,7 @@ public class BluetoothDeviceDriverService extends Service implements IDeviceDriv
     private void write(byte[] data) throws IOException {
         if (mConnectionState == DeviceConnectionState.Disconnected)
             throw new IOException("not connected");
+        mCapture.record(TrafficCapture.Direction.WRITE, data, null, null);
         mSocket.write(data);
     }
 
@@ -401,7 +577,7 @@ public class BluetoothDeviceDriverService extends Service implements IDeviceDriv
     @Override
     public void onSerialConnect(UUID service, UUID characteristic) {
         status(R.string.status_connected);
-        mConnectionState = DeviceConnectionState.Connected;
+        setConnectionState(DeviceConnectionState.Connected);
 
         createNotification(mSocket != null ? getString(R.string.connected_to_prefix) + " " + getDeviceName() : getString(R.string.background_service));
 
@@ -497,7 +673,7 @@ public class BluetoothDeviceDriverService extends Service implements IDeviceDriv
     public void onSerialConnectError(Exception e) {
         status(getString(R.string.status_prefix_connection_failed) + " " + e.getMessage());
 
-        mConnectionState = DeviceConnectionState.Disconnected;
+        setConnectionState(DeviceConnectionState.Disconnected);
 
         if (mStatusListener != null) {
             mStatusListener.onDisconnected();
@@ -514,7 +690,7 @@ public class BluetoothDeviceDriverService extends Service implements IDeviceDriv
         status(R.string.status_disconnected);
 
         mEnabledSent = false;
-        mConnectionState = DeviceConnectionState.Disconnected;
+        setConnectionState(DeviceConnectionState.Disconnected);
 
         createNotification(getString(R.string.status_disconnected));
         DeviceEventBroadcaster.sendDeviceDisconnected(this, mCachedDeviceName, mCachedDeviceAddress);
@@ -568,7 +744,7 @@ public class BluetoothDeviceDriverService extends Service implements IDeviceDriv
     private void reconnectAutomatically() {
         // If we are waiting on a reconnect attempt then bail out so that we aren't resetting our attempt,
         // or flooding the system.
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && mReconnectTimerHandler.hasCallbacks(mReconnectCallback)) {
+        if (mReconnectPending.get()) {
             Log.d(TAG, "Reconnect attempt pending, don't schedule more");
             return;
         }
@@ -576,6 +752,8 @@ public class BluetoothDeviceDriverService extends Service implements IDeviceDriv
         if (getAutomaticallyReconnect()) {
             Log.d(TAG, "Check reconnect automatically");
 
+            boolean claimed = false;
+
             try {
                 boolean shouldReconnect = deviceIsConnected(mPttDevice);
                 Log.v(TAG, "shouldReconnect " + shouldReconnect);
@@ -586,7 +764,8 @@ public class BluetoothDeviceDriverService extends Service implements IDeviceDriv
 
                 Log.v(TAG, "shouldReconnect " + shouldReconnect);
 
-                if (shouldReconnect) {
+                claimed = shouldReconnect && mReconnectPending.compareAndSet(false, true);
+                if (claimed) {
                     Date now = new Date();
                     if (mLastReconnectAttempt != null &&
                         now.getTime() - mLastReconnectAttempt.getTime() > RECONNECT_COUNT_RESET_MILLI) {
@@ -596,179 +775,62 @@ public class BluetoothDeviceDriverService extends Service implements IDeviceDriv
                     }
                     status(R.string.status_reconnecting);
                     mReconnectCount++;
+                    mMetrics.increment(MetricsRegistry.Counter.RECONNECT_ATTEMPTS);
                     mLastReconnectAttempt = now;
 
                     Log.v(TAG, "Attempting reconnect in " + (1000 * mReconnectCount) + "ms");
 
-                    mReconnectTimerHandler.postDelayed(mReconnectCallback, 1000 * mReconnectCount);
+                    final long delayMillis = 1000 * mReconnectCount;
+
+                    mEventDispatcher.getHandler().post(() ->
+                            mEventDispatcher.getScheduler().schedule(mReconnectTimeout, delayMillis));
                 }
             } catch (Exception e) {
+                if (claimed)
+                    mReconnectPending.set(false);
                 status(getString(R.string.status_prefix_failed_to_reconnect) + " " + e.getMessage());
                 e.printStackTrace();
             }
         }
     }
 
-    private void sendIntentInternal(final String intentName) {
-        // Possibility that user pressed the key down and released it before the key down delay.
-        // There might be an edge case here, so we *might* want to also include a timestamp with the
-        // call to sendIntentInternal.
-        if (!intentName.equals(mLastIntentSent)) {
-            return;
-        }
-        try {
-            Intent intent = new Intent();
-
-            Log.d(TAG, "Sending intent: " + intentName);
-
-            if (intentName.contains(":") && intentName.contains(",")) {
-                String eventData = intentName.split(":")[1];
-                String newName = intentName.split(":")[0];
-
-                int keyCode = KeyEvent.keyCodeFromString(eventData.split(",")[0]);
-                int keyAction = Integer.parseInt(eventData.split(",")[1]);
-
-                Log.v(TAG, "Sending KeyEvent Intent " + newName + " keyCode: " +
-                        keyCode + " keyAction: " + keyAction);
-
-                KeyEvent event = new KeyEvent(SystemClock.uptimeMillis(),
-                                              SystemClock.uptimeMillis(),
-                                              keyAction, keyCode, 0);
-
-                intent.setAction(newName);
-                intent.putExtra(Intent.EXTRA_KEY_EVENT, event);
-
-                sendBroadcast(intent);
-            } else {
-                intent.setAction(intentName);
-
-                sendBroadcast(intent);
-            }
-            // libsu and `am broadcast -a <intentName>` to support protected intents?
-        } catch (Exception e) {
-            Log.d(TAG, "Exception sending intent: " + e);
-        }
-    }
-
-    private void sendIntent(final String intentName) {
-        sendIntent(intentName, 0);
-    }
-    private void sendIntent(final String intentName, int delay) {
-        Date now = new Date();
-
-        if (mLastIntentSent != null && mPttDriver.getReadObj().getIntentsDeDuplicateNoTimeout().size() > 0 &&
-            mLastIntentSent.equals(intentName) && mPttDriver.getReadObj().getIntentsDeDuplicateNoTimeout().contains(intentName)) {
-            return;
-        }
-
-        if (mPttDriver.getReadObj().getIntentDeDuplicate() && mLastIntentSentTime != null &&
-                mLastIntentSent != null && mLastIntentSent.equals(intentName) &&
-                now.getTime() - mLastIntentSentTime.getTime() < mPttDriver.getReadObj().getIntentDeDuplicateTimeout()) {
-            return;
-        }
-
-        mLastIntentSent = intentName;
-        // We might consider accounting for the delay...
-        mLastIntentSentTime = new Date();
-
-        if (delay > 0) {
-            final Handler handler = new Handler(getMainLooper());
-            handler.postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    sendIntentInternal(intentName);
-                }
-            }, delay);
-        } else {
-            sendIntentInternal(intentName);
-        }
-    }
-
     @Override
     public void onSerialRead(byte[] data, UUID service, UUID characteristic) {
-        String intentName = null;
-        String key = (mPttDriver.getReadObj().getSerialDataType() == PttDriver.DataType.ASCII) ? new String(data) : TextUtil.toHexString(data);
-
-        Log.v(TAG, "onSerialRead - data = " + TextUtil.toHexString(data) + ", serialDataType = " + mPttDriver.getReadObj().getSerialDataType() +
-                        ", key = " + key);
-
-        if (mPttDriver.getType() == PttDriver.ConnectionType.BLE_SERIAL ||
-                mPttDriver.getType() == PttDriver.ConnectionType.SPP ||
-                mPttDriver.getType() == PttDriver.ConnectionType.HFP ||
-                (mPttDriver.getType() == PttDriver.ConnectionType.BLE && mPttDriver.getReadObj().getCharacteristic() != null)) {
-            String eolStr = mPttDriver.getReadObj().getEOL();
-
-            Log.v(TAG, "Read from intent map");
-
-            if (eolStr != null) {
-                byte[] eol = TextUtil.fromHexString(eolStr);
-                key = (new String(data)).replace(new String(eol), "");
-            }
-
-            Log.d(TAG, "Received button press: " + key);
-
-            PttDriver.IntentMap pttIntentMap = mPttDriver.getReadObj() != null ? mPttDriver.getReadObj().getIntentMap() : null;
-
-            /*if (pttIntentMap != null) {
-                Log.v(TAG, "Intent map: " + pttIntentMap.toString());
-                Log.v(TAG, "Hex key: " + TextUtil.toHexString(key.getBytes()));
-            } else {
-                Log.v(TAG, "No intent map! :(");
-            }*/
-
-            if (pttIntentMap != null && pttIntentMap.containsKey(key)) {
-                intentName = pttIntentMap.get(key);
-            }
-
-            Log.v(TAG, "Mapped intent: " + intentName);
-
-            if (mPttDriver.getType() == PttDriver.ConnectionType.HFP) {
-                // If we aren't doing anything with this data then pass it to the HFP engine
-                if (intentName == null) {
-                    ((HfpSerialSocket) mSocket).processAtCommands(new String(data));
-                } else { // Otherwise, acknowledge it
-                    AtCommandResult result = new AtCommandResult(AtCommandResult.OK);
+        onSerialRead(data, 0, data.length, service, characteristic);
+    }
 
-                    try {
-                        write(result.toString().getBytes());
-                    } catch (Exception e) {
-                        Log.d(TAG, "Exception in sending AtCommandResult.OK");
-                        e.printStackTrace();
-                    }
-                }
-            }
-        } else if (mPttDriver.getType() == PttDriver.ConnectionType.BLE) {
-            Log.v(TAG, "Read from characteristic intent maps");
+    @Override
+    public void onSerialRead(byte[] buffer, int offset, int length, UUID service, UUID characteristic) {
+        // Reads race with a driver change, the pipeline of the new driver takes over on the next read
+        PttEventPipeline pipeline = mEventPipeline;
 
-            if (key.length() > 0) {
-                key = key.replaceAll("\\s", "");
-                Log.d(TAG, "Received button press: " + key);
+        if (DEBUG)
+            Log.v(TAG, "onSerialRead - data = " + TextUtil.toHexString(buffer, offset, offset + length) +
+                    ", serialDataType = " + mPttDriver.getReadObj().getSerialDataType());
 
-                Map<UUID, PttDriver.IntentMap> pttCharacteristicsIntentMap =
-                        mPttDriver.getReadObj() != null ? mPttDriver.getReadObj().getCharacteristicIntentMaps() : null;
+        if (pipeline == null)
+            return;
 
-                if (pttCharacteristicsIntentMap != null && pttCharacteristicsIntentMap.containsKey(characteristic) &&
-                        pttCharacteristicsIntentMap.get(characteristic) != null &&
-                        pttCharacteristicsIntentMap.get(characteristic).containsKey(key)) {
-                    intentName = pttCharacteristicsIntentMap.get(characteristic).get(key);
+        IntentDescriptor intent = pipeline.match(buffer, offset, length, characteristic);
+
+        if (DEBUG)
+            Log.v(TAG, "Mapped intent for characteristic " + characteristic + ": " + intent);
+
+        if (mPttDriver.getType() == PttDriver.ConnectionType.HFP) {
+            // If we aren't doing anything with this data then pass it to the HFP engine
+            if (intent == null) {
+                ((HfpSerialSocket) mSocket).processAtCommands(new String(buffer, offset, length));
+            } else { // Otherwise, acknowledge it
+                try {
+                    write(AT_OK);
+                } catch (Exception e) {
+                    Log.d(TAG, "Exception in sending AtCommandResult.OK");
+                    e.printStackTrace();
                 }
             }
-        } else if (mPttDriver.getType() == PttDriver.ConnectionType.BLE_GAIA ||
-                    mPttDriver.getType() == PttDriver.ConnectionType.SPP_GAIA) {
-
         }
 
-        if (intentName != null) {
-            int delay = 0;
-
-            if (mPttDriver.getReadObj().getPttDownKeyIntent() != null &&
-                intentName.equals(mPttDriver.getReadObj().getPttDownKeyIntent())) {
-                // If the user did not override the ptt key down delay, check to see what the driver defines
-                delay = mPttDownKeyDelayOverride ? mPttDownKeyDelay : mPttDriver.getReadObj().getDefaultPttDownKeyDelay();
-            }
-
-            sendIntent(intentName, delay);
-        }
+        pipeline.dispatch(intent);
     }
 
     @Override
@@ -776,7 +838,7 @@ public class BluetoothDeviceDriverService extends Service implements IDeviceDriv
         status(getString(R.string.status_prefix_connection_lost) + " " + e.getMessage());
         disconnect();
 
-        mConnectionState = DeviceConnectionState.Disconnected;
+        setConnectionState(DeviceConnectionState.Disconnected);
 
         // Are we actually "disconnected"?
         createNotification(getString(R.string.status_disconnected));
@@ -2,6 +2,10 @@ package com.openmobl.pttDriver.service;
 
 import android.content.Context;
 import android.content.Intent;
+import android.os.SystemClock;
+import android.view.KeyEvent;
+
+import com.openmobl.pttDriver.model.IntentDescriptor;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -62,4 +66,21 @@ public class DeviceEventBroadcaster {
 
         context.sendBroadcast(intent);
     }
+
+    public static void sendDriverIntent(Context context, IntentDescriptor descriptor) {
+        Intent intent = new Intent();
+
+        intent.setAction(descriptor.getAction());
+        if (descriptor.hasKeyEvent()) {
+            long now = SystemClock.uptimeMillis();
+            KeyEvent event = new KeyEvent(now, now, descriptor.getKeyAction(), descriptor.getKeyCode(), 0);
+
+            intent.putExtra(Intent.EXTRA_KEY_EVENT, event);
+        }
+        for (Map.Entry<String, String> extra: descriptor.getExtras().entrySet()) {
+            intent.putExtra(extra.getKey(), extra.getValue());
+        }
+
+        context.sendBroadcast(intent);
+    }
 }
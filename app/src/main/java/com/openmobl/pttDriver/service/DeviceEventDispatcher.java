@@ -0,0 +1,181 @@
+package com.openmobl.pttDriver.service;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.openmobl.pttDriver.bt.SerialListener;
+import com.openmobl.pttDriver.utils.LatencyTracer;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves the handling of device events off the socket threads onto a single high priority thread,
+ * so matching, de-duplication, delays and broadcasts for a device never compete with the main thread.
+ *
+ * Reads are copied into preallocated slots of an {@link EventRing}. The callbacks of one socket are
+ * never concurrent, so the socket thread is the only producer and the dispatch thread the only
+ * consumer. Other events are rare and are posted to the dispatch thread in order.
+ */
+public class DeviceEventDispatcher implements SerialListener {
+    private static final String TAG = DeviceEventDispatcher.class.getName();
+
+    private final SerialListener mListener;
+    private final LatencyTracer mTracer;
+    private final MetricsRegistry mMetrics;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final EventScheduler mScheduler;
+
+    private final EventRing mRing = new EventRing();
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+
+    // Metrics
+    private final AtomicLong mDropped = new AtomicLong();
+    private volatile long mDispatched;
+    private volatile long mLastDispatchLagNanos;
+    private volatile long mMaxDispatchLagNanos;
+    private volatile long mTotalDispatchLagNanos;
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+    private final EventRing.Consumer mDispatch = this::dispatch;
+
+    public DeviceEventDispatcher(String name, SerialListener listener, LatencyTracer tracer, MetricsRegistry metrics) {
+        mListener = listener;
+        mTracer = tracer;
+        mMetrics = metrics;
+
+        mThread = new HandlerThread(name, Process.THREAD_PRIORITY_URGENT_AUDIO);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mScheduler = new EventScheduler(mHandler);
+    }
+
+    /**
+     * Handler of the dispatch thread, work posted here is ordered with the device events.
+     */
+    public Handler getHandler() {
+        return mHandler;
+    }
+
+    /**
+     * Timers of the dispatch thread, for delayed intents and connection retries.
+     */
+    public EventScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    public void quit() {
+        mThread.quitSafely();
+    }
+
+    public int getQueueDepth() {
+        return mRing.getDepth();
+    }
+    public long getMaxQueueDepth() { return mRing.getMaxDepth(); }
+    public long getDroppedCount() { return mDropped.get(); }
+    public long getDispatchedCount() { return mDispatched; }
+    public long getLastDispatchLagNanos() { return mLastDispatchLagNanos; }
+    public long getMaxDispatchLagNanos() { return mMaxDispatchLagNanos; }
+    public long getAverageDispatchLagNanos() {
+        long dispatched = mDispatched;
+
+        return dispatched > 0 ? mTotalDispatchLagNanos / dispatched : 0;
+    }
+
+    @Override
+    public void onSerialRead(byte[] data, UUID service, UUID characteristic) {
+        onSerialRead(data, 0, data.length, service, characteristic);
+    }
+
+    @Override
+    public void onSerialRead(byte[] buffer, int offset, int length, UUID service, UUID characteristic) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        long read = mTracer.takeSocketRead(now);
+
+        mMetrics.increment(MetricsRegistry.Counter.FRAMES_DECODED);
+
+        // Framing is done before the ring, a message split across slots would never be put together again
+        if (length > EventRing.SLOT_SIZE) {
+            mDropped.incrementAndGet();
+            mMetrics.increment(MetricsRegistry.Counter.QUEUE_DROPS);
+            Log.w(TAG, "Dropping a read of " + length + " bytes, larger than an event slot");
+            return;
+        }
+
+        if (!mRing.offer(buffer, offset, length, service, characteristic, read, now)) {
+            mDropped.incrementAndGet();
+            mMetrics.increment(MetricsRegistry.Counter.QUEUE_DROPS);
+            Log.d(TAG, "Event queue full, dropping " + length + " bytes");
+        }
+
+        if (mDrainScheduled.compareAndSet(false, true)) {
+            mHandler.post(mDrain);
+        }
+    }
+
+    private void drain() {
+        // Cleared first, anything published after this point schedules another drain
+        mDrainScheduled.set(false);
+
+        mRing.drain(mDispatch);
+    }
+
+    private void dispatch(byte[] data, int length, UUID service, UUID characteristic, long readTime, long time) {
+        long lag = SystemClock.elapsedRealtimeNanos() - time;
+
+        mLastDispatchLagNanos = lag;
+        if (lag > mMaxDispatchLagNanos)
+            mMaxDispatchLagNanos = lag;
+        mTotalDispatchLagNanos += lag;
+        mDispatched++;
+
+        mTracer.startEvent(readTime, time);
+        try {
+            mListener.onSerialRead(data, 0, length, service, characteristic);
+        } catch (Exception e) {
+            Log.d(TAG, "Exception dispatching read: " + e);
+            e.printStackTrace();
+        }
+        mTracer.endEvent();
+    }
+
+    @Override
+    public void onSerialConnect() {
+        mHandler.post(() -> mListener.onSerialConnect());
+    }
+
+    @Override
+    public void onSerialConnect(UUID service, UUID characteristic) {
+        mHandler.post(() -> mListener.onSerialConnect(service, characteristic));
+    }
+
+    @Override
+    public void onSerialConnectError(Exception e) {
+        mHandler.post(() -> mListener.onSerialConnectError(e));
+    }
+
+    @Override
+    public void onSerialDisconnect() {
+        mHandler.post(() -> mListener.onSerialDisconnect());
+    }
+
+    @Override
+    public void onSerialIoError(Exception e) {
+        mHandler.post(() -> mListener.onSerialIoError(e));
+    }
+
+    @Override
+    public void onBatteryEvent(byte level) {
+        mHandler.post(() -> mListener.onBatteryEvent(level));
+    }
+}
@@ -0,0 +1,110 @@
+package com.openmobl.pttDriver.service;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.openmobl.pttDriver.utils.TimerWheel;
+
+/**
+ * Runs a {@link TimerWheel} on the thread of a handler. A single tick is posted for the earliest
+ * deadline, so the number of pending timeouts never adds messages to the handler.
+ *
+ * Timeouts fire on the handler thread. Scheduling from another thread is handed over to it.
+ */
+public class EventScheduler implements TimeoutScheduler {
+    private static final long TICK_NANOS = 1000000; // 1ms
+    private static final int BUCKET_COUNT = 512;
+
+    private final Handler mHandler;
+    private final TimerWheel mWheel;
+    private long mTickDeadline = Long.MAX_VALUE;
+
+    private final Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            mTickDeadline = Long.MAX_VALUE;
+            mWheel.advanceTo(now());
+            rearm();
+        }
+    };
+
+    public EventScheduler(Handler handler) {
+        mHandler = handler;
+        mWheel = new TimerWheel(TICK_NANOS, BUCKET_COUNT, now());
+    }
+
+    public static long now() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    @Override
+    public long nowNanos() {
+        return now();
+    }
+
+    public Handler getHandler() {
+        return mHandler;
+    }
+
+    @Override
+    public void schedule(final TimerWheel.Timeout timeout, long delayMillis) {
+        final long deadline = now() + delayMillis * 1000000L;
+
+        if (isHandlerThread()) {
+            mWheel.schedule(timeout, deadline);
+            rearm();
+        } else {
+            mHandler.post(() -> {
+                mWheel.schedule(timeout, deadline);
+                rearm();
+            });
+        }
+    }
+
+    @Override
+    public void cancel(final TimerWheel.Timeout timeout) {
+        if (isHandlerThread()) {
+            mWheel.cancel(timeout);
+            rearm();
+        } else {
+            mHandler.post(() -> {
+                mWheel.cancel(timeout);
+                rearm();
+            });
+        }
+    }
+
+    public void cancelAll() {
+        if (isHandlerThread()) {
+            mWheel.cancelAll();
+            rearm();
+        } else {
+            mHandler.post(() -> {
+                mWheel.cancelAll();
+                rearm();
+            });
+        }
+    }
+
+    private boolean isHandlerThread() {
+        return Looper.myLooper() == mHandler.getLooper();
+    }
+
+    private void rearm() {
+        long next = mWheel.nextDeadline();
+
+        if (next == mTickDeadline)
+            return;
+
+        mHandler.removeCallbacks(mTick);
+        mTickDeadline = next;
+
+        if (next != Long.MAX_VALUE) {
+            // Rounded up, a tick that arrives early would find nothing to fire
+            long delayMillis = Math.max(0, (next - now() + 999999) / 1000000);
+
+            mHandler.postDelayed(mTick, delayMillis);
+        }
+    }
+}
@@ -10,10 +10,9 @@ import android.content.Intent;
 import android.os.Build;
 import android.os.FileObserver;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
-import android.os.SystemClock;
 import android.util.Log;
-import android.view.KeyEvent;
 
 import androidx.annotation.Nullable;
 import androidx.core.app.NotificationChannelCompat;
@@ -28,12 +27,21 @@ import bsh.TargetError;
 import com.openmobl.pttDriver.BuildConfig;
 import com.openmobl.pttDriver.Constants;
 import com.openmobl.pttDriver.R;
+import com.openmobl.pttDriver.db.AsyncDriverDatabase;
+import com.openmobl.pttDriver.db.DriverDatabaseCache;
 import com.openmobl.pttDriver.model.Device;
+import com.openmobl.pttDriver.model.IntentDescriptor;
+import com.openmobl.pttDriver.model.IntentMatcher;
 import com.openmobl.pttDriver.model.PttDriver;
+import com.openmobl.pttDriver.model.PttDriverRegistry;
+import com.openmobl.pttDriver.model.Record;
+import com.openmobl.pttDriver.utils.LatencyTracer;
 
 import java.io.BufferedInputStream;
 import java.io.DataInputStream;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
+import java.io.PrintWriter;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -44,13 +52,17 @@ public class FileStreamDeviceDriverService extends Service implements IDeviceDri
     private DeviceConnectionState mConnectionState = DeviceConnectionState.Disconnected;
 
     private boolean mDeviceDefined;
+    private volatile int mDeviceId = -1;
     private PttDriver mPttDriver;
     private int mPttDownKeyDelay;
     private boolean mPttDownKeyDelayOverride;
-    /*private String mLastIntentSent;
-    private Date mLastIntentSentTime;*/
+    private volatile PttEventPipeline mEventPipeline;
 
+    private HandlerThread mEventThread;
     private Handler mEventConductor;
+    private EventScheduler mEventScheduler;
+    private LatencyTracer mLatencyTracer;
+    private MetricsRegistry mMetrics;
 
     private Map<String, EventFileWatcher> mFileWatchers;
 
@@ -58,6 +70,25 @@ public class FileStreamDeviceDriverService extends Service implements IDeviceDri
 
     private DeviceStatusListener mStatusListener;
 
+    private Handler mMainHandler;
+
+    // Edits to the device take effect without reconnecting
+    private final DriverDatabaseCache.ChangeListener mDeviceChangeListener = change -> {
+        if (change.getType() != Record.RecordType.DEVICE || !change.contains(mDeviceId))
+            return;
+
+        mMainHandler.post(() -> {
+            Device device = AsyncDriverDatabase.getInstance(this).getDatabase().getDevice(mDeviceId);
+
+            if (device != null) {
+                Log.v(TAG, "Device " + mDeviceId + " changed");
+                applyDeviceSettings(device);
+            } else {
+                Log.v(TAG, "Device " + mDeviceId + " removed");
+            }
+        });
+    };
+
     public static abstract class EventListener {
         public abstract void onEvent(final EventFileWatcher file);
     }
@@ -66,6 +97,7 @@ public class FileStreamDeviceDriverService extends Service implements IDeviceDri
         private final String mFilename;
         private final String mPreprocessFunction;
         private final PttDriver.IntentMap mIntentMap;
+        private final IntentMatcher mIntentMatcher;
         private FileInputStream mFileStream;
         private BufferedInputStream mBufferedStream;
         private DataInputStream mDataStream;
@@ -73,12 +105,14 @@ public class FileStreamDeviceDriverService extends Service implements IDeviceDri
 
         private final EventListener mListener;
 
-        public EventFileWatcher(PttDriver.FileObject fileObj, EventListener listener, Handler eventConductor) {
+        public EventFileWatcher(PttDriver.PttReadObj readObj, PttDriver.FileObject fileObj, EventListener listener,
+                                Handler eventConductor) {
             super(fileObj.getFileName(), ACCESS);
 
             mFilename = fileObj.getFileName();
             mPreprocessFunction = fileObj.getPreprocessFunction();
             mIntentMap = (PttDriver.IntentMap)fileObj.getIntentMap().clone();
+            mIntentMatcher = IntentMatcher.forText(readObj, mIntentMap);
             mListener = listener;
             mConductor = eventConductor;
         }
@@ -112,6 +146,10 @@ public class FileStreamDeviceDriverService extends Service implements IDeviceDri
             return mIntentMap;
         }
 
+        public IntentMatcher getIntentMatcher() {
+            return mIntentMatcher;
+        }
+
         public void close() {
             try {
                 mDataStream.close();
@@ -146,23 +184,22 @@ public class FileStreamDeviceDriverService extends Service implements IDeviceDri
     private final EventListener mEventResponder = new EventListener() {
             @Override
             public void onEvent(final EventFileWatcher fileObj) {
+                // File events have no socket or framing stages, the trace starts here
+                long now = LatencyTracer.now();
+                mLatencyTracer.startEvent(now, now);
+                mMetrics.increment(MetricsRegistry.Counter.FRAMES_DECODED);
+
                 String result = executePreprocessor(fileObj.getPreprocessFunctionName(), fileObj.getDataStream());
 
                 if (result != null && !result.isEmpty()) {
-                    String intentName = fileObj.getIntentMap().get(result);
-
-                    if (intentName != null && !intentName.isEmpty()) {
-                        int delay = 0;
-
-                        if (mPttDriver.getReadObj().getPttDownKeyIntent() != null &&
-                                intentName.equals(mPttDriver.getReadObj().getPttDownKeyIntent())) {
-                            // If the user did not override the ptt key down delay, check to see what the driver defines
-                            delay = mPttDownKeyDelayOverride ? mPttDownKeyDelay : mPttDriver.getReadObj().getDefaultPttDownKeyDelay();
-                        }
+                    IntentDescriptor intent = fileObj.getIntentMatcher().match(result);
+                    PttEventPipeline pipeline = mEventPipeline;
 
-                        sendIntent(intentName, delay);
-                    }
+                    if (pipeline != null)
+                        pipeline.dispatch(intent);
                 }
+
+                mLatencyTracer.endEvent();
             }
         };
 
@@ -181,12 +218,29 @@ public class FileStreamDeviceDriverService extends Service implements IDeviceDri
 
         createNotification(getString(R.string.status_disconnected));
 
-        mEventConductor = new Handler(getMainLooper());
+        // File events are preprocessed, matched and broadcast off the main thread
+        mEventThread = new HandlerThread(TAG, android.os.Process.THREAD_PRIORITY_URGENT_AUDIO);
+        mEventThread.start();
+        mEventConductor = new Handler(mEventThread.getLooper());
+        mEventScheduler = new EventScheduler(mEventConductor);
+        mLatencyTracer = new LatencyTracer();
+        mMetrics = new MetricsRegistry();
+        mMetrics.registerGauge("readToSentP50Nanos", () -> mLatencyTracer.getEndToEnd().getPercentileNanos(50));
+        mMetrics.registerGauge("readToSentP99Nanos", () -> mLatencyTracer.getEndToEnd().getPercentileNanos(99));
+        mMetrics.registerGauge("readToSentMaxNanos", () -> mLatencyTracer.getEndToEnd().getMaxNanos());
+        // Shared by every service of the process
+        mMetrics.registerGauge("driverRegistryHits", () -> PttDriverRegistry.getInstance().getHits());
+        mMetrics.registerGauge("driverRegistryMisses", () -> PttDriverRegistry.getInstance().getMisses());
+        mMetrics.registerGauge("driverRegistryEvictions", () -> PttDriverRegistry.getInstance().getEvictions());
+        mMetrics.registerGauge("driverRegistrySize", () -> PttDriverRegistry.getInstance().size());
         mFileWatchers = new HashMap<>();
 
         mDeviceDefined = false;
         mPttDownKeyDelay = 0;
         mPttDownKeyDelayOverride = false;
+
+        mMainHandler = new Handler(getMainLooper());
+        AsyncDriverDatabase.getInstance(this).addChangeListener(mDeviceChangeListener);
     }
 
     @Override
@@ -195,6 +249,10 @@ public class FileStreamDeviceDriverService extends Service implements IDeviceDri
         if (mConnectionState != DeviceConnectionState.Disconnected)
             disconnect();
 
+        AsyncDriverDatabase.getInstance(this).removeChangeListener(mDeviceChangeListener);
+
+        mEventThread.quitSafely();
+
         cancelNotification();
 
         super.onDestroy();
@@ -211,13 +269,23 @@ public class FileStreamDeviceDriverService extends Service implements IDeviceDri
     public void setPttDevice(Device device) {
         Log.v(TAG, "setPttDevice");
         if (device != null) {
-            mPttDownKeyDelay = device.getPttDownDelay();
-            mPttDownKeyDelayOverride = true;
+            mDeviceId = device.getId();
+            applyDeviceSettings(device);
 
             mDeviceDefined = true;
         }
     }
 
+    private void applyDeviceSettings(Device device) {
+        mPttDownKeyDelay = device.getPttDownDelay();
+        mPttDownKeyDelayOverride = true;
+        if (mEventPipeline != null)
+            mEventPipeline.setPttDownKeyDelay(mPttDownKeyDelay);
+
+        mLatencyTracer.setName(device.getName());
+        mMetrics.setName(device.getName());
+    }
+
     @Override
     public boolean deviceIsValid() {
         return true;
@@ -228,6 +296,18 @@ public class FileStreamDeviceDriverService extends Service implements IDeviceDri
         Log.v(TAG, "setPttDriver");
 
         mPttDriver = driver;
+        if (mEventPipeline != null) {
+            final PttEventPipeline previous = mEventPipeline;
+
+            mEventConductor.post(previous::reset);
+        }
+        mEventPipeline = (driver != null && driver.getReadObj() != null) ?
+                new PttEventPipeline(driver, mEventScheduler, intent -> DeviceEventBroadcaster.sendDriverIntent(this, intent), mLatencyTracer, mMetrics) : null;
+        if (mEventPipeline != null) {
+            if (mPttDownKeyDelayOverride)
+                mEventPipeline.setPttDownKeyDelay(mPttDownKeyDelay);
+            mLatencyTracer.setIntents(driver.getReadObj().getIntentDescriptors(), driver.getReadObj().getIntentDescriptorCount());
+        }
     }
 
     @Override
@@ -254,6 +334,22 @@ public class FileStreamDeviceDriverService extends Service implements IDeviceDri
         return mConnectionState;
     }
 
+    private void setConnectionState(DeviceConnectionState state) {
+        mConnectionState = state;
+        mMetrics.enterState(state);
+    }
+
+    @Override
+    public LatencyTracer getLatencyTracer() {
+        return mLatencyTracer;
+    }
+
+    // adb shell dumpsys activity service com.openmobl.pttDriver/.service.FileStreamDeviceDriverService [--json]
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mMetrics.dump(writer, args);
+    }
+
     @Override
     public void connect() {
         Log.v(TAG, "connect");
@@ -261,14 +357,14 @@ public class FileStreamDeviceDriverService extends Service implements IDeviceDri
         if (mConnectionState == DeviceConnectionState.Disconnected) {
             if (mPttDriver != null && mDeviceDefined) {
                 for (PttDriver.FileObject fileObj: mPttDriver.getReadObj().getFiles()) {
-                    EventFileWatcher watcher = new EventFileWatcher(fileObj, mEventResponder, mEventConductor);
+                    EventFileWatcher watcher = new EventFileWatcher(mPttDriver.getReadObj(), fileObj, mEventResponder, mEventConductor);
 
                     mFileWatchers.put(fileObj.getFileName(), watcher);
 
                     watcher.createDataStream();
                 }
 
-                mConnectionState = DeviceConnectionState.Connected;
+                setConnectionState(DeviceConnectionState.Connected);
 
                 if (mStatusListener != null) {
                     mStatusListener.onConnected();
@@ -284,7 +380,7 @@ public class FileStreamDeviceDriverService extends Service implements IDeviceDri
         Log.v(TAG, "disconnect");
 
         if (mConnectionState == DeviceConnectionState.Connected) {
-            mConnectionState = DeviceConnectionState.Disconnected;
+            setConnectionState(DeviceConnectionState.Disconnected);
 
             for (Map.Entry<String, EventFileWatcher> fileWatcher: mFileWatchers.entrySet()) {
                 EventFileWatcher watcher = fileWatcher.getValue();
@@ -335,78 +431,6 @@ public class FileStreamDeviceDriverService extends Service implements IDeviceDri
         return result;
     }
 
-    private void sendIntentInternal(final String intentName) {
-        // Possibility that user pressed the key down and released it before the key down delay.
-        // There might be an edge case here, so we *might* want to also include a timestamp with the
-        // call to sendIntentInternal.
-        /*if (!intentName.equals(mLastIntentSent)) {
-            return;
-        }*/
-        try {
-            Intent intent = new Intent();
-
-            Log.d(TAG, "Sending intent: " + intentName);
-
-            if (intentName.contains(":") && intentName.contains(",")) {
-                String eventData = intentName.split(":")[1];
-                String newName = intentName.split(":")[0];
-
-                int keyCode = KeyEvent.keyCodeFromString(eventData.split(",")[0]);
-                int keyAction = Integer.parseInt(eventData.split(",")[1]);
-
-                Log.v(TAG, "Sending KeyEvent Intent " + newName + " keyCode: " +
-                        keyCode + " keyAction: " + keyAction);
-
-                KeyEvent event = new KeyEvent(SystemClock.uptimeMillis(),
-                        SystemClock.uptimeMillis(),
-                        keyAction, keyCode, 0);
-
-                intent.setAction(newName);
-                intent.putExtra(Intent.EXTRA_KEY_EVENT, event);
-
-                sendBroadcast(intent);
-            } else {
-                intent.setAction(intentName);
-
-                sendBroadcast(intent);
-            }
-            // libsu and `am broadcast -a <intentName>` to support protected intents?
-        } catch (Exception e) {
-            Log.d(TAG, "Exception sending intent: " + e);
-        }
-    }
-
-    private void sendIntent(final String intentName, int delay) {
-        /*Date now = new Date();
-
-        if (mLastIntentSent != null && mPttDriver.getReadObj().getIntentsDeDuplicateNoTimeout().size() > 0 &&
-                mLastIntentSent.equals(intentName) && mPttDriver.getReadObj().getIntentsDeDuplicateNoTimeout().contains(intentName)) {
-            return;
-        }
-
-        if (mPttDriver.getReadObj().getIntentDeDuplicate() && mLastIntentSentTime != null &&
-                mLastIntentSent != null && mLastIntentSent.equals(intentName) &&
-                now.getTime() - mLastIntentSentTime.getTime() < mPttDriver.getReadObj().getIntentDeDuplicateTimeout()) {
-            return;
-        }
-
-        mLastIntentSent = intentName;
-        // We might consider accounting for the delay...
-        mLastIntentSentTime = new Date();*/
-
-        if (delay > 0) {
-            final Handler handler = new Handler(getMainLooper());
-            handler.postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    sendIntentInternal(intentName);
-                }
-            }, delay);
-        } else {
-            sendIntentInternal(intentName);
-        }
-    }
-
     private void createNotification(String message) {
         String channelId = "";
         NotificationManagerCompat manager = NotificationManagerCompat.from(this);
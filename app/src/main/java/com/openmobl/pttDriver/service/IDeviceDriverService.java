@@ -4,6 +4,7 @@ import android.bluetooth.BluetoothDevice;
 
 import com.openmobl.pttDriver.model.Device;
 import com.openmobl.pttDriver.model.PttDriver;
+import com.openmobl.pttDriver.utils.LatencyTracer;
 
 public interface IDeviceDriverService {
     void setPttDevice(Device device);
@@ -19,6 +20,8 @@ public interface IDeviceDriverService {
 
     DeviceConnectionState getConnectionState();
 
+    LatencyTracer getLatencyTracer();
+
     void connect();
     void disconnect();
 }
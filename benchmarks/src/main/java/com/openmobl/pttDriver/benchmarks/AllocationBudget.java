@@ -0,0 +1,171 @@
+package com.openmobl.pttDriver.benchmarks;
+
+import com.openmobl.pttDriver.bt.FramingSerialListener;
+import com.openmobl.pttDriver.bt.SerialFramer;
+import com.openmobl.pttDriver.bt.SerialListener;
+import com.openmobl.pttDriver.bt.SerialSocket;
+import com.openmobl.pttDriver.model.PttDriver;
+import com.openmobl.pttDriver.service.MetricsRegistry;
+import com.openmobl.pttDriver.service.PttEventPipeline;
+import com.openmobl.pttDriver.service.VirtualScheduler;
+import com.openmobl.pttDriver.utils.LatencyTracer;
+import com.openmobl.pttDriver.utils.TextUtil;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fails when the steady state event path allocates: socket read, framing, match, de-dupe, delay and
+ * dispatch, for an ASCII, a hex and a characteristic map driver.
+ *
+ * Each driver is warmed up, then the bytes allocated by the thread over a run of press and release
+ * events, as counted by the ThreadMXBean, must stay within the budget per event. Exits with 1 when
+ * a driver is over it, so `./gradlew check` fails.
+ *
+ * Usage: AllocationBudget [events] [budget bytes per event]
+ */
+public class AllocationBudget {
+    private static final int DEFAULT_EVENTS = 20000;
+    private static final int WARMUP_EVENTS = 50000;
+    // Longer than the ptt down delays and de-dupe timeouts of the drivers, so every event is sent
+    private static final long EVENT_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private static class Scenario {
+        private final String mDriverName;
+        private final byte[] mPress;
+        private final byte[] mRelease;
+        private final UUID mCharacteristic;
+
+        Scenario(String driverName, String pressHex, String releaseHex, String characteristic) {
+            mDriverName = driverName;
+            mPress = TextUtil.fromHexString(pressHex);
+            mRelease = TextUtil.fromHexString(releaseHex);
+            mCharacteristic = characteristic != null ? UUID.fromString(characteristic) : null;
+        }
+    }
+
+    private static final Scenario[] SCENARIOS = {
+            // ASCII with an EOL
+            new Scenario("b01-spp", "2B5054543D5000", "2B5054543D5200", null),
+            // Hex stream
+            new Scenario("pryme-blu-ptt-z", "01", "00", null),
+            // Hex per characteristic
+            new Scenario("iasus-ptt-driver", "01", "00", "678fea09-1023-0001-4429-00ab85ba4983")
+    };
+
+    /**
+     * Stands in for a connected device, handing packets to its listener as the sockets do.
+     */
+    private static class FakeSerialSocket implements SerialSocket {
+        private SerialListener mListener;
+
+        @Override public String getName() { return "fake"; }
+        @Override public String getAddress() { return "00:00:00:00:00:00"; }
+        @Override public void disconnect() { disconnect(false); }
+        @Override public void disconnect(boolean silent) { mListener = null; }
+        @Override public void write(byte[] data) { }
+        @Override public void setMetrics(MetricsRegistry metrics) { }
+
+        @Override
+        public void connect(SerialListener listener) {
+            mListener = listener;
+            listener.onSerialConnect();
+        }
+
+        void receive(byte[] data, UUID characteristic) {
+            mListener.onSerialRead(data, 0, data.length, null, characteristic);
+        }
+    }
+
+    /**
+     * The end of the listener chain, what the services do with a frame.
+     */
+    private static class PipelineListener implements SerialListener {
+        private final PttEventPipeline mPipeline;
+        private final LatencyTracer mTracer;
+        private long mSent;
+
+        PipelineListener(PttDriver driver, VirtualScheduler scheduler, LatencyTracer tracer) {
+            mTracer = tracer;
+            mPipeline = new PttEventPipeline(driver, scheduler, intent -> mSent++, tracer, new MetricsRegistry());
+        }
+
+        @Override public void onSerialConnect() { }
+        @Override public void onSerialConnect(UUID service, UUID characteristic) { }
+        @Override public void onSerialConnectError(Exception e) { }
+        @Override public void onSerialDisconnect() { }
+        @Override public void onSerialIoError(Exception e) { }
+        @Override public void onBatteryEvent(byte level) { }
+
+        @Override
+        public void onSerialRead(byte[] data, UUID service, UUID characteristic) {
+            onSerialRead(data, 0, data.length, service, characteristic);
+        }
+
+        @Override
+        public void onSerialRead(byte[] buffer, int offset, int length, UUID service, UUID characteristic) {
+            long now = LatencyTracer.now();
+
+            mTracer.startEvent(mTracer.takeSocketRead(now), now);
+            mPipeline.process(buffer, offset, length, characteristic);
+            mTracer.endEvent();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_EVENTS;
+        long budget = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        boolean failed = false;
+
+        if (!threads.isThreadAllocatedMemorySupported())
+            throw new IllegalStateException("The JVM does not count allocations per thread");
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        for (Scenario scenario : SCENARIOS) {
+            PttDriver driver = Drivers.load(scenario.mDriverName);
+            VirtualScheduler scheduler = new VirtualScheduler(0);
+            LatencyTracer tracer = new LatencyTracer();
+            PipelineListener pipeline = new PipelineListener(driver, scheduler, tracer);
+            SerialFramer framer = PttEventPipeline.usesSerialIntentMap(driver) ? SerialFramer.create(driver.getReadObj()) : null;
+            FakeSerialSocket socket = new FakeSerialSocket();
+
+            tracer.setIntents(driver.getReadObj().getIntentDescriptors(), driver.getReadObj().getIntentDescriptorCount());
+            socket.connect(framer != null ? new FramingSerialListener(pipeline, framer, tracer) : pipeline);
+
+            long time = run(socket, scheduler, scenario, 0, WARMUP_EVENTS);
+            long sentBefore = pipeline.mSent;
+            long thread = Thread.currentThread().getId();
+            long before = threads.getThreadAllocatedBytes(thread);
+
+            run(socket, scheduler, scenario, time, events);
+
+            long allocated = threads.getThreadAllocatedBytes(thread) - before;
+            long sent = pipeline.mSent - sentBefore;
+            long perEvent = allocated / events;
+            boolean over = perEvent > budget || sent != events;
+
+            System.out.println(String.format("%-20s %8d events %8d sent %10d bytes %6d bytes/event %s",
+                    scenario.mDriverName, events, sent, allocated, perEvent, over ? "FAIL" : "ok"));
+            failed |= over;
+        }
+
+        if (failed) {
+            System.out.println("Over the budget of " + budget + " bytes per event");
+            System.exit(1);
+        }
+    }
+
+    // Alternates press and release, letting the delayed presses fire in between
+    private static long run(FakeSerialSocket socket, VirtualScheduler scheduler, Scenario scenario,
+                            long time, int events) {
+        for (int i = 0; i < events; i++) {
+            socket.receive(i % 2 == 0 ? scenario.mPress : scenario.mRelease, scenario.mCharacteristic);
+            time += EVENT_INTERVAL_NANOS;
+            scheduler.advanceTo(time);
+        }
+        return time;
+    }
+}
@@ -0,0 +1,151 @@
+package com.openmobl.pttDriver.benchmarks;
+
+import com.openmobl.pttDriver.bt.hfp.AtCommandHandler;
+import com.openmobl.pttDriver.bt.hfp.AtCommandResult;
+import com.openmobl.pttDriver.bt.hfp.AtParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The service level connection a hands-free RSM sets up before its first key, through handlers that
+ * answer like the ones of HfpSerialSocket.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AtParserBenchmark {
+    private static final String[] HANDSHAKE = {
+            "AT+BRSF=191",
+            "AT+CIND=?",
+            "AT+CIND?",
+            "AT+CMER=3,0,0,1",
+            "AT+CMEE=1",
+            "AT+CLIP=1",
+            "AT+CCWA=1",
+            "AT+CREG?",
+            "AT+BTRH?",
+            "AT+VGS=15",
+            "AT+VGM=8",
+            "AT+CSQ"
+    };
+    private static final String KEY = "AT+PTT=P";
+
+    private AtParser mParser;
+
+    @Setup
+    public void setup() {
+        mParser = new AtParser();
+        mParser.register("+BRSF", new AtCommandHandler() {
+            @Override
+            public AtCommandResult handleSetCommand(Object[] args) {
+                return new AtCommandResult("+BRSF: 871");
+            }
+        });
+        mParser.register("+CMER", new AtCommandHandler() {
+            @Override
+            public AtCommandResult handleSetCommand(Object[] args) {
+                return new AtCommandResult(AtCommandResult.OK);
+            }
+        });
+        mParser.register("+CMEE", new AtCommandHandler() {
+            @Override
+            public AtCommandResult handleSetCommand(Object[] args) {
+                return new AtCommandResult(AtCommandResult.OK);
+            }
+        });
+        mParser.register("+CIND", new AtCommandHandler() {
+            @Override
+            public AtCommandResult handleReadCommand() {
+                AtCommandResult result = new AtCommandResult(AtCommandResult.OK);
+
+                result.addResponse("+CIND: 1,1,0,0,5,0,5,1,0");
+                return result;
+            }
+            @Override
+            public AtCommandResult handleTestCommand() {
+                return new AtCommandResult("+CIND: (\"service\",(0-1)),(\"call\",(0-1))," +
+                        "(\"callsetup\",(0-3)),(\"callheld\",(0-2)),(\"signal\",(0-5))," +
+                        "(\"roam\",(0-1)),(\"battchg\",(0-5)),(\"message\",(0-1)),(\"smsfull\",(0-2))");
+            }
+        });
+        mParser.register("+CSQ", new AtCommandHandler() {
+            @Override
+            public AtCommandResult handleActionCommand() {
+                AtCommandResult result = new AtCommandResult(AtCommandResult.OK);
+
+                result.addResponse("+CSQ: 31,99");
+                return result;
+            }
+        });
+        mParser.register("+CREG", new AtCommandHandler() {
+            @Override
+            public AtCommandResult handleReadCommand() {
+                return new AtCommandResult("+CREG: 1,1");
+            }
+        });
+        mParser.register("+BTRH", new AtCommandHandler() {
+            @Override
+            public AtCommandResult handleReadCommand() {
+                AtCommandResult result = new AtCommandResult(AtCommandResult.UNSOLICITED);
+
+                result.addResponse("OK");
+                result.addResponse("+PTT=?");
+                return result;
+            }
+        });
+        mParser.register("+VGM", new AtCommandHandler() {
+            @Override
+            public AtCommandResult handleSetCommand(Object[] args) {
+                return new AtCommandResult(AtCommandResult.OK);
+            }
+        });
+        mParser.register("+VGS", new AtCommandHandler() {
+            @Override
+            public AtCommandResult handleSetCommand(Object[] args) {
+                return new AtCommandResult(AtCommandResult.OK);
+            }
+        });
+        // Catch-all, where the keys of the device arrive
+        mParser.register("", new AtCommandHandler() {
+            @Override
+            public AtCommandResult handleBasicCommand(String arg) {
+                return new AtCommandResult(AtCommandResult.OK);
+            }
+            @Override
+            public AtCommandResult handleSetCommand(Object[] args) {
+                return new AtCommandResult(AtCommandResult.OK);
+            }
+            @Override
+            public AtCommandResult handleActionCommand() {
+                return new AtCommandResult(AtCommandResult.OK);
+            }
+        });
+    }
+
+    @Benchmark
+    public void handshake(Blackhole blackhole) {
+        for (String command : HANDSHAKE) {
+            blackhole.consume(mParser.process(command));
+        }
+    }
+
+    @Benchmark
+    public AtCommandResult key() {
+        return mParser.process(KEY);
+    }
+}
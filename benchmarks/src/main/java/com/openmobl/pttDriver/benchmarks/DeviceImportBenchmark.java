@@ -0,0 +1,144 @@
+package com.openmobl.pttDriver.benchmarks;
+
+import com.openmobl.pttDriver.db.DriverSchema;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Import of devices into an empty database with the schema of DriverSQLiteDatabase, on SQLite through
+ * JDBC in write ahead log mode as on Android.
+ *
+ * <code>perDevice</code> does what addOrUpdateDevice used to for each device: a query to check the
+ * device exists and an insert, both compiled again, each in its own transaction.
+ * <code>bulk</code> does what addOrUpdateDevices does: the id lookup and the insert compiled once, all
+ * in one transaction.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DeviceImportBenchmark {
+    @Param({"1000"})
+    public int mDevices;
+
+    private File mFile;
+    private Connection mConnection;
+
+    @Setup(Level.Invocation)
+    public void setup() throws IOException, SQLException {
+        mFile = File.createTempFile("pttdriver", ".db");
+        mConnection = DriverManager.getConnection("jdbc:sqlite:" + mFile.getPath());
+
+        try (Statement statement = mConnection.createStatement()) {
+            statement.execute("PRAGMA journal_mode=WAL");
+            statement.execute("PRAGMA synchronous=NORMAL");
+            statement.execute(DriverSchema.TABLE_DEVICES_CREATE_SQL);
+            statement.execute(DriverSchema.TABLE_DRIVERS_CREATE_SQL);
+            for (String index : DriverSchema.INDEXES_CREATE_SQL) {
+                statement.execute(index);
+            }
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws SQLException {
+        mConnection.close();
+
+        new File(mFile.getPath() + "-wal").delete();
+        new File(mFile.getPath() + "-shm").delete();
+        mFile.delete();
+    }
+
+    private static String mac(int device) {
+        return String.format("00:11:22:33:%02X:%02X", device >> 8, device & 0xFF);
+    }
+
+    private static void bindDevice(PreparedStatement statement, int device) throws SQLException {
+        statement.setString(1, "bluetooth");
+        statement.setString(2, "Device " + device);
+        statement.setString(3, mac(device));
+        statement.setInt(4, -1);
+        statement.setInt(5, 1);
+        statement.setInt(6, 1);
+        statement.setInt(7, 0);
+    }
+
+    @Benchmark
+    public int perDevice() throws SQLException {
+        int imported = 0;
+
+        for (int device = 0; device < mDevices; device++) {
+            boolean exists;
+
+            try (PreparedStatement query = mConnection.prepareStatement("SELECT `" + DriverSchema.DEVICE_MAC
+                    + "` FROM `" + DriverSchema.TABLE_DEVICES + "` WHERE `" + DriverSchema.DEVICE_MAC + "`=?")) {
+                query.setString(1, mac(device));
+                try (ResultSet result = query.executeQuery()) {
+                    exists = result.next();
+                }
+            }
+
+            if (!exists) {
+                try (PreparedStatement insert = mConnection.prepareStatement(DriverSchema.DEVICE_INSERT_SQL)) {
+                    bindDevice(insert, device);
+                    imported += insert.executeUpdate();
+                }
+            }
+        }
+
+        return imported;
+    }
+
+    @Benchmark
+    public int bulk() throws SQLException {
+        int imported = 0;
+
+        mConnection.setAutoCommit(false);
+        try (PreparedStatement lookup = mConnection.prepareStatement(DriverSchema.DEVICE_ID_BY_MAC_SQL);
+             PreparedStatement insert = mConnection.prepareStatement(DriverSchema.DEVICE_INSERT_SQL)) {
+            for (int device = 0; device < mDevices; device++) {
+                long id;
+
+                lookup.setString(1, mac(device));
+                try (ResultSet result = lookup.executeQuery()) {
+                    result.next();
+                    id = result.getLong(1);
+                }
+
+                if (id < 0) {
+                    bindDevice(insert, device);
+                    imported += insert.executeUpdate();
+                }
+            }
+            mConnection.commit();
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+
+        return imported;
+    }
+}
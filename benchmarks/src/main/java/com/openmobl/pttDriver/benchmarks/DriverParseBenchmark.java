@@ -0,0 +1,68 @@
+package com.openmobl.pttDriver.benchmarks;
+
+import com.openmobl.pttDriver.model.CompiledDriver;
+import com.openmobl.pttDriver.model.PttDriver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a driver, as done for every connection: parse the JSON, compile the intent maps and
+ * validate, or load the compiled driver stored next to the JSON.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DriverParseBenchmark {
+    @Param({"b01-spp", "pryme-blu-ptt-z", "iasus-ptt-driver", "kodiak-moto-wm500"})
+    public String mDriverName;
+
+    private String mJson;
+    private PttDriver mDriver;
+    private byte[] mCompiled;
+    private String mCompiledHash;
+
+    @Setup
+    public void setup() throws IOException {
+        mJson = Drivers.json(mDriverName);
+        mDriver = Drivers.load(mDriverName);
+        mCompiled = CompiledDriver.compile(mDriver);
+        mCompiledHash = CompiledDriver.hash(mJson);
+    }
+
+    @Benchmark
+    public PttDriver parse() throws IOException {
+        return new PttDriver(mJson);
+    }
+
+    @Benchmark
+    public boolean parseAndValidate() throws IOException {
+        return new PttDriver(mJson).isValid();
+    }
+
+    // Includes hashing the JSON to check the compiled driver is current
+    @Benchmark
+    public PttDriver loadCompiled() throws IOException {
+        return CompiledDriver.load(mJson, mCompiled, mCompiledHash);
+    }
+
+    @Benchmark
+    public boolean validate() {
+        return mDriver.isValid();
+    }
+}
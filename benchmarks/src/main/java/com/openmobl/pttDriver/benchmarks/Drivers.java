@@ -0,0 +1,45 @@
+package com.openmobl.pttDriver.benchmarks;
+
+import com.openmobl.pttDriver.model.PttDriver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The drivers of the repository, which the build puts on the classpath.
+ */
+final class Drivers {
+    private Drivers() {
+    }
+
+    static String json(String name) throws IOException {
+        InputStream in = Drivers.class.getResourceAsStream("/" + name + ".json");
+
+        if (in == null)
+            throw new IOException("No driver " + name);
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+
+    static PttDriver load(String name) throws IOException {
+        PttDriver driver = new PttDriver(json(name));
+
+        if (!driver.isValid())
+            throw new IOException("Driver " + name + " is invalid: " + driver.getAllValidationErrors());
+
+        return driver;
+    }
+}
@@ -0,0 +1,54 @@
+package com.openmobl.pttDriver.benchmarks;
+
+import com.openmobl.pttDriver.utils.TextUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The hex codecs used to log packets and to decode the keys of hex drivers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HexCodecBenchmark {
+    // A single key byte, a BLE notification and a full SPP line
+    @Param({"1", "20", "64"})
+    public int mLength;
+
+    private byte[] mBytes;
+    private String mHex;
+
+    @Setup
+    public void setup() {
+        mBytes = new byte[mLength];
+        for (int i = 0; i < mLength; i++) {
+            mBytes[i] = (byte) (i * 37 + 1);
+        }
+        mHex = TextUtil.toHexString(mBytes);
+    }
+
+    @Benchmark
+    public byte[] fromHexString() {
+        return TextUtil.fromHexString(mHex);
+    }
+
+    @Benchmark
+    public String toHexString() {
+        return TextUtil.toHexString(mBytes);
+    }
+}
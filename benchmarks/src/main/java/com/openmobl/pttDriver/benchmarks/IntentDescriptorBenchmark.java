@@ -0,0 +1,40 @@
+package com.openmobl.pttDriver.benchmarks;
+
+import com.openmobl.pttDriver.model.IntentDescriptor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of intent map values, which sendIntentInternal used to do for every intent sent and which
+ * now happens once per value when a driver is loaded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntentDescriptorBenchmark {
+    @Param({
+            "android.intent.action.PTT.pressed",
+            "com.symbol.button.L2:KEYCODE_BUTTON_L2,0",
+            "com.example.ptt.action:KEYCODE_HEADSETHOOK,1?channel=2&source=rsm"
+    })
+    public String mValue;
+
+    @Benchmark
+    public IntentDescriptor parse() {
+        return IntentDescriptor.parse(0, mValue);
+    }
+}
@@ -0,0 +1,87 @@
+package com.openmobl.pttDriver.benchmarks;
+
+import com.openmobl.pttDriver.bt.SerialFramer;
+import com.openmobl.pttDriver.model.IntentDescriptor;
+import com.openmobl.pttDriver.model.PttDriver;
+import com.openmobl.pttDriver.service.MetricsRegistry;
+import com.openmobl.pttDriver.service.PttEventPipeline;
+import com.openmobl.pttDriver.service.VirtualScheduler;
+import com.openmobl.pttDriver.utils.LatencyTracer;
+import com.openmobl.pttDriver.utils.TextUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What onSerialRead does for a packet: strip the EOL and split frames, then look up the key in the
+ * intent map of the driver. Nothing is dispatched.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerialReadBenchmark implements SerialFramer.FrameListener {
+    /*
+     * driver:packet in hex[:characteristic]. An ASCII driver with an EOL and a wildcard key, a hex
+     * stream and a hex characteristic map.
+     */
+    @Param({
+            "b01-spp:2B5054543D5000",
+            "b01-spp:433A534F53313200",
+            "pryme-blu-ptt-z:01",
+            "iasus-ptt-driver:01:678fea09-1023-0001-4429-00ab85ba4983"
+    })
+    public String mPacket;
+
+    private PttEventPipeline mPipeline;
+    private SerialFramer mFramer;
+    private byte[] mData;
+    private UUID mCharacteristic;
+    private IntentDescriptor mMatched;
+
+    @Setup
+    public void setup() throws IOException {
+        String[] fields = mPacket.split(":", 3);
+        PttDriver driver = Drivers.load(fields[0]);
+
+        mData = TextUtil.fromHexString(fields[1]);
+        mCharacteristic = fields.length > 2 ? UUID.fromString(fields[2]) : null;
+        mPipeline = new PttEventPipeline(driver, new VirtualScheduler(0), intent -> { },
+                new LatencyTracer(), new MetricsRegistry());
+        mFramer = PttEventPipeline.usesSerialIntentMap(driver) ? SerialFramer.create(driver.getReadObj()) : null;
+
+        if (frameAndMatch() == null)
+            throw new IllegalStateException(mPacket + " is not a key of " + fields[0]);
+    }
+
+    @Benchmark
+    public IntentDescriptor frameAndMatch() {
+        mMatched = null;
+        if (mFramer != null) {
+            mFramer.process(mData, 0, mData.length, this);
+        } else {
+            mMatched = mPipeline.match(mData, 0, mData.length, mCharacteristic);
+        }
+        return mMatched;
+    }
+
+    @Override
+    public void onFrame(byte[] frame, int offset, int length) {
+        mMatched = mPipeline.match(frame, offset, length, mCharacteristic);
+    }
+}
@@ -0,0 +1,59 @@
+package com.openmobl.pttDriver.bt;
+
+import com.openmobl.pttDriver.service.TrafficCapture;
+
+import java.util.UUID;
+
+/**
+ * Sits between a socket and its listener and records the raw data read before passing it on.
+ */
+public class CapturingSerialListener implements SerialListener {
+    private final SerialListener mListener;
+    private final TrafficCapture mCapture;
+
+    public CapturingSerialListener(SerialListener listener, TrafficCapture capture) {
+        mListener = listener;
+        mCapture = capture;
+    }
+
+    @Override
+    public void onSerialConnect() {
+        mListener.onSerialConnect();
+    }
+
+    @Override
+    public void onSerialConnect(UUID service, UUID characteristic) {
+        mListener.onSerialConnect(service, characteristic);
+    }
+
+    @Override
+    public void onSerialConnectError(Exception e) {
+        mListener.onSerialConnectError(e);
+    }
+
+    @Override
+    public void onSerialDisconnect() {
+        mListener.onSerialDisconnect();
+    }
+
+    @Override
+    public void onSerialRead(byte[] data, UUID service, UUID characteristic) {
+        onSerialRead(data, 0, data.length, service, characteristic);
+    }
+
+    @Override
+    public void onSerialRead(byte[] buffer, int offset, int length, UUID service, UUID characteristic) {
+        mCapture.record(TrafficCapture.Direction.READ, buffer, offset, length, service, characteristic);
+        mListener.onSerialRead(buffer, offset, length, service, characteristic);
+    }
+
+    @Override
+    public void onSerialIoError(Exception e) {
+        mListener.onSerialIoError(e);
+    }
+
+    @Override
+    public void onBatteryEvent(byte level) {
+        mListener.onBatteryEvent(level);
+    }
+}
@@ -0,0 +1,83 @@
+package com.openmobl.pttDriver.bt;
+
+import com.openmobl.pttDriver.utils.LatencyTracer;
+
+import java.util.UUID;
+
+/**
+ * Sits between a socket and its listener and delivers the data read as complete frames.
+ */
+public class FramingSerialListener implements SerialListener {
+    private final SerialListener mListener;
+    private final SerialFramer mFramer;
+    private final LatencyTracer mTracer;
+
+    private UUID mService;
+    private UUID mCharacteristic;
+
+    private final SerialFramer.FrameListener mFrameListener = new SerialFramer.FrameListener() {
+        @Override
+        public void onFrame(byte[] frame, int offset, int length) {
+            mListener.onSerialRead(frame, offset, length, mService, mCharacteristic);
+        }
+    };
+
+    public FramingSerialListener(SerialListener listener, SerialFramer framer) {
+        this(listener, framer, null);
+    }
+    public FramingSerialListener(SerialListener listener, SerialFramer framer, LatencyTracer tracer) {
+        mListener = listener;
+        mFramer = framer;
+        mTracer = tracer;
+    }
+
+    @Override
+    public void onSerialConnect() {
+        mFramer.reset();
+        mListener.onSerialConnect();
+    }
+
+    @Override
+    public void onSerialConnect(UUID service, UUID characteristic) {
+        mFramer.reset();
+        mListener.onSerialConnect(service, characteristic);
+    }
+
+    @Override
+    public void onSerialConnectError(Exception e) {
+        mListener.onSerialConnectError(e);
+    }
+
+    @Override
+    public void onSerialDisconnect() {
+        mFramer.reset();
+        mListener.onSerialDisconnect();
+    }
+
+    @Override
+    public void onSerialRead(byte[] data, UUID service, UUID characteristic) {
+        onSerialRead(data, 0, data.length, service, characteristic);
+    }
+
+    @Override
+    public void onSerialRead(byte[] buffer, int offset, int length, UUID service, UUID characteristic) {
+        mService = service;
+        mCharacteristic = characteristic;
+
+        if (mTracer != null)
+            mTracer.markSocketRead();
+
+        mFramer.process(buffer, offset, length, mFrameListener);
+    }
+
+    @Override
+    public void onSerialIoError(Exception e) {
+        mFramer.reset();
+        mListener.onSerialIoError(e);
+    }
+
+    @Override
+    public void onBatteryEvent(byte level) {
+        mListener.onBatteryEvent(level);
+    }
+}
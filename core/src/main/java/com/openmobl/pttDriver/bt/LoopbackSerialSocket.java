@@ -0,0 +1,306 @@
+package com.openmobl.pttDriver.bt;
+
+import com.openmobl.pttDriver.platform.Log;
+import com.openmobl.pttDriver.platform.Platform;
+import com.openmobl.pttDriver.service.MetricsRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In process socket whose device is driven by code, for tests and load without a radio.
+ *
+ * Data pushed with {@link #inject} is read on the thread of the socket in order, each chunk no
+ * sooner than its delay after the previous one, and handed to the listener as SppSerialSocket does,
+ * in a buffer reused once the listener returns. Writes go to the {@link Peer}, or without one are kept
+ * until taken. Battery levels, connect errors and read errors are injected the same way, so the
+ * listener sees the same sequence of calls as with a device.
+ */
+public class LoopbackSerialSocket implements Runnable, SerialSocket {
+    private static final String TAG = LoopbackSerialSocket.class.getName();
+
+    private static final int BUFFER_SIZE = 1024;
+    private static final int NO_BATTERY_LEVEL = -1;
+
+    // The device side, for replies to writes such as AT responses
+    public interface Peer {
+        void onWrite(LoopbackSerialSocket socket, byte[] data);
+    }
+
+    private static class Chunk {
+        final byte[] mData;
+        final UUID mService;
+        final UUID mCharacteristic;
+        final IOException mError;
+        final int mBatteryLevel;
+        final long mDueNanos;
+
+        Chunk(byte[] data, UUID service, UUID characteristic, IOException error, int batteryLevel, long dueNanos) {
+            mData = data;
+            mService = service;
+            mCharacteristic = characteristic;
+            mError = error;
+            mBatteryLevel = batteryLevel;
+            mDueNanos = dueNanos;
+        }
+    }
+
+    private final String mName;
+    private final String mAddress;
+    private final ArrayDeque<Chunk> mChunks = new ArrayDeque<>();
+    private final ByteArrayOutputStream mWritten = new ByteArrayOutputStream();
+    private volatile SerialListener mListener;
+    private volatile boolean mConnected;
+    private volatile MetricsRegistry mMetrics;
+    private Thread mThread;
+    private Peer mPeer;
+    private Exception mConnectError;
+    private long mLastDueNanos;
+
+    public LoopbackSerialSocket(String name, String address) {
+        mName = name;
+        mAddress = address;
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    @Override
+    public String getAddress() {
+        return mAddress;
+    }
+
+    @Override
+    public void setMetrics(MetricsRegistry metrics) {
+        mMetrics = metrics;
+    }
+
+    public synchronized void setPeer(Peer peer) {
+        mPeer = peer;
+    }
+
+    // The next connect reports this error to the listener instead of connecting
+    public synchronized void failNextConnect(Exception e) {
+        mConnectError = e;
+    }
+
+    public boolean isConnected() {
+        return mConnected;
+    }
+
+    /**
+     * connect-success and connect-errors are returned asynchronously to listener
+     */
+    @Override
+    public synchronized void connect(SerialListener listener) throws IOException {
+        if (mThread != null)
+            throw new IOException("already connected");
+
+        mListener = listener;
+        mThread = new Thread(this, TAG + " " + mName);
+        mThread.start();
+    }
+
+    @Override
+    public void disconnect() {
+        disconnect(false);
+    }
+
+    @Override
+    public void disconnect(boolean silent) {
+        Thread thread;
+
+        synchronized (this) {
+            mConnected = false;
+            mChunks.clear();
+            thread = mThread;
+            mThread = null;
+            notifyAll();
+        }
+
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (!silent && mListener != null)
+            mListener.onSerialDisconnect();
+    }
+
+    @Override
+    public void write(byte[] data) throws IOException {
+        Peer peer;
+
+        synchronized (this) {
+            if (!mConnected)
+                throw new IOException("not connected");
+            peer = mPeer;
+            if (peer == null)
+                mWritten.write(data, 0, data.length);
+        }
+
+        if (peer != null)
+            peer.onWrite(this, data);
+    }
+
+    // Everything written without a peer since the last call
+    public synchronized byte[] takeWritten() {
+        byte[] written = mWritten.toByteArray();
+
+        mWritten.reset();
+
+        return written;
+    }
+
+    public void inject(byte[] data) {
+        inject(data, null, null, 0);
+    }
+
+    /**
+     * Queues data to be read, delayMillis after the previous chunk is due.
+     */
+    public void inject(byte[] data, UUID service, UUID characteristic, long delayMillis) {
+        queue(data.clone(), service, characteristic, null, NO_BATTERY_LEVEL, delayMillis);
+    }
+
+    /**
+     * Queues data as several reads of at most fragmentSize bytes, as a device whose frames straddle
+     * packets, each delayMillis after the previous one.
+     */
+    public void injectFragmented(byte[] data, int fragmentSize, long delayMillis) {
+        if (fragmentSize <= 0)
+            throw new IllegalArgumentException("fragmentSize must be positive");
+
+        for (int offset = 0; offset < data.length; offset += fragmentSize) {
+            int end = Math.min(offset + fragmentSize, data.length);
+            byte[] fragment = new byte[end - offset];
+
+            System.arraycopy(data, offset, fragment, 0, fragment.length);
+            queue(fragment, null, null, null, NO_BATTERY_LEVEL, delayMillis);
+        }
+    }
+
+    // The read loop ends with this error once the chunks before it are read, as when the link drops
+    public void injectError(IOException e, long delayMillis) {
+        queue(null, null, null, e, NO_BATTERY_LEVEL, delayMillis);
+    }
+
+    public void injectBatteryLevel(byte level, long delayMillis) {
+        queue(null, null, null, null, level & 0xFF, delayMillis);
+    }
+
+    public synchronized int getPendingCount() {
+        return mChunks.size();
+    }
+
+    private synchronized void queue(byte[] data, UUID service, UUID characteristic, IOException error,
+                                    int batteryLevel, long delayMillis) {
+        long now = Platform.nanoTime();
+        long due = Math.max(mLastDueNanos, now) + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+
+        mChunks.add(new Chunk(data, service, characteristic, error, batteryLevel, due));
+        mLastDueNanos = due;
+        notifyAll();
+    }
+
+    // Blocks until the next chunk is due, null once disconnected
+    private synchronized Chunk take() throws InterruptedException {
+        while (mConnected) {
+            Chunk chunk = mChunks.peek();
+
+            if (chunk == null) {
+                wait();
+                continue;
+            }
+
+            long wait = chunk.mDueNanos - Platform.nanoTime();
+
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, wait);
+                continue;
+            }
+            return mChunks.poll();
+        }
+        return null;
+    }
+
+    @Override
+    public void run() { // connect & read
+        Exception connectError;
+
+        synchronized (this) {
+            // Disconnected before the thread started
+            if (mThread != Thread.currentThread())
+                return;
+
+            connectError = mConnectError;
+            mConnectError = null;
+            if (connectError == null)
+                mConnected = true;
+        }
+
+        if (connectError != null) {
+            synchronized (this) {
+                mThread = null;
+            }
+            if (mListener != null)
+                mListener.onSerialConnectError(connectError);
+            return;
+        }
+
+        if (mListener != null)
+            mListener.onSerialConnect();
+
+        Exception sendIoErrorException = null;
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        try {
+            Chunk chunk;
+
+            while ((chunk = take()) != null) {
+                if (chunk.mError != null)
+                    throw chunk.mError;
+
+                if (chunk.mBatteryLevel != NO_BATTERY_LEVEL) {
+                    if (mListener != null)
+                        mListener.onBatteryEvent((byte) chunk.mBatteryLevel);
+                    continue;
+                }
+
+                for (int offset = 0; offset < chunk.mData.length; offset += buffer.length) {
+                    int length = Math.min(buffer.length, chunk.mData.length - offset);
+
+                    System.arraycopy(chunk.mData, offset, buffer, 0, length);
+
+                    if (mMetrics != null)
+                        mMetrics.increment(MetricsRegistry.Counter.PACKETS_READ);
+
+                    if (mListener != null)
+                        mListener.onSerialRead(buffer, 0, length, chunk.mService, chunk.mCharacteristic);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Log.d(TAG, "Exception in loopback run loop: " + e);
+
+            sendIoErrorException = e;
+        }
+
+        synchronized (this) {
+            mConnected = false;
+            if (mThread == Thread.currentThread())
+                mThread = null;
+        }
+        if (sendIoErrorException != null && mListener != null)
+            mListener.onSerialIoError(sendIoErrorException);
+    }
+}
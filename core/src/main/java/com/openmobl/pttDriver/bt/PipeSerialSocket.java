@@ -0,0 +1,174 @@
+package com.openmobl.pttDriver.bt;
+
+import com.openmobl.pttDriver.platform.Log;
+import com.openmobl.pttDriver.service.MetricsRegistry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Socket over a pipe or pseudo terminal, such as a FIFO made with mkfifo or one end of
+ * <code>socat -d -d pty,raw,echo=0 pty,raw,echo=0</code>, so a script on a Linux host or a rooted
+ * device can play the device with its own timing.
+ *
+ * Reads come from the input path, writes go to the output path, which may be the same pseudo terminal.
+ * Without an output path writes are dropped. Opening a FIFO blocks until the other end is opened,
+ * which happens on the thread of the socket, as a Bluetooth connect does.
+ */
+public class PipeSerialSocket implements Runnable, SerialSocket {
+    private static final String TAG = PipeSerialSocket.class.getName();
+
+    private final String mName;
+    private final File mInput;
+    private final File mOutput;
+    private SerialListener mListener;
+    // Channels, as closing one wakes up the thread blocked reading it
+    private FileChannel mInputChannel;
+    private FileChannel mOutputChannel;
+    private volatile boolean mConnected;
+    private MetricsRegistry mMetrics;
+
+    public PipeSerialSocket(String name, File input, File output) {
+        mName = name;
+        mInput = input;
+        mOutput = output;
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    @Override
+    public String getAddress() {
+        return mInput.getPath();
+    }
+
+    @Override
+    public void setMetrics(MetricsRegistry metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * connect-success and connect-errors are returned asynchronously to listener
+     */
+    @Override
+    public void connect(SerialListener listener) throws IOException {
+        if (mConnected)
+            throw new IOException("already connected");
+
+        mListener = listener;
+
+        new Thread(this, TAG + " " + mName).start();
+    }
+
+    @Override
+    public void disconnect() {
+        disconnect(false);
+    }
+
+    @Override
+    public void disconnect(boolean silent) {
+        mConnected = false;
+        close();
+
+        if (!silent && mListener != null)
+            mListener.onSerialDisconnect();
+    }
+
+    @Override
+    public void write(byte[] data) throws IOException {
+        if (!mConnected)
+            throw new IOException("not connected");
+
+        FileChannel output = mOutputChannel;
+
+        if (output != null) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+
+            while (buffer.hasRemaining()) {
+                output.write(buffer);
+            }
+        }
+    }
+
+    private synchronized void close() {
+        try {
+            if (mInputChannel != null)
+                mInputChannel.close();
+        } catch (Exception ignored) {
+        }
+        mInputChannel = null;
+        try {
+            if (mOutputChannel != null)
+                mOutputChannel.close();
+        } catch (Exception ignored) {
+        }
+        mOutputChannel = null;
+    }
+
+    @Override
+    public void run() { // connect & read
+        Exception sendIoErrorException = null;
+        FileChannel input;
+
+        try {
+            // Opened outside the lock, a FIFO blocks until its writer is there
+            input = new RandomAccessFile(mInput, "r").getChannel();
+            synchronized (this) {
+                mInputChannel = input;
+            }
+            if (mOutput != null) {
+                FileChannel output = new RandomAccessFile(mOutput, "rw").getChannel();
+
+                synchronized (this) {
+                    mOutputChannel = output;
+                }
+            }
+            mConnected = true;
+
+            if (mListener != null)
+                mListener.onSerialConnect();
+        } catch (Exception e) {
+            close();
+
+            if (mListener != null)
+                mListener.onSerialConnectError(e);
+            return;
+        }
+
+        try {
+            byte[] buffer = new byte[1024];
+            ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+            int len;
+
+            while (mConnected) {
+                wrapped.clear();
+                len = input.read(wrapped);
+
+                if (len < 0)
+                    throw new IOException("end of stream");
+
+                if (mMetrics != null)
+                    mMetrics.increment(MetricsRegistry.Counter.PACKETS_READ);
+
+                if (mListener != null)
+                    mListener.onSerialRead(buffer, 0, len, null, null);
+            }
+        } catch (Exception e) {
+            // Closing the channel to disconnect ends the read with an exception too
+            if (mConnected) {
+                Log.d(TAG, "Exception in pipe run loop: " + e);
+                sendIoErrorException = e;
+            }
+        }
+
+        mConnected = false;
+        if (sendIoErrorException != null && mListener != null)
+            mListener.onSerialIoError(sendIoErrorException);
+        close();
+    }
+}
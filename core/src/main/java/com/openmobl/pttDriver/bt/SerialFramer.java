@@ -0,0 +1,180 @@
+package com.openmobl.pttDriver.bt;
+
+import com.openmobl.pttDriver.model.PttDriver;
+import com.openmobl.pttDriver.platform.Log;
+import com.openmobl.pttDriver.utils.ByteRingBuffer;
+import com.openmobl.pttDriver.utils.TextUtil;
+
+/**
+ * Splits a byte stream back into the messages the device sent. A single read from a socket can
+ * hold several messages or only part of one, so reads are collected in a ring buffer and every
+ * complete frame is emitted on its own.
+ */
+public abstract class SerialFramer {
+    private static final String TAG = SerialFramer.class.getName();
+
+    private static final int BUFFER_SIZE = 2048; // Power of two
+
+    // Largest frame emitted, a frame has to fit in the buffer
+    public static final int MAX_FRAME_SIZE = BUFFER_SIZE;
+
+    public interface FrameListener {
+        void onFrame(byte[] frame, int offset, int length);
+    }
+
+    protected final ByteRingBuffer mBuffer;
+    private final byte[] mFrame;
+
+    protected SerialFramer() {
+        mBuffer = new ByteRingBuffer(BUFFER_SIZE);
+        mFrame = new byte[mBuffer.capacity()];
+    }
+
+    public static SerialFramer create(PttDriver.PttReadObj readObj) {
+        switch (readObj.getFraming()) {
+            case EOL:
+                byte[] eol = TextUtil.fromHexString(readObj.getEOL());
+
+                return eol.length > 0 ? new EolFramer(eol) : null;
+            case FIXED:
+                return new FixedLengthFramer(readObj.getFrameLength());
+            case LENGTH:
+                return new LengthPrefixedFramer(readObj.getLengthFieldOffset(), readObj.getLengthFieldSize());
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Adds received data and emits every frame it completes. The frame array is only valid for
+     * the duration of the callback.
+     */
+    public void process(byte[] data, int offset, int length, FrameListener listener) {
+        while (length > 0) {
+            int written = mBuffer.write(data, offset, length);
+
+            offset += written;
+            length -= written;
+
+            int frameLength;
+
+            while ((frameLength = nextFrameLength()) >= 0) {
+                if (frameLength > 0) {
+                    mBuffer.copyTo(0, mFrame, 0, frameLength);
+                    listener.onFrame(mFrame, 0, frameLength);
+                }
+                mBuffer.skip(frameLength + trailerLength());
+                onFrameConsumed();
+            }
+
+            if (mBuffer.isFull()) {
+                // No frame fits in the buffer, drop what we have and resynchronize on the next frame
+                Log.d(TAG, "Dropping " + mBuffer.size() + " bytes without a complete frame");
+                reset();
+            }
+        }
+    }
+
+    public void reset() {
+        mBuffer.clear();
+        onFrameConsumed();
+    }
+
+    /**
+     * @return the length of the frame at the start of the buffer, or -1 if it is not complete yet
+     */
+    protected abstract int nextFrameLength();
+
+    /**
+     * Number of bytes following a frame that are consumed but not part of it.
+     */
+    protected int trailerLength() {
+        return 0;
+    }
+
+    protected void onFrameConsumed() {
+    }
+
+    public static class EolFramer extends SerialFramer {
+        private final byte[] mEol;
+        private int mSearchFrom;
+
+        public EolFramer(byte[] eol) {
+            mEol = eol;
+        }
+
+        @Override
+        protected int nextFrameLength() {
+            int index = mBuffer.indexOf(mEol, mSearchFrom);
+
+            if (index < 0) {
+                // Don't scan the same bytes again, but keep a partial EOL at the end
+                mSearchFrom = Math.max(0, mBuffer.size() - mEol.length + 1);
+            }
+
+            return index;
+        }
+
+        @Override
+        protected int trailerLength() {
+            return mEol.length;
+        }
+
+        @Override
+        protected void onFrameConsumed() {
+            mSearchFrom = 0;
+        }
+    }
+
+    public static class FixedLengthFramer extends SerialFramer {
+        private final int mFrameLength;
+
+        public FixedLengthFramer(int frameLength) {
+            mFrameLength = frameLength;
+        }
+
+        @Override
+        protected int nextFrameLength() {
+            return mBuffer.size() >= mFrameLength ? mFrameLength : -1;
+        }
+    }
+
+    /**
+     * Frames that carry the length of their payload in an unsigned, big endian field. The emitted
+     * frame includes any bytes before the length field and the length field itself.
+     */
+    public static class LengthPrefixedFramer extends SerialFramer {
+        private final int mFieldOffset;
+        private final int mFieldSize;
+
+        public LengthPrefixedFramer(int fieldOffset, int fieldSize) {
+            mFieldOffset = fieldOffset;
+            mFieldSize = fieldSize;
+        }
+
+        @Override
+        protected int nextFrameLength() {
+            int headerLength = mFieldOffset + mFieldSize;
+
+            if (mBuffer.size() < headerLength)
+                return -1;
+
+            long payloadLength = 0;
+
+            for (int i = mFieldOffset; i < headerLength; i++) {
+                payloadLength = (payloadLength << 8) | (mBuffer.get(i) & 0xFF);
+            }
+
+            long frameLength = headerLength + payloadLength;
+
+            if (frameLength > mBuffer.capacity()) {
+                // Can never be buffered, treat the header as garbage
+                Log.d(TAG, "Frame length " + frameLength + " exceeds the buffer, skipping header");
+                mBuffer.skip(headerLength);
+                return nextFrameLength();
+            }
+
+            return mBuffer.size() >= frameLength ? (int)frameLength : -1;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.openmobl.pttDriver.bt;
 
+import java.util.Arrays;
 import java.util.UUID;
 
 public interface SerialListener {
@@ -8,6 +9,10 @@ public interface SerialListener {
     void onSerialConnectError(Exception e);
     void onSerialDisconnect();
     void onSerialRead(byte[] data, UUID service, UUID characteristic);
+    // The buffer is reused by the socket once this returns, listeners that keep the data must copy it
+    default void onSerialRead(byte[] buffer, int offset, int length, UUID service, UUID characteristic) {
+        onSerialRead(Arrays.copyOfRange(buffer, offset, offset + length), service, characteristic);
+    }
     void onSerialIoError(Exception e);
     void onBatteryEvent(byte level);
 }
@@ -1,6 +1,8 @@
 package com.openmobl.pttDriver.bt;
 
 
+import com.openmobl.pttDriver.service.MetricsRegistry;
+
 import java.io.IOException;
 
 public interface SerialSocket {
@@ -10,4 +12,5 @@ public interface SerialSocket {
     void disconnect(boolean silent);
     void connect(SerialListener listener)  throws IOException;
     void write(byte[] data) throws IOException;
+    void setMetrics(MetricsRegistry metrics);
 }
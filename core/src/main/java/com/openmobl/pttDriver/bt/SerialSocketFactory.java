@@ -0,0 +1,10 @@
+package com.openmobl.pttDriver.bt;
+
+import com.openmobl.pttDriver.model.PttDriver;
+
+/**
+ * Makes the socket a service connects with, to put a loopback or pipe socket in place of the radio.
+ */
+public interface SerialSocketFactory {
+    SerialSocket create(PttDriver driver);
+}
@@ -15,9 +15,7 @@
  */
 package com.openmobl.pttDriver.bt.hfp;
 
-import android.util.Log;
-
-import com.openmobl.pttDriver.bt.HfpSerialSocket;
+import com.openmobl.pttDriver.platform.Log;
 
 import java.util.*;
 
@@ -0,0 +1,159 @@
+package com.openmobl.pttDriver.db;
+
+/**
+ * Tables, indexes and statements of the driver database, run by the app on the SQLite of Android and
+ * by the benchmarks on SQLite through JDBC.
+ *
+ * The insert and update statements bind the columns in the order of their <code>*_COLUMNS</code>,
+ * an update binds the id last.
+ */
+public final class DriverSchema {
+    public static final String TABLE_DEVICES = "devices";
+    public static final String DEVICE_ID = "_id";
+    public static final String DEVICE_TYPE = "type";
+    public static final String DEVICE_NAME = "name";
+    public static final String DEVICE_MAC = "mac";
+    public static final String DEVICE_DRIVER_ID = "driver";
+    public static final String DEVICE_AUTOCONNECT = "auto_connect";
+    public static final String DEVICE_AUTORECONNECT = "auto_reconnect";
+    public static final String DEVICE_PTTDOWN_DELAY = "ptt_down_delay";
+    public static final String TABLE_DEVICES_CREATE_SQL = "CREATE TABLE IF NOT EXISTS `" + TABLE_DEVICES + "` ("
+            + "`" + DEVICE_ID + "` INTEGER PRIMARY KEY AUTOINCREMENT,"
+            + "`" + DEVICE_TYPE + "` TEXT NOT NULL,"
+            + "`" + DEVICE_NAME + "` TEXT NOT NULL,"
+            + "`" + DEVICE_MAC + "` TEXT NOT NULL UNIQUE,"
+            + "`" + DEVICE_DRIVER_ID + "` INTEGER,"
+            + "`" + DEVICE_AUTOCONNECT + "` INTEGER NOT NULL,"
+            + "`" + DEVICE_AUTORECONNECT + "` INTEGER NOT NULL,"
+            + "`" + DEVICE_PTTDOWN_DELAY + "` INTEGER NOT NULL"
+            + ");";
+
+    public static final String TABLE_DRIVERS = "drivers";
+    public static final String DRIVER_ID = "_id";
+    public static final String DRIVER_NAME = "name";
+    public static final String DRIVER_TYPE = "type";
+    public static final String DRIVER_DEV_NAME_MATCH = "device_name";
+    public static final String DRIVER_WATCH_FOR_DEV = "device_watchfor_name";
+    public static final String DRIVER_JSON = "json";
+    public static final String DRIVER_COMPILED = "compiled";
+    public static final String DRIVER_COMPILED_HASH = "compiled_hash";
+    public static final String TABLE_DRIVERS_CREATE_SQL = "CREATE TABLE IF NOT EXISTS `" + TABLE_DRIVERS + "` ("
+            + "`" + DRIVER_ID + "` INTEGER PRIMARY KEY AUTOINCREMENT,"
+            + "`" + DRIVER_NAME + "` TEXT NOT NULL UNIQUE,"
+            + "`" + DRIVER_DEV_NAME_MATCH + "` TEXT,"
+            + "`" + DRIVER_WATCH_FOR_DEV + "` TEXT,"
+            + "`" + DRIVER_TYPE + "` TEXT NOT NULL,"
+            + "`" + DRIVER_JSON + "` TEXT NOT NULL,"
+            + "`" + DRIVER_COMPILED + "` BLOB,"
+            + "`" + DRIVER_COMPILED_HASH + "` TEXT"
+            + ");";
+
+    // devices.mac and drivers.name are already indexed by their UNIQUE constraint
+    public static final String[] INDEXES_CREATE_SQL = new String[] {
+            "CREATE INDEX IF NOT EXISTS `" + TABLE_DEVICES + "_" + DEVICE_DRIVER_ID + "` ON `"
+                    + TABLE_DEVICES + "` (`" + DEVICE_DRIVER_ID + "`);",
+            "CREATE INDEX IF NOT EXISTS `" + TABLE_DRIVERS + "_" + DRIVER_DEV_NAME_MATCH + "` ON `"
+                    + TABLE_DRIVERS + "` (`" + DRIVER_DEV_NAME_MATCH + "`);"
+    };
+
+    public static final String[] DEVICE_COLUMNS = new String[] {
+            DEVICE_TYPE, DEVICE_NAME, DEVICE_MAC, DEVICE_DRIVER_ID,
+            DEVICE_AUTOCONNECT, DEVICE_AUTORECONNECT, DEVICE_PTTDOWN_DELAY
+    };
+    public static final String[] DRIVER_COLUMNS = new String[] {
+            DRIVER_NAME, DRIVER_TYPE, DRIVER_JSON, DRIVER_DEV_NAME_MATCH, DRIVER_WATCH_FOR_DEV,
+            DRIVER_COMPILED, DRIVER_COMPILED_HASH
+    };
+
+    public static final String DEVICES_SELECT_SQL = select(TABLE_DEVICES, DEVICE_ID, DEVICE_COLUMNS);
+    public static final String DEVICE_SELECT_BY_ID_SQL = DEVICES_SELECT_SQL + where(DEVICE_ID);
+    public static final String DEVICE_SELECT_BY_MAC_SQL = DEVICES_SELECT_SQL + where(DEVICE_MAC);
+    public static final String DEVICE_INSERT_SQL = insert(TABLE_DEVICES, DEVICE_COLUMNS);
+    public static final String DEVICE_UPDATE_SQL = update(TABLE_DEVICES, DEVICE_COLUMNS) + where(DEVICE_ID);
+    public static final String DEVICE_DELETE_SQL = "DELETE FROM `" + TABLE_DEVICES + "`" + where(DEVICE_ID);
+    // -1 when there is no such device
+    public static final String DEVICE_ID_BY_ID_SQL = idBy(TABLE_DEVICES, DEVICE_ID, DEVICE_ID);
+    public static final String DEVICE_ID_BY_MAC_SQL = idBy(TABLE_DEVICES, DEVICE_ID, DEVICE_MAC);
+
+    public static final String DRIVERS_SELECT_SQL = select(TABLE_DRIVERS, DRIVER_ID, DRIVER_COLUMNS);
+    public static final String DRIVER_SELECT_BY_ID_SQL = DRIVERS_SELECT_SQL + where(DRIVER_ID);
+    public static final String DRIVER_SELECT_BY_NAME_SQL = DRIVERS_SELECT_SQL + where(DRIVER_NAME);
+    public static final String DRIVER_PATTERNS_SELECT_SQL = select(TABLE_DRIVERS, DRIVER_ID,
+            new String[]{ DRIVER_DEV_NAME_MATCH, DRIVER_WATCH_FOR_DEV });
+    public static final String DRIVER_INSERT_SQL = insert(TABLE_DRIVERS, DRIVER_COLUMNS);
+    public static final String DRIVER_UPDATE_SQL = update(TABLE_DRIVERS, DRIVER_COLUMNS) + where(DRIVER_ID);
+    public static final String DRIVER_DELETE_SQL = "DELETE FROM `" + TABLE_DRIVERS + "`" + where(DRIVER_ID);
+    public static final String DRIVER_ID_BY_ID_SQL = idBy(TABLE_DRIVERS, DRIVER_ID, DRIVER_ID);
+    public static final String DRIVER_ID_BY_NAME_SQL = idBy(TABLE_DRIVERS, DRIVER_ID, DRIVER_NAME);
+    // Devices of a removed driver are left without one
+    public static final String DRIVER_CLEAR_REFERENCES_SQL = "UPDATE `" + TABLE_DEVICES + "` SET `"
+            + DEVICE_DRIVER_ID + "`=-1" + where(DEVICE_DRIVER_ID);
+
+    // Devices with the columns of their driver, prefixed with JOINED_DRIVER_PREFIX, null without one
+    public static final String JOINED_DRIVER_PREFIX = "driver_";
+    public static final String DEVICES_WITH_DRIVERS_SELECT_SQL = selectDevicesWithDrivers();
+
+    private DriverSchema() { }
+
+    private static String select(String table, String id, String[] columns) {
+        StringBuilder sql = new StringBuilder("SELECT `").append(id).append("`");
+
+        for (String column : columns) {
+            sql.append(",`").append(column).append("`");
+        }
+
+        return sql.append(" FROM `").append(table).append("`").toString();
+    }
+
+    private static String selectDevicesWithDrivers() {
+        StringBuilder sql = new StringBuilder("SELECT `").append(TABLE_DEVICES).append("`.`").append(DEVICE_ID).append("`");
+
+        for (String column : DEVICE_COLUMNS) {
+            sql.append(",`").append(TABLE_DEVICES).append("`.`").append(column).append("`");
+        }
+        sql.append(",`").append(TABLE_DRIVERS).append("`.`").append(DRIVER_ID)
+                .append("` AS `").append(JOINED_DRIVER_PREFIX).append(DRIVER_ID).append("`");
+        for (String column : DRIVER_COLUMNS) {
+            sql.append(",`").append(TABLE_DRIVERS).append("`.`").append(column)
+                    .append("` AS `").append(JOINED_DRIVER_PREFIX).append(column).append("`");
+        }
+
+        return sql.append(" FROM `").append(TABLE_DEVICES).append("` LEFT JOIN `").append(TABLE_DRIVERS)
+                .append("` ON `").append(TABLE_DRIVERS).append("`.`").append(DRIVER_ID)
+                .append("`=`").append(TABLE_DEVICES).append("`.`").append(DEVICE_DRIVER_ID).append("`")
+                .toString();
+    }
+
+    private static String insert(String table, String[] columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO `").append(table).append("` (");
+        StringBuilder values = new StringBuilder(") VALUES (");
+
+        for (int i = 0; i < columns.length; i++) {
+            String separator = i > 0 ? "," : "";
+
+            sql.append(separator).append("`").append(columns[i]).append("`");
+            values.append(separator).append("?");
+        }
+
+        return sql.append(values).append(")").toString();
+    }
+
+    private static String update(String table, String[] columns) {
+        StringBuilder sql = new StringBuilder("UPDATE `").append(table).append("` SET ");
+
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? "," : "").append("`").append(columns[i]).append("`=?");
+        }
+
+        return sql.toString();
+    }
+
+    private static String where(String column) {
+        return " WHERE `" + column + "`=?";
+    }
+
+    // Always returns a row, so it can be run as a simple query
+    private static String idBy(String table, String id, String column) {
+        return "SELECT IFNULL(MAX(`" + id + "`),-1) FROM `" + table + "`" + where(column);
+    }
+}
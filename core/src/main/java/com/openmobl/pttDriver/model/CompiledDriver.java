@@ -0,0 +1,152 @@
+package com.openmobl.pttDriver.model;
+
+import com.openmobl.pttDriver.platform.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Versioned binary form of a validated {@link PttDriver}, stored next to the driver JSON.
+ *
+ * Besides the driver fields it holds the parsed intent descriptors, with their ids, and the intent
+ * matcher tables, so loading it is a sequential read with no JSON parsing, key code lookups or trie
+ * building. It is keyed by the {@link #hash(String)} of the JSON it was compiled from and is only used
+ * while that hash and {@link #FORMAT_VERSION} still match, otherwise the JSON is parsed again.
+ */
+public final class CompiledDriver {
+    private static final String TAG = CompiledDriver.class.getName();
+
+    private static final int MAGIC = 0x50545444; // "PTTD"
+    // Increment whenever the layout written by PttDriver.writeCompiled or the tables in it change
+    public static final int FORMAT_VERSION = 4;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private CompiledDriver() { }
+
+    // SHA-256 of the JSON, as lower case hex
+    public static String hash(String json) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(json.getBytes(StandardCharsets.UTF_8));
+            char[] hex = new char[digest.length * 2];
+
+            for (int i = 0; i < digest.length; i++) {
+                hex[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0x0F];
+                hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0x0F];
+            }
+
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the driver is not valid
+     */
+    public static byte[] compile(PttDriver driver) throws IOException {
+        if (!driver.isValid())
+            throw new IllegalArgumentException("Only a valid driver can be compiled");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        driver.writeCompiled(out);
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the driver, or null if the data is not a compiled driver of this format version
+     */
+    public static PttDriver load(byte[] compiled) {
+        if (compiled == null)
+            return null;
+
+        try {
+            DataInputStream in = new DataInputStream(new ArrayInputStream(compiled));
+
+            if (in.readInt() != MAGIC) {
+                Log.d(TAG, "Not a compiled driver");
+                return null;
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                Log.d(TAG, "Compiled driver format " + version + " is not " + FORMAT_VERSION);
+                return null;
+            }
+
+            PttDriver driver = new PttDriver();
+            driver.readCompiled(in);
+
+            if (in.available() != 0)
+                throw new IOException(in.available() + " trailing bytes");
+
+            return driver;
+        } catch (IOException | RuntimeException e) {
+            Log.d(TAG, "Failed to load compiled driver: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Loads the compiled driver when it was compiled from this JSON, otherwise parses the JSON.
+     *
+     * @param compiledHash the hash of the JSON the driver was compiled from
+     */
+    public static PttDriver load(String json, byte[] compiled, String compiledHash) throws IOException {
+        if (compiled != null && compiledHash != null && compiledHash.equals(hash(json))) {
+            PttDriver driver = load(compiled);
+
+            if (driver != null)
+                return driver;
+        } else if (compiled != null) {
+            Log.d(TAG, "Driver JSON changed since it was compiled");
+        }
+
+        return new PttDriver(json);
+    }
+
+    // DataInputStream reads a byte at a time, ByteArrayInputStream would synchronize every one of them
+    private static final class ArrayInputStream extends InputStream {
+        private final byte[] mBuffer;
+        private int mPosition;
+
+        ArrayInputStream(byte[] buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return mPosition < mBuffer.length ? mBuffer[mPosition++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (mPosition >= mBuffer.length)
+                return -1;
+
+            int count = Math.min(len, mBuffer.length - mPosition);
+            System.arraycopy(mBuffer, mPosition, b, off, count);
+            mPosition += count;
+
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.length - mPosition;
+        }
+    }
+}
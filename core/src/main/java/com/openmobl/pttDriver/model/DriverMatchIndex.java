@@ -0,0 +1,355 @@
+package com.openmobl.pttDriver.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the drivers whose <code>deviceName</code> or <code>watchForDeviceName</code> is contained in
+ * the name of a device, as a driver is picked for a device that has none.
+ *
+ * The patterns of all drivers are kept in an Aho-Corasick automaton, so a lookup is a single pass over
+ * the device name whatever the number of drivers. Adding or removing a driver only changes its own
+ * patterns in the trie, the failure links are recomputed on the next lookup.
+ *
+ * Matches are ranked: a device name pattern before a watch for pattern, then the longest pattern,
+ * then the most recently added driver (the highest id), which used to win every tie.
+ */
+public class DriverMatchIndex {
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    public enum PatternType {
+        DEVICE_NAME,
+        WATCH_FOR_DEVICE_NAME
+    }
+
+    public static class Match {
+        private final int mDriverId;
+        private final String mPattern;
+        private final PatternType mType;
+
+        Match(int driverId, String pattern, PatternType type) {
+            mDriverId = driverId;
+            mPattern = pattern;
+            mType = type;
+        }
+
+        public int getDriverId() { return mDriverId; }
+        public String getPattern() { return mPattern; }
+        public PatternType getType() { return mType; }
+
+        @Override
+        public String toString() {
+            return mDriverId + " " + mType + " \"" + mPattern + "\"";
+        }
+    }
+
+    // Best match first
+    private static final Comparator<Match> RANKING = (a, b) -> {
+        if (a.mType != b.mType)
+            return a.mType.compareTo(b.mType);
+        if (a.mPattern.length() != b.mPattern.length())
+            return b.mPattern.length() - a.mPattern.length();
+        return Integer.compare(b.mDriverId, a.mDriverId);
+    };
+
+    private static class Pattern {
+        final String mText;
+        final int mNode;
+        final List<Match> mOwners = new ArrayList<>();
+
+        Pattern(String text, int node) {
+            mText = text;
+            mNode = node;
+        }
+    }
+
+    private char[] mLabels;
+    private int[] mFirstChild;
+    private int[] mNextSibling;
+    private int[] mFail;
+    // Nearest node on the failure chain that ends a pattern
+    private int[] mOutputLink;
+    private Pattern[] mPatternAt;
+    private int mNodeCount;
+    private boolean mLinked;
+
+    private final Map<String, Pattern> mPatterns = new HashMap<>();
+    private final Map<Integer, List<Match>> mDriverMatches = new HashMap<>();
+    // Patterns left in the trie without an owner, compacted once they outnumber the live ones
+    private int mDeadPatterns;
+
+    public DriverMatchIndex() {
+        reset();
+    }
+
+    private void reset() {
+        mLabels = new char[INITIAL_CAPACITY];
+        mFirstChild = new int[INITIAL_CAPACITY];
+        mNextSibling = new int[INITIAL_CAPACITY];
+        mFail = new int[INITIAL_CAPACITY];
+        mOutputLink = new int[INITIAL_CAPACITY];
+        mPatternAt = new Pattern[INITIAL_CAPACITY];
+        mNodeCount = 0;
+        mLinked = false;
+        mDeadPatterns = 0;
+
+        newNode((char)0);
+    }
+
+    public synchronized void clear() {
+        mPatterns.clear();
+        mDriverMatches.clear();
+        reset();
+    }
+
+    /**
+     * Adds a driver or replaces its patterns. Null or empty patterns are not indexed.
+     */
+    public synchronized void put(int driverId, String deviceName, String watchForDeviceName) {
+        removeMatches(driverId);
+
+        List<Match> matches = new ArrayList<>(2);
+
+        addMatch(matches, driverId, deviceName, PatternType.DEVICE_NAME);
+        addMatch(matches, driverId, watchForDeviceName, PatternType.WATCH_FOR_DEVICE_NAME);
+
+        if (!matches.isEmpty())
+            mDriverMatches.put(driverId, matches);
+
+        compactIfNeeded();
+    }
+
+    public synchronized void remove(int driverId) {
+        removeMatches(driverId);
+        compactIfNeeded();
+    }
+
+    /**
+     * Makes a batch of puts and removes, such as a driver import, and links the trie once for all of
+     * them. Lookups from other threads wait for the batch instead of relinking between its changes.
+     */
+    public synchronized void update(Runnable changes) {
+        changes.run();
+        link();
+    }
+
+    public synchronized int size() {
+        return mDriverMatches.size();
+    }
+
+    /**
+     * @return the best match for the device name, or null when no driver matches
+     */
+    public synchronized Match findBest(String deviceName) {
+        Match best = null;
+
+        link();
+
+        int state = ROOT;
+        for (int i = 0; i < deviceName.length(); i++) {
+            state = step(state, deviceName.charAt(i));
+
+            for (int node = mPatternAt[state] != null ? state : mOutputLink[state]; node != NONE; node = mOutputLink[node]) {
+                for (Match match : mPatternAt[node].mOwners) {
+                    if (best == null || RANKING.compare(match, best) < 0)
+                        best = match;
+                }
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * @return every match for the device name, best first
+     */
+    public synchronized List<Match> find(String deviceName) {
+        List<Match> found = new ArrayList<>();
+        // A pattern found twice in the name is reported once
+        Set<Pattern> seen = new HashSet<>();
+
+        link();
+
+        int state = ROOT;
+        for (int i = 0; i < deviceName.length(); i++) {
+            state = step(state, deviceName.charAt(i));
+
+            for (int node = mPatternAt[state] != null ? state : mOutputLink[state]; node != NONE; node = mOutputLink[node]) {
+                if (seen.add(mPatternAt[node]))
+                    found.addAll(mPatternAt[node].mOwners);
+            }
+        }
+
+        Collections.sort(found, RANKING);
+
+        return found;
+    }
+
+    private void addMatch(List<Match> matches, int driverId, String text, PatternType type) {
+        if (text == null || text.isEmpty())
+            return;
+
+        Pattern pattern = mPatterns.get(text);
+
+        if (pattern == null) {
+            pattern = new Pattern(text, insert(text));
+            mPatterns.put(text, pattern);
+        } else if (pattern.mOwners.isEmpty()) {
+            mDeadPatterns--;
+            mPatternAt[pattern.mNode] = pattern;
+            mLinked = false;
+        }
+
+        Match match = new Match(driverId, text, type);
+
+        pattern.mOwners.add(match);
+        matches.add(match);
+    }
+
+    private void removeMatches(int driverId) {
+        List<Match> matches = mDriverMatches.remove(driverId);
+
+        if (matches == null)
+            return;
+
+        for (Match match : matches) {
+            Pattern pattern = mPatterns.get(match.mPattern);
+
+            pattern.mOwners.remove(match);
+            if (pattern.mOwners.isEmpty()) {
+                // The node stays in the trie until the next compaction
+                mPatternAt[pattern.mNode] = null;
+                mDeadPatterns++;
+                mLinked = false;
+            }
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (mDeadPatterns <= INITIAL_CAPACITY || mDeadPatterns <= mPatterns.size() - mDeadPatterns)
+            return;
+
+        List<Pattern> live = new ArrayList<>();
+        for (Pattern pattern : mPatterns.values()) {
+            if (!pattern.mOwners.isEmpty())
+                live.add(pattern);
+        }
+
+        mPatterns.clear();
+        reset();
+
+        for (Pattern pattern : live) {
+            Pattern moved = new Pattern(pattern.mText, insert(pattern.mText));
+
+            moved.mOwners.addAll(pattern.mOwners);
+            mPatternAt[moved.mNode] = moved;
+            mPatterns.put(moved.mText, moved);
+        }
+    }
+
+    private int insert(String text) {
+        int node = ROOT;
+
+        for (int i = 0; i < text.length(); i++) {
+            char label = text.charAt(i);
+            int child = findChild(node, label);
+
+            if (child == NONE) {
+                child = newNode(label);
+                mNextSibling[child] = mFirstChild[node];
+                mFirstChild[node] = child;
+            }
+            node = child;
+        }
+
+        mLinked = false;
+
+        return node;
+    }
+
+    private int newNode(char label) {
+        if (mNodeCount == mLabels.length) {
+            int capacity = mLabels.length * 2;
+
+            mLabels = Arrays.copyOf(mLabels, capacity);
+            mFirstChild = Arrays.copyOf(mFirstChild, capacity);
+            mNextSibling = Arrays.copyOf(mNextSibling, capacity);
+            mFail = Arrays.copyOf(mFail, capacity);
+            mOutputLink = Arrays.copyOf(mOutputLink, capacity);
+            mPatternAt = Arrays.copyOf(mPatternAt, capacity);
+        }
+
+        int node = mNodeCount++;
+
+        mLabels[node] = label;
+        mFirstChild[node] = NONE;
+        mNextSibling[node] = NONE;
+        mFail[node] = ROOT;
+        mOutputLink[node] = NONE;
+        mPatternAt[node] = null;
+
+        return node;
+    }
+
+    private int findChild(int node, char label) {
+        int child = mFirstChild[node];
+
+        while (child != NONE && mLabels[child] != label) {
+            child = mNextSibling[child];
+        }
+
+        return child;
+    }
+
+    private int step(int state, char label) {
+        int child = findChild(state, label);
+
+        while (child == NONE && state != ROOT) {
+            state = mFail[state];
+            child = findChild(state, label);
+        }
+
+        return child != NONE ? child : ROOT;
+    }
+
+    // Breadth first, so the failure target of a node is always linked before the node
+    private void link() {
+        if (mLinked)
+            return;
+
+        for (Pattern pattern : mPatterns.values()) {
+            mPatternAt[pattern.mNode] = pattern.mOwners.isEmpty() ? null : pattern;
+        }
+
+        int[] queue = new int[mNodeCount];
+        int head = 0;
+        int tail = 0;
+
+        mFail[ROOT] = ROOT;
+        mOutputLink[ROOT] = NONE;
+        queue[tail++] = ROOT;
+
+        while (head < tail) {
+            int node = queue[head++];
+
+            for (int child = mFirstChild[node]; child != NONE; child = mNextSibling[child]) {
+                int fail = node == ROOT ? ROOT : step(mFail[node], mLabels[child]);
+
+                mFail[child] = fail;
+                mOutputLink[child] = mPatternAt[fail] != null ? fail : mOutputLink[fail];
+                queue[tail++] = child;
+            }
+        }
+
+        mLinked = true;
+    }
+}
@@ -0,0 +1,81 @@
+package com.openmobl.pttDriver.model;
+
+import java.util.Arrays;
+
+/**
+ * Per intent de-duplication state, indexed by {@link IntentDescriptor#getId()}.
+ *
+ * An intent is dropped when it was already sent within its own window (intentDeDuplicateTimeouts,
+ * falling back to intentDeDuplicateTimeout), so other intents sent in between no longer reset it.
+ * An intent listed in intentsDeDuplicateNoTimeout is dropped for as long as it is the last intent
+ * sent, whatever the time elapsed.
+ *
+ * Times are nanoseconds of a monotonic clock, such as SystemClock.elapsedRealtimeNanos(). Not thread
+ * safe, it is owned by the thread dispatching the intents.
+ */
+public class IntentDeDuplicator {
+    private static final long NEVER = Long.MIN_VALUE;
+
+    private final long[] mWindowNanos;
+    private final boolean[] mNoTimeout;
+    private final long[] mLastSentNanos;
+    private final long[] mLastSentSequence;
+    private long mSequence;
+
+    public IntentDeDuplicator(PttDriver.PttReadObj readObj) {
+        int count = readObj.getIntentDescriptorCount();
+
+        mWindowNanos = new long[count];
+        mNoTimeout = new boolean[count];
+        mLastSentNanos = new long[count];
+        mLastSentSequence = new long[count];
+
+        for (IntentDescriptor intent : readObj.getIntentDescriptors()) {
+            int id = intent.getId();
+
+            if (readObj.getIntentDeDuplicate()) {
+                mWindowNanos[id] = readObj.getIntentDeDuplicateTimeout(intent.getValue()) * 1000000L;
+            }
+            mNoTimeout[id] = readObj.getIntentsDeDuplicateNoTimeout().contains(intent.getValue());
+        }
+
+        reset();
+    }
+
+    public void reset() {
+        Arrays.fill(mLastSentNanos, NEVER);
+        Arrays.fill(mLastSentSequence, -1);
+        mSequence = 0;
+    }
+
+    /**
+     * Forgets that an intent was sent, for an intent accepted by {@link #shouldSend} but then
+     * cancelled before it went out.
+     */
+    public void forget(IntentDescriptor intent) {
+        int id = intent.getId();
+
+        mLastSentNanos[id] = NEVER;
+        mLastSentSequence[id] = -1;
+    }
+
+    /**
+     * Checks an intent about to be sent and records it when it is not a duplicate.
+     *
+     * @return false if the intent is a duplicate and must be dropped
+     */
+    public boolean shouldSend(IntentDescriptor intent, long nowNanos) {
+        int id = intent.getId();
+
+        if (mNoTimeout[id] && mLastSentSequence[id] == mSequence)
+            return false;
+
+        if (mLastSentNanos[id] != NEVER && nowNanos - mLastSentNanos[id] < mWindowNanos[id])
+            return false;
+
+        mLastSentNanos[id] = nowNanos;
+        mLastSentSequence[id] = ++mSequence;
+
+        return true;
+    }
+}
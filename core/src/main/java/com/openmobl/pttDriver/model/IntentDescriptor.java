@@ -0,0 +1,163 @@
+package com.openmobl.pttDriver.model;
+
+import com.openmobl.pttDriver.platform.Platform;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Broadcast described by an intent map value, parsed once when the driver is loaded.
+ *
+ * Values have the form <code>action[:KEYCODE_NAME,keyAction][?name=value[&amp;name=value]]</code>, for
+ * example <code>com.symbol.button.L2:KEYCODE_BUTTON_L2,0</code>. When a key code is given the broadcast
+ * carries a KeyEvent in Intent.EXTRA_KEY_EVENT. A key code name KeyEvent does not know is sent as
+ * KEYCODE_UNKNOWN, as before descriptors were parsed, see {@link #hasUnknownKeyCode()}.
+ */
+public final class IntentDescriptor {
+    public static final int NO_KEY_CODE = Platform.KEYCODE_UNKNOWN;
+    // The actions of KeyEvent
+    public static final int KEY_ACTION_DOWN = 0;
+    public static final int KEY_ACTION_UP = 1;
+    public static final int KEY_ACTION_MULTIPLE = 2;
+
+    private final int mId;
+    private final String mValue;
+    private final String mAction;
+    private final boolean mHasKeyEvent;
+    private final int mKeyCode;
+    private final int mKeyAction;
+    private final Map<String, String> mExtras;
+
+    private IntentDescriptor(int id, String value, String action, boolean hasKeyEvent, int keyCode, int keyAction,
+                             Map<String, String> extras) {
+        mId = id;
+        mValue = value;
+        mAction = action;
+        mHasKeyEvent = hasKeyEvent;
+        mKeyCode = keyCode;
+        mKeyAction = keyAction;
+        mExtras = extras;
+    }
+
+    /**
+     * @param id index of the descriptor within its driver
+     * @throws IllegalArgumentException if the value is malformed
+     */
+    public static IntentDescriptor parse(int id, String value) {
+        if (value == null || value.isEmpty())
+            throw new IllegalArgumentException("intent must not be empty");
+
+        String remainder = value;
+        Map<String, String> extras = Collections.emptyMap();
+        boolean hasKeyEvent = false;
+        int keyCode = NO_KEY_CODE;
+        int keyAction = 0;
+
+        int extrasStart = remainder.indexOf('?');
+        if (extrasStart >= 0) {
+            extras = parseExtras(remainder.substring(extrasStart + 1));
+            remainder = remainder.substring(0, extrasStart);
+        }
+
+        int keyStart = remainder.indexOf(':');
+        if (keyStart >= 0) {
+            String keyEvent = remainder.substring(keyStart + 1);
+            int separator = keyEvent.indexOf(',');
+
+            if (separator < 0)
+                throw new IllegalArgumentException("key event \'" + keyEvent + "\' must be KEYCODE,action");
+
+            String keyCodeName = keyEvent.substring(0, separator).trim();
+            String keyActionValue = keyEvent.substring(separator + 1).trim();
+
+            hasKeyEvent = true;
+            keyCode = Platform.getKeyCodes().keyCodeFromString(keyCodeName);
+
+            try {
+                keyAction = Integer.parseInt(keyActionValue);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("key action \'" + keyActionValue + "\' is not a number");
+            }
+            if (keyAction != KEY_ACTION_DOWN && keyAction != KEY_ACTION_UP && keyAction != KEY_ACTION_MULTIPLE)
+                throw new IllegalArgumentException("key action " + keyAction + " is invalid");
+
+            remainder = remainder.substring(0, keyStart);
+        }
+
+        if (remainder.isEmpty())
+            throw new IllegalArgumentException("intent action must not be empty");
+
+        return new IntentDescriptor(id, value, remainder, hasKeyEvent, keyCode, keyAction, extras);
+    }
+
+    private static Map<String, String> parseExtras(String query) {
+        Map<String, String> extras = new LinkedHashMap<>();
+
+        for (String pair : query.split("&")) {
+            int separator = pair.indexOf('=');
+
+            if (separator <= 0)
+                throw new IllegalArgumentException("extra \'" + pair + "\' must be name=value");
+
+            extras.put(pair.substring(0, separator), pair.substring(separator + 1));
+        }
+
+        return Collections.unmodifiableMap(extras);
+    }
+
+    // Compiled form, see CompiledDriver
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(mId);
+        out.writeUTF(mValue);
+        out.writeUTF(mAction);
+        out.writeBoolean(mHasKeyEvent);
+        out.writeInt(mKeyCode);
+        out.writeInt(mKeyAction);
+        out.writeInt(mExtras.size());
+        for (Map.Entry<String, String> extra : mExtras.entrySet()) {
+            out.writeUTF(extra.getKey());
+            out.writeUTF(extra.getValue());
+        }
+    }
+
+    static IntentDescriptor readFrom(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        String value = in.readUTF();
+        String action = in.readUTF();
+        boolean hasKeyEvent = in.readBoolean();
+        int keyCode = in.readInt();
+        int keyAction = in.readInt();
+        int extraCount = in.readInt();
+        Map<String, String> extras = Collections.emptyMap();
+
+        if (extraCount > 0) {
+            extras = new LinkedHashMap<>();
+            for (int i = 0; i < extraCount; i++) {
+                extras.put(in.readUTF(), in.readUTF());
+            }
+            extras = Collections.unmodifiableMap(extras);
+        }
+
+        return new IntentDescriptor(id, value, action, hasKeyEvent, keyCode, keyAction, extras);
+    }
+
+    public int getId() { return mId; }
+    // The intent map value this was parsed from
+    public String getValue() { return mValue; }
+    public String getAction() { return mAction; }
+    public boolean hasKeyEvent() { return mHasKeyEvent; }
+    // A key event whose key code name is not one of KeyEvent, most likely a typo in the driver
+    public boolean hasUnknownKeyCode() { return mHasKeyEvent && mKeyCode == NO_KEY_CODE; }
+    public int getKeyCode() { return mKeyCode; }
+    public int getKeyAction() { return mKeyAction; }
+    public Map<String, String> getExtras() { return mExtras; }
+
+    @Override
+    public String toString() {
+        return mValue;
+    }
+}
@@ -0,0 +1,344 @@
+package com.openmobl.pttDriver.model;
+
+import com.openmobl.pttDriver.platform.Log;
+import com.openmobl.pttDriver.utils.TextUtil;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Byte level trie compiled from an {@link PttDriver.IntentMap}.
+ *
+ * Keys are converted once into the raw bytes the device sends, so matching a packet is a walk
+ * over the received buffer without building a String per packet.
+ *
+ * A key ending in {@value #WILDCARD} matches any data starting with the rest of the key. When several
+ * keys match the longest one wins, an exact key wins over a wildcard key of the same length.
+ */
+public class IntentMatcher {
+    private static final String TAG = IntentMatcher.class.getName();
+
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+    private static final int INITIAL_CAPACITY = 32;
+
+    public static final char WILDCARD = '*';
+
+    private byte[] mLabels;
+    private int[] mFirstChild;
+    private int[] mNextSibling;
+    private IntentDescriptor[] mIntents;
+    private IntentDescriptor[] mPrefixIntents;
+    private int mNodeCount;
+
+    // Sequence removed from the input before matching (the driver EOL)
+    private final byte[] mSkip;
+    // Characters matched by \s are ignored in the input
+    private final boolean mSkipWhitespace;
+    // Empty input never matches, even an empty key
+    private final boolean mRejectEmpty;
+
+    private IntentMatcher(byte[] skip, boolean skipWhitespace, boolean rejectEmpty) {
+        this(skip, skipWhitespace, rejectEmpty, INITIAL_CAPACITY);
+
+        newNode((byte)0);
+    }
+    private IntentMatcher(byte[] skip, boolean skipWhitespace, boolean rejectEmpty, int capacity) {
+        mSkip = (skip != null && skip.length > 0) ? skip : null;
+        mSkipWhitespace = skipWhitespace;
+        mRejectEmpty = rejectEmpty;
+
+        mLabels = new byte[capacity];
+        mFirstChild = new int[capacity];
+        mNextSibling = new int[capacity];
+        mIntents = new IntentDescriptor[capacity];
+        mPrefixIntents = new IntentDescriptor[capacity];
+    }
+
+    /**
+     * Matcher for the intent map of a serial style driver (spp, hfp, ble-serial and ble with a single
+     * characteristic). When an EOL is defined the data is compared as text with every EOL removed,
+     * otherwise ascii data is compared as is and hex data is compared against its spaced, upper case
+     * hex representation.
+     *
+     * @param eolFramed the data is already split on the EOL, so it never contains one
+     */
+    public static IntentMatcher forSerial(PttDriver.PttReadObj readObj, boolean eolFramed) {
+        String eol = readObj.getEOL();
+        byte[] eolBytes = (eol != null && !eolFramed) ? TextUtil.fromHexString(eol) : null;
+        boolean hexKeys = eol == null && readObj.getSerialDataType() == PttDriver.DataType.HEX;
+        IntentMatcher matcher = new IntentMatcher(eolBytes, false, false);
+
+        matcher.addAll(readObj, readObj.getIntentMap(), hexKeys, false);
+
+        return matcher;
+    }
+
+    /**
+     * Matcher for one of the characteristic maps of a ble driver. Whitespace is ignored in the data and
+     * hex data is compared against its upper case hex representation without separators.
+     */
+    public static IntentMatcher forCharacteristic(PttDriver.PttReadObj readObj, PttDriver.IntentMap intentMap) {
+        boolean hexKeys = readObj.getSerialDataType() == PttDriver.DataType.HEX;
+        IntentMatcher matcher = new IntentMatcher(null, !hexKeys, true);
+
+        matcher.addAll(readObj, intentMap, hexKeys, true);
+
+        return matcher;
+    }
+
+    /**
+     * Matcher for values that are already text, such as the result of a file preprocessor.
+     */
+    public static IntentMatcher forText(PttDriver.PttReadObj readObj, PttDriver.IntentMap intentMap) {
+        IntentMatcher matcher = new IntentMatcher(null, false, false);
+
+        matcher.addAll(readObj, intentMap, false, false);
+
+        return matcher;
+    }
+
+    private void addAll(PttDriver.PttReadObj readObj, PttDriver.IntentMap intentMap, boolean hexKeys, boolean compact) {
+        if (intentMap == null)
+            return;
+
+        for (Map.Entry<String, String> mapping : intentMap.entrySet()) {
+            String name = mapping.getKey();
+            boolean prefix = isPrefixKey(name);
+            String pattern = prefix ? stripWildcard(name, hexKeys) : name;
+            byte[] key = hexKeys ? hexKeyToBytes(pattern, compact) : textKeyToBytes(pattern, compact);
+            IntentDescriptor intent = readObj.getIntentDescriptor(mapping.getValue());
+
+            if (intent == null) {
+                // Already reported as a validation error of the driver
+                Log.d(TAG, "Intent mapping \'" + name + "\' has an invalid intent, skipping");
+                continue;
+            }
+
+            add(name, key, prefix, intent);
+        }
+    }
+
+    // Compiled form, see CompiledDriver. Intents are written as their descriptor id.
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(mSkip != null ? mSkip.length : 0);
+        if (mSkip != null)
+            out.write(mSkip);
+        out.writeBoolean(mSkipWhitespace);
+        out.writeBoolean(mRejectEmpty);
+
+        out.writeInt(mNodeCount);
+        out.write(mLabels, 0, mNodeCount);
+        for (int node = 0; node < mNodeCount; node++) {
+            out.writeInt(mFirstChild[node]);
+            out.writeInt(mNextSibling[node]);
+            out.writeInt(mIntents[node] != null ? mIntents[node].getId() : NONE);
+            out.writeInt(mPrefixIntents[node] != null ? mPrefixIntents[node].getId() : NONE);
+        }
+    }
+
+    /**
+     * @param intents the descriptors of the driver indexed by their id
+     */
+    static IntentMatcher readFrom(DataInputStream in, IntentDescriptor[] intents) throws IOException {
+        byte[] skip = new byte[in.readInt()];
+        in.readFully(skip);
+        boolean skipWhitespace = in.readBoolean();
+        boolean rejectEmpty = in.readBoolean();
+
+        int nodeCount = in.readInt();
+        if (nodeCount <= 0)
+            throw new IOException("Compiled matcher has no root");
+
+        IntentMatcher matcher = new IntentMatcher(skip, skipWhitespace, rejectEmpty, nodeCount);
+
+        in.readFully(matcher.mLabels);
+        for (int node = 0; node < nodeCount; node++) {
+            matcher.mFirstChild[node] = readNode(in, nodeCount);
+            matcher.mNextSibling[node] = readNode(in, nodeCount);
+            matcher.mIntents[node] = readIntent(in, intents);
+            matcher.mPrefixIntents[node] = readIntent(in, intents);
+        }
+        matcher.mNodeCount = nodeCount;
+
+        return matcher;
+    }
+
+    private static int readNode(DataInputStream in, int nodeCount) throws IOException {
+        int node = in.readInt();
+
+        if (node < NONE || node >= nodeCount)
+            throw new IOException("Compiled matcher node " + node + " is out of range");
+
+        return node;
+    }
+
+    private static IntentDescriptor readIntent(DataInputStream in, IntentDescriptor[] intents) throws IOException {
+        int id = in.readInt();
+
+        if (id == NONE)
+            return null;
+        if (id < 0 || id >= intents.length || intents[id] == null)
+            throw new IOException("Compiled matcher intent " + id + " is unknown");
+
+        return intents[id];
+    }
+
+    public IntentDescriptor match(String data) {
+        return match(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public IntentDescriptor match(byte[] data) {
+        return match(data, 0, data.length);
+    }
+
+    public IntentDescriptor match(byte[] data, int offset, int length) {
+        int end = offset + length;
+        int pos = offset;
+        int node = ROOT;
+        IntentDescriptor longestPrefix = null;
+
+        if (mRejectEmpty && length == 0)
+            return null;
+
+        while (pos < end) {
+            if (mPrefixIntents[node] != null)
+                longestPrefix = mPrefixIntents[node];
+
+            if (mSkip != null && startsWith(data, pos, end, mSkip)) {
+                pos += mSkip.length;
+                continue;
+            }
+
+            byte value = data[pos++];
+
+            if (mSkipWhitespace && isWhitespace(value))
+                continue;
+
+            node = findChild(node, value);
+            if (node == NONE)
+                return longestPrefix;
+        }
+
+        if (mIntents[node] != null)
+            return mIntents[node];
+
+        return mPrefixIntents[node] != null ? mPrefixIntents[node] : longestPrefix;
+    }
+
+    private void add(String name, byte[] key, boolean prefix, IntentDescriptor intent) {
+        if (key == null) {
+            Log.d(TAG, "Intent mapping \'" + name + "\' can never match, skipping");
+            return;
+        }
+
+        int node = ROOT;
+
+        for (byte value : key) {
+            int child = findChild(node, value);
+
+            if (child == NONE) {
+                child = newNode(value);
+                mNextSibling[child] = mFirstChild[node];
+                mFirstChild[node] = child;
+            }
+            node = child;
+        }
+
+        if (prefix) {
+            mPrefixIntents[node] = intent;
+        } else {
+            mIntents[node] = intent;
+        }
+    }
+
+    private int newNode(byte label) {
+        if (mNodeCount == mLabels.length) {
+            int capacity = mLabels.length * 2;
+
+            mLabels = Arrays.copyOf(mLabels, capacity);
+            mFirstChild = Arrays.copyOf(mFirstChild, capacity);
+            mNextSibling = Arrays.copyOf(mNextSibling, capacity);
+            mIntents = Arrays.copyOf(mIntents, capacity);
+            mPrefixIntents = Arrays.copyOf(mPrefixIntents, capacity);
+        }
+
+        int node = mNodeCount++;
+
+        mLabels[node] = label;
+        mFirstChild[node] = NONE;
+        mNextSibling[node] = NONE;
+        mIntents[node] = null;
+        mPrefixIntents[node] = null;
+
+        return node;
+    }
+
+    private int findChild(int node, byte label) {
+        int child = mFirstChild[node];
+
+        while (child != NONE && mLabels[child] != label) {
+            child = mNextSibling[child];
+        }
+
+        return child;
+    }
+
+    private static boolean startsWith(byte[] data, int pos, int end, byte[] prefix) {
+        if (end - pos < prefix.length)
+            return false;
+
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[pos + i] != prefix[i])
+                return false;
+        }
+
+        return true;
+    }
+
+    // Same set as the regex \s
+    private static boolean isWhitespace(int value) {
+        return value == ' ' || value == '\t' || value == '\n' || value == 0x0B || value == '\f' || value == '\r';
+    }
+
+    private static boolean isPrefixKey(String key) {
+        return key.length() > 0 && key.charAt(key.length() - 1) == WILDCARD;
+    }
+
+    // Hex keys may separate the wildcard from the last byte, "0A 0B *"
+    private static String stripWildcard(String key, boolean hexKey) {
+        int end = key.length() - 1;
+
+        while (hexKey && end > 0 && key.charAt(end - 1) == ' ') {
+            end--;
+        }
+
+        return key.substring(0, end);
+    }
+
+    private static byte[] textKeyToBytes(String key, boolean whitespaceStripped) {
+        if (whitespaceStripped) {
+            for (int i = 0; i < key.length(); i++) {
+                if (isWhitespace(key.charAt(i)))
+                    return null;
+            }
+        }
+
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // A hex key only ever matched if it is exactly how TextUtil formats the received bytes
+    private static byte[] hexKeyToBytes(String key, boolean separatorsStripped) {
+        byte[] bytes = TextUtil.fromHexString(key);
+        String formatted = TextUtil.toHexString(bytes);
+
+        if (separatorsStripped)
+            formatted = formatted.replace(" ", "");
+
+        return formatted.equals(key) ? bytes : null;
+    }
+}
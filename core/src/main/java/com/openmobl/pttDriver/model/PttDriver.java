@@ -1,21 +1,20 @@
 package com.openmobl.pttDriver.model;
 
-import android.content.Context;
-import android.net.Uri;
-import android.util.JsonReader;
-import android.util.JsonToken;
-import android.util.JsonWriter;
-import android.util.Log;
-
-import androidx.annotation.NonNull;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.openmobl.pttDriver.platform.Log;
 
 import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -52,7 +51,6 @@ public class PttDriver implements Validatable {
         public boolean isValid() {
             return this != INVALID;
         }
-        @NonNull
         @Override
         public String toString() {
             return mConnectionType;
@@ -81,12 +79,38 @@ public class PttDriver implements Validatable {
         public boolean isValid() {
             return this != INVALID;
         }
-        @NonNull
         @Override
         public String toString() {
             return mDataType;
         }
     }
+    public enum FramingType {
+        INVALID("-"),
+        NONE("none"),
+        EOL("eol"),
+        FIXED("fixed"),
+        LENGTH("length");
+
+        private final String mFramingType;
+
+        FramingType(final String framingType) {
+            mFramingType = framingType;
+        }
+        public static FramingType toFramingType(String value) {
+            for (FramingType framingTypeEnum : values()) {
+                if (value.equals(framingTypeEnum.toString()))
+                    return framingTypeEnum;
+            }
+            return INVALID;
+        }
+        public boolean isValid() {
+            return this != INVALID;
+        }
+        @Override
+        public String toString() {
+            return mFramingType;
+        }
+    }
     public static class IntentMap extends HashMap<String, String> { }
 
     private JsonReader mReader;
@@ -100,26 +124,29 @@ public class PttDriver implements Validatable {
     private ConnectionType mType;
     private PttWriteObj mWriteObj;
     private PttReadObj mReadObj;
+    // Set once the driver is shared, see freeze()
+    private volatile boolean mFrozen;
+    private boolean mFrozenValid;
+
+    public static int getPttDownDelayDefault() { return 0; }
 
     public PttDriver() {
         mValidationErrors = new ArrayList<>();
     }
-    public PttDriver(Context context, Uri content) throws IOException {
+    public PttDriver(InputStream inputStream) throws IOException {
         this();
-        read(context, content);
+        read(inputStream);
     }
-    public PttDriver(Context context, String json) throws IOException {
+    public PttDriver(String json) throws IOException {
         this();
-        read(context, json);
+        read(json);
     }
     public PttDriver(JsonReader reader) throws IOException {
         this();
         read(reader);
     }
 
-    public void read(@NonNull Context context, Uri content) throws IOException {
-        InputStream inputStream =
-                context.getContentResolver().openInputStream(content);
+    public void read(InputStream inputStream) throws IOException {
         if (inputStream != null) {
             InputStreamReader streamReader = new InputStreamReader(inputStream, "UTF-8");
 
@@ -127,24 +154,16 @@ public class PttDriver implements Validatable {
 
             read(reader);
         } else {
-            Log.d(TAG, "Failed to open InputStream for " + content);
-            throw new IOException("Failed to open InputStream for " + content);
+            Log.d(TAG, "Failed to open InputStream");
+            throw new IOException("Failed to open InputStream");
         }
     }
-    public void read(@NonNull Context context, String json) throws IOException {
-        InputStream inputStream = new ByteArrayInputStream(json.getBytes());
-        if (inputStream != null) {
-            InputStreamReader streamReader = new InputStreamReader(inputStream, "UTF-8");
-
-            JsonReader reader = new JsonReader(streamReader);
-
-            read(reader);
-        } else {
-            Log.d(TAG, "Failed to open InputStream for JSON String");
-            throw new IOException("Failed to open InputStream for JSON String");
-        }
+    public void read(String json) throws IOException {
+        read(new ByteArrayInputStream(json.getBytes("UTF-8")));
     }
-    public void read(@NonNull JsonReader reader) throws IOException {
+    public void read(JsonReader reader) throws IOException {
+        checkNotFrozen();
+
         mReader = reader;
 
         reader.beginObject();
@@ -195,6 +214,99 @@ public class PttDriver implements Validatable {
         reader.endObject();
     }
 
+    // Compiled form, see CompiledDriver
+    void writeCompiled(DataOutputStream out) throws IOException {
+        writeString(out, mDriverName);
+        writeString(out, mDeviceName);
+        writeString(out, mWatchForDeviceName);
+        writeString(out, mType != null ? mType.toString() : null);
+
+        out.writeBoolean(mWriteObj != null);
+        if (mWriteObj != null)
+            mWriteObj.writeCompiled(out);
+
+        out.writeBoolean(mReadObj != null);
+        if (mReadObj != null)
+            mReadObj.writeCompiled(out);
+    }
+    void readCompiled(DataInputStream in) throws IOException {
+        mDriverName = readString(in);
+        mDeviceName = readString(in);
+        mWatchForDeviceName = readString(in);
+
+        String type = readString(in);
+        mType = type != null ? ConnectionType.toConnectionType(type) : null;
+
+        if (in.readBoolean()) {
+            mWriteObj = new PttWriteObj();
+            mWriteObj.readCompiled(in);
+        }
+
+        if (in.readBoolean()) {
+            mReadObj = new PttReadObj();
+            mReadObj.readCompiled(in);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeUTF(value);
+    }
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeUUID(DataOutputStream out, UUID value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.getMostSignificantBits());
+            out.writeLong(value.getLeastSignificantBits());
+        }
+    }
+    private static UUID readUUID(DataInputStream in) throws IOException {
+        return in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null;
+    }
+
+    private static void writeStringList(DataOutputStream out, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            out.writeUTF(value);
+        }
+    }
+    private static List<String> readStringList(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> values = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            values.add(in.readUTF());
+        }
+
+        return values;
+    }
+
+    private static void writeStringMap(DataOutputStream out, Map<String, String> map) throws IOException {
+        out.writeBoolean(map != null);
+        if (map != null) {
+            out.writeInt(map.size());
+            for (Map.Entry<String, String> mapping : map.entrySet()) {
+                out.writeUTF(mapping.getKey());
+                out.writeUTF(mapping.getValue());
+            }
+        }
+    }
+    private static <T extends Map<String, String>> T readStringMap(DataInputStream in, T map) throws IOException {
+        if (!in.readBoolean())
+            return null;
+
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            map.put(in.readUTF(), in.readUTF());
+        }
+
+        return map;
+    }
+
     private List<String> readStringList(JsonReader reader) throws IOException {
         List<String> stringList = new ArrayList<>();
 
@@ -270,6 +382,10 @@ public class PttDriver implements Validatable {
 
     @Override
     public boolean isValid() {
+        // The error lists of a frozen driver are never rewritten, it may be shared between threads
+        if (mFrozen)
+            return mFrozenValid;
+
         boolean valid = true;
 
         mValidationErrors.clear();
@@ -307,6 +423,37 @@ public class PttDriver implements Validatable {
         return valid;
     }
 
+    /**
+     * Validates the driver one last time and makes it read only, so it can be shared between threads.
+     * Reading JSON into a frozen driver or its read object throws, and validating it only returns the
+     * result of this last validation.
+     */
+    public synchronized void freeze() {
+        if (mFrozen)
+            return;
+
+        mFrozenValid = isValid();
+        // Matchers are built now rather than on first use by one of the threads sharing the driver
+        if (mReadObj != null && mFrozenValid) {
+            mReadObj.getSerialMatcher();
+            if (mReadObj.getCharacteristicIntentMaps() != null) {
+                for (UUID characteristic : mReadObj.getCharacteristicIntentMaps().keySet()) {
+                    mReadObj.getCharacteristicMatcher(characteristic);
+                }
+            }
+        }
+        mFrozen = true;
+    }
+
+    public boolean isFrozen() {
+        return mFrozen;
+    }
+
+    private void checkNotFrozen() {
+        if (mFrozen)
+            throw new IllegalStateException("Driver " + mDriverName + " is frozen");
+    }
+
     public String getDriverName() { return mDriverName; }
     public String getDeviceName() { return mDeviceName; }
     public String getWatchForDeviceName() { return mWatchForDeviceName; }
@@ -349,7 +496,6 @@ public class PttDriver implements Validatable {
         return writer;
     }
 
-    @NonNull
     public String toString() {
         StringBuilder builder = new StringBuilder();
 
@@ -402,7 +548,7 @@ public class PttDriver implements Validatable {
             read(reader);
         }
 
-        public void read(@NonNull JsonReader reader) throws IOException {
+        public void read(JsonReader reader) throws IOException {
             reader.beginObject();
             while (reader.hasNext()) {
                 String name = reader.nextName();
@@ -461,6 +607,27 @@ public class PttDriver implements Validatable {
             reader.endObject();
         }
 
+        void writeCompiled(DataOutputStream out) throws IOException {
+            writeUUID(out, mService);
+            writeUUID(out, mCharacteristic);
+            writeString(out, mStartCmdStr);
+            writeString(out, mStartCmdStrType != null ? mStartCmdStrType.toString() : null);
+            writeString(out, mEOL);
+            writeString(out, mSerialDataType != null ? mSerialDataType.toString() : null);
+            writeStringMap(out, mIntentMap);
+        }
+        void readCompiled(DataInputStream in) throws IOException {
+            mService = readUUID(in);
+            mCharacteristic = readUUID(in);
+            mStartCmdStr = readString(in);
+            String startCmdStrType = readString(in);
+            mStartCmdStrType = startCmdStrType != null ? DataType.toDataType(startCmdStrType) : null;
+            mEOL = readString(in);
+            String serialDataType = readString(in);
+            mSerialDataType = serialDataType != null ? DataType.toDataType(serialDataType) : null;
+            mIntentMap = readStringMap(in, new IntentMap());
+        }
+
         @Override
         public Map<String, List<String>> getAllValidationErrors() {
             HashMap<String, List<String>> result = new HashMap<>();
@@ -587,7 +754,6 @@ public class PttDriver implements Validatable {
             return writer;
         }
 
-        @NonNull
         public String toString() {
             return toStringBuilder(new StringBuilder(), "").toString();
         }
@@ -600,11 +766,12 @@ public class PttDriver implements Validatable {
         private String mPreprocessFunc;
         private IntentMap mIntentMap;
 
+        private FileObject() { }
         public FileObject(JsonReader reader) throws IOException {
             read(reader);
         }
 
-        public void read(@NonNull JsonReader reader) throws IOException {
+        public void read(JsonReader reader) throws IOException {
             reader.beginObject();
             while (reader.hasNext()) {
                 String name = reader.nextName();
@@ -647,6 +814,17 @@ public class PttDriver implements Validatable {
             return mIntentMap;
         }
 
+        void writeCompiled(DataOutputStream out) throws IOException {
+            writeString(out, mFilename);
+            writeString(out, mPreprocessFunc);
+            writeStringMap(out, mIntentMap);
+        }
+        void readCompiled(DataInputStream in) throws IOException {
+            mFilename = readString(in);
+            mPreprocessFunc = readString(in);
+            mIntentMap = readStringMap(in, new IntentMap());
+        }
+
         @Override
         public Map<String, List<String>> getAllValidationErrors() {
             HashMap<String, List<String>> result = new HashMap<>();
@@ -760,7 +938,348 @@ public class PttDriver implements Validatable {
             return writer;
         }
 
-        @NonNull
+        public String toString() {
+            return toStringBuilder(new StringBuilder(), "").toString();
+        }
+    }
+
+    // Gestures recognised on a key, identified by the intents of its down and up edges
+    public static class GestureKey implements Validatable {
+        private List<String> mValidationErrors = new ArrayList<>();
+
+        private String mDown;
+        private String mUp;
+        private String mLongPress;
+        private int mLongPressTimeout;
+        private String mDoublePress;
+        private int mDoublePressTimeout;
+        private String mHoldRepeat;
+        private int mHoldRepeatInterval;
+
+        private GestureKey() { }
+        public GestureKey(JsonReader reader) throws IOException {
+            mLongPressTimeout = 600;
+            mDoublePressTimeout = 300;
+            mHoldRepeatInterval = 200;
+
+            read(reader);
+        }
+
+        public void read(JsonReader reader) throws IOException {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+
+                switch (name) {
+                    case "down":
+                        mDown = reader.nextString();
+                        break;
+                    case "up":
+                        mUp = reader.nextString();
+                        break;
+                    case "longPress":
+                        mLongPress = reader.nextString();
+                        break;
+                    case "longPressTimeout":
+                        mLongPressTimeout = reader.nextInt();
+                        break;
+                    case "doublePress":
+                        mDoublePress = reader.nextString();
+                        break;
+                    case "doublePressTimeout":
+                        mDoublePressTimeout = reader.nextInt();
+                        break;
+                    case "holdRepeat":
+                        mHoldRepeat = reader.nextString();
+                        break;
+                    case "holdRepeatInterval":
+                        mHoldRepeatInterval = reader.nextInt();
+                        break;
+                    default:
+                        Log.d(TAG, "Skipping parameter: " + name);
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+
+            Log.v(TAG, "Gesture key: " + mDown + " / " + mUp);
+        }
+
+        public String getDown() { return mDown; }
+        public String getUp() { return mUp; }
+        public String getLongPress() { return mLongPress; }
+        public int getLongPressTimeout() { return mLongPressTimeout; }
+        public String getDoublePress() { return mDoublePress; }
+        public int getDoublePressTimeout() { return mDoublePressTimeout; }
+        // Sent every interval while the key stays held past the long press timeout
+        public String getHoldRepeat() { return mHoldRepeat; }
+        public int getHoldRepeatInterval() { return mHoldRepeatInterval; }
+
+        public boolean hasGestures() {
+            return getLongPress() != null || getDoublePress() != null || getHoldRepeat() != null;
+        }
+
+        void writeCompiled(DataOutputStream out) throws IOException {
+            writeString(out, mDown);
+            writeString(out, mUp);
+            writeString(out, mLongPress);
+            out.writeInt(mLongPressTimeout);
+            writeString(out, mDoublePress);
+            out.writeInt(mDoublePressTimeout);
+            writeString(out, mHoldRepeat);
+            out.writeInt(mHoldRepeatInterval);
+        }
+        void readCompiled(DataInputStream in) throws IOException {
+            mDown = readString(in);
+            mUp = readString(in);
+            mLongPress = readString(in);
+            mLongPressTimeout = in.readInt();
+            mDoublePress = readString(in);
+            mDoublePressTimeout = in.readInt();
+            mHoldRepeat = readString(in);
+            mHoldRepeatInterval = in.readInt();
+        }
+
+        @Override
+        public Map<String, List<String>> getAllValidationErrors() {
+            HashMap<String, List<String>> result = new HashMap<>();
+
+            result.put("GestureKey", getValidationErrors());
+
+            return result;
+        }
+
+        @Override
+        public List<String> getValidationErrors() {
+            return mValidationErrors;
+        }
+
+        @Override
+        public boolean isValid() {
+            boolean valid = true;
+
+            mValidationErrors.clear();
+
+            if (getDown() == null || getUp() == null) {
+                valid = false;
+                mValidationErrors.add("\'down\' and \'up\' must not be null for a gesture key");
+            }
+
+            if ((getLongPress() != null || getHoldRepeat() != null) && getLongPressTimeout() <= 0) {
+                valid = false;
+                mValidationErrors.add("\'longPressTimeout\' of \'" + getDown() + "\' must be positive");
+            }
+            if (getDoublePress() != null && getDoublePressTimeout() <= 0) {
+                valid = false;
+                mValidationErrors.add("\'doublePressTimeout\' of \'" + getDown() + "\' must be positive");
+            }
+            if (getHoldRepeat() != null && getHoldRepeatInterval() <= 0) {
+                valid = false;
+                mValidationErrors.add("\'holdRepeatInterval\' of \'" + getDown() + "\' must be positive");
+            }
+
+            return valid;
+        }
+
+        private StringBuilder toStringBuilder(StringBuilder builder, String linePrefix) {
+            if (builder == null) {
+                builder = new StringBuilder();
+            }
+
+            builder.append(linePrefix);
+            builder.append("down (M): ");
+            builder.append(getDown());
+            builder.append(", up (M): ");
+            builder.append(getUp());
+            builder.append("\n");
+
+            builder.append(linePrefix);
+            builder.append("longPress (O): ");
+            builder.append(getLongPress() != null ? getLongPress() + " after " + getLongPressTimeout() + "ms" : "");
+            builder.append("\n");
+
+            builder.append(linePrefix);
+            builder.append("doublePress (O): ");
+            builder.append(getDoublePress() != null ? getDoublePress() + " within " + getDoublePressTimeout() + "ms" : "");
+            builder.append("\n");
+
+            builder.append(linePrefix);
+            builder.append("holdRepeat (O): ");
+            builder.append(getHoldRepeat() != null ? getHoldRepeat() + " every " + getHoldRepeatInterval() + "ms" : "");
+            builder.append("\n");
+
+            return builder;
+        }
+
+        public JsonWriter toJson(JsonWriter writer) {
+            try {
+                writer.beginObject();
+
+                writer.name("down").value(getDown());
+                writer.name("up").value(getUp());
+                if (getLongPress() != null) {
+                    writer.name("longPress").value(getLongPress());
+                }
+                writer.name("longPressTimeout").value(getLongPressTimeout());
+                if (getDoublePress() != null) {
+                    writer.name("doublePress").value(getDoublePress());
+                }
+                writer.name("doublePressTimeout").value(getDoublePressTimeout());
+                if (getHoldRepeat() != null) {
+                    writer.name("holdRepeat").value(getHoldRepeat());
+                }
+                writer.name("holdRepeatInterval").value(getHoldRepeatInterval());
+
+                writer.endObject();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+
+            return writer;
+        }
+
+        public String toString() {
+            return toStringBuilder(new StringBuilder(), "").toString();
+        }
+    }
+
+    // Intent sent when every key, identified by its down intent, is pressed within the chord timeout
+    public static class GestureChord implements Validatable {
+        private List<String> mValidationErrors = new ArrayList<>();
+
+        private List<String> mKeys;
+        private String mIntent;
+        private int mChordTimeout;
+
+        private GestureChord() {
+            mKeys = new ArrayList<>();
+        }
+        public GestureChord(JsonReader reader) throws IOException {
+            mKeys = new ArrayList<>();
+            mChordTimeout = 80;
+
+            read(reader);
+        }
+
+        public void read(JsonReader reader) throws IOException {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+
+                switch (name) {
+                    case "keys":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            mKeys.add(reader.nextString());
+                        }
+                        reader.endArray();
+                        break;
+                    case "intent":
+                        mIntent = reader.nextString();
+                        break;
+                    case "chordTimeout":
+                        mChordTimeout = reader.nextInt();
+                        break;
+                    default:
+                        Log.d(TAG, "Skipping parameter: " + name);
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+
+            Log.v(TAG, "Gesture chord: " + mKeys + " -> " + mIntent);
+        }
+
+        public List<String> getKeys() { return mKeys; }
+        public String getIntent() { return mIntent; }
+        public int getChordTimeout() { return mChordTimeout; }
+
+        void writeCompiled(DataOutputStream out) throws IOException {
+            writeStringList(out, mKeys);
+            writeString(out, mIntent);
+            out.writeInt(mChordTimeout);
+        }
+        void readCompiled(DataInputStream in) throws IOException {
+            mKeys = readStringList(in);
+            mIntent = readString(in);
+            mChordTimeout = in.readInt();
+        }
+
+        @Override
+        public Map<String, List<String>> getAllValidationErrors() {
+            HashMap<String, List<String>> result = new HashMap<>();
+
+            result.put("GestureChord", getValidationErrors());
+
+            return result;
+        }
+
+        @Override
+        public List<String> getValidationErrors() {
+            return mValidationErrors;
+        }
+
+        @Override
+        public boolean isValid() {
+            boolean valid = true;
+
+            mValidationErrors.clear();
+
+            if (getIntent() == null) {
+                valid = false;
+                mValidationErrors.add("\'intent\' must not be null for a gesture chord");
+            }
+            if (getKeys().size() < 2) {
+                valid = false;
+                mValidationErrors.add("\'keys\' of chord \'" + getIntent() + "\' must have at least two keys");
+            }
+            if (getChordTimeout() <= 0) {
+                valid = false;
+                mValidationErrors.add("\'chordTimeout\' of chord \'" + getIntent() + "\' must be positive");
+            }
+
+            return valid;
+        }
+
+        private StringBuilder toStringBuilder(StringBuilder builder, String linePrefix) {
+            if (builder == null) {
+                builder = new StringBuilder();
+            }
+
+            builder.append(linePrefix);
+            builder.append("keys (M): ");
+            builder.append(getKeys());
+            builder.append(" -> intent (M): ");
+            builder.append(getIntent());
+            builder.append(" within ");
+            builder.append(getChordTimeout());
+            builder.append("ms\n");
+
+            return builder;
+        }
+
+        public JsonWriter toJson(JsonWriter writer) {
+            try {
+                writer.beginObject();
+
+                writer.name("keys").beginArray();
+                for (String key : getKeys()) {
+                    writer.value(key);
+                }
+                writer.endArray();
+                writer.name("intent").value(getIntent());
+                writer.name("chordTimeout").value(getChordTimeout());
+
+                writer.endObject();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+
+            return writer;
+        }
+
         public String toString() {
             return toStringBuilder(new StringBuilder(), "").toString();
         }
@@ -770,36 +1289,62 @@ public class PttDriver implements Validatable {
         public class OperationsMap extends HashMap<String, String> { }
 
         private List<String> mValidationErrors;
+        // Result of the last validation
+        private boolean mValid;
 
         // Fields
         private String mPttDownKeyIntent;
+        private String mPttUpKeyIntent;
         private int mDefaultPttDownKeyDelay;
         private DataType mSerialDataType;
         private String mEOL;
+        private FramingType mFraming;
+        private int mFrameLength;
+        private int mLengthFieldOffset;
+        private int mLengthFieldSize;
         private UUID mService;
         private UUID mCharacteristic;
         private IntentMap mIntentMap;
         private Map<UUID, IntentMap> mCharacteristicIntentMaps;
         private boolean mDeDupe;
         private int mDeDupeTimeout;
+        private Map<String, Integer> mDeDupeTimeouts;
         private List<String> mIntentsDeDuplicateNoTimeout;
         private OperationsMap mOperationsMap;
         private List<FileObject> mFiles;
+        private List<GestureKey> mGestureKeys;
+        private List<GestureChord> mGestureChords;
+
+        // Compiled from the intent map values
+        private Map<String, IntentDescriptor> mIntentDescriptors;
+        private List<String> mIntentDescriptorErrors;
+        // Built on first use or read from the compiled driver, shared by every connection
+        private IntentMatcher mSerialMatcher;
+        private Map<UUID, IntentMatcher> mCharacteristicMatchers;
 
         public PttReadObj() {
             mValidationErrors = new ArrayList<>();
-            mDefaultPttDownKeyDelay = Device.getPttDownDelayDefault();
+            mDefaultPttDownKeyDelay = getPttDownDelayDefault();
             mDeDupe = true;
             mDeDupeTimeout = 50;
+            mDeDupeTimeouts = new HashMap<>();
             mIntentsDeDuplicateNoTimeout = new ArrayList<>();
             mIntentMap = new IntentMap();
+            mLengthFieldSize = 1;
+            mGestureKeys = new ArrayList<>();
+            mGestureChords = new ArrayList<>();
+            mIntentDescriptors = new HashMap<>();
+            mIntentDescriptorErrors = new ArrayList<>();
+            mCharacteristicMatchers = new HashMap<>();
         }
         public PttReadObj(JsonReader reader) throws IOException {
             this();
             read(reader);
         }
 
-        public void read(@NonNull JsonReader reader) throws IOException {
+        public void read(JsonReader reader) throws IOException {
+            checkNotFrozen();
+
             reader.beginObject();
             while (reader.hasNext()) {
                 String name = reader.nextName();
@@ -829,6 +1374,10 @@ public class PttDriver implements Validatable {
                         mPttDownKeyIntent = reader.nextString();
                         Log.v(TAG, mPttDownKeyIntent);
                         break;
+                    case "pttUpKeyIntent":
+                        mPttUpKeyIntent = reader.nextString();
+                        Log.v(TAG, mPttUpKeyIntent);
+                        break;
                     case "defaultPttDownKeyDelay":
                         mDefaultPttDownKeyDelay = reader.nextInt();
                         Log.v(TAG, "Default ptt key down delay: " + mDefaultPttDownKeyDelay);
@@ -841,6 +1390,14 @@ public class PttDriver implements Validatable {
                         mDeDupeTimeout = reader.nextInt();
                         Log.v(TAG, "Intent de-dupde timeout: " + mDeDupeTimeout + " ms");
                         break;
+                    case "intentDeDuplicateTimeouts":
+                        if (reader.peek() != JsonToken.NULL) {
+                            mDeDupeTimeouts = readTimeoutMap(reader);
+                            Log.v(TAG, "Intent de-dupe timeouts: " + mDeDupeTimeouts);
+                        } else {
+                            Log.v(TAG, "Could not read intent de-dupe timeouts");
+                        }
+                        break;
                     case "intentsDeDuplicateNoTimeout":
                         mIntentsDeDuplicateNoTimeout = readStringList(reader);
                         Log.v(TAG, "Intents de-dupe no timeout: " + mIntentsDeDuplicateNoTimeout);
@@ -849,6 +1406,22 @@ public class PttDriver implements Validatable {
                         mEOL = reader.nextString();
                         Log.v(TAG, "EOL: " + mEOL);
                         break;
+                    case "framing":
+                        mFraming = FramingType.toFramingType(reader.nextString());
+                        Log.v(TAG, "Framing: " + mFraming);
+                        break;
+                    case "frameLength":
+                        mFrameLength = reader.nextInt();
+                        Log.v(TAG, "Frame length: " + mFrameLength);
+                        break;
+                    case "lengthFieldOffset":
+                        mLengthFieldOffset = reader.nextInt();
+                        Log.v(TAG, "Length field offset: " + mLengthFieldOffset);
+                        break;
+                    case "lengthFieldSize":
+                        mLengthFieldSize = reader.nextInt();
+                        Log.v(TAG, "Length field size: " + mLengthFieldSize);
+                        break;
                     case "serialDataType":
                         mSerialDataType = DataType.toDataType(reader.nextString());
                         Log.v(TAG, mSerialDataType.toString());
@@ -885,6 +1458,20 @@ public class PttDriver implements Validatable {
                             Log.v(TAG, "Could not read files list");
                         }
                         break;
+                    case "gestureKeys":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            mGestureKeys.add(new GestureKey(reader));
+                        }
+                        reader.endArray();
+                        break;
+                    case "gestureChords":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            mGestureChords.add(new GestureChord(reader));
+                        }
+                        reader.endArray();
+                        break;
                     default:
                         Log.d(TAG, "Skipping parameter: " + name);
                         reader.skipValue();
@@ -892,6 +1479,71 @@ public class PttDriver implements Validatable {
                 }
             }
             reader.endObject();
+
+            compileIntentDescriptors();
+        }
+
+        private void compileIntentDescriptors() {
+            mIntentDescriptors = new HashMap<>();
+            mIntentDescriptorErrors = new ArrayList<>();
+            mSerialMatcher = null;
+            mCharacteristicMatchers = new HashMap<>();
+
+            compileIntentDescriptors("intentMap", getIntentMap());
+            if (getCharacteristicIntentMaps() != null) {
+                for (Map.Entry<UUID, IntentMap> mapping : getCharacteristicIntentMaps().entrySet()) {
+                    compileIntentDescriptors("characteristicMaps", mapping.getValue());
+                }
+            }
+            if (getFiles() != null) {
+                for (FileObject file : getFiles()) {
+                    compileIntentDescriptors("files", file.getIntentMap());
+                }
+            }
+            // Gestures send intents of their own
+            for (GestureKey key : mGestureKeys) {
+                compileIntentDescriptor("gestureKeys", key.getLongPress());
+                compileIntentDescriptor("gestureKeys", key.getDoublePress());
+                compileIntentDescriptor("gestureKeys", key.getHoldRepeat());
+            }
+            for (GestureChord chord : mGestureChords) {
+                compileIntentDescriptor("gestureChords", chord.getIntent());
+            }
+        }
+        private void compileIntentDescriptors(String mapName, IntentMap intentMap) {
+            if (intentMap == null)
+                return;
+
+            for (String value : intentMap.values()) {
+                compileIntentDescriptor(mapName, value);
+            }
+        }
+        private void compileIntentDescriptor(String mapName, String value) {
+            if (value == null || mIntentDescriptors.containsKey(value))
+                return;
+
+            try {
+                IntentDescriptor descriptor = IntentDescriptor.parse(mIntentDescriptors.size(), value);
+
+                if (descriptor.hasUnknownKeyCode())
+                    Log.w(TAG, "\'" + mapName + "\' value \'" + value + "\' has an unknown key code, it is sent as KEYCODE_UNKNOWN");
+                mIntentDescriptors.put(value, descriptor);
+            } catch (IllegalArgumentException e) {
+                Log.d(TAG, "Invalid intent '" + value + "': " + e.getMessage());
+                mIntentDescriptorErrors.add("\'" + mapName + "\' value \'" + value + "\' is invalid: " + e.getMessage());
+            }
+        }
+
+        private Map<String, Integer> readTimeoutMap(JsonReader reader) throws IOException {
+            Map<String, Integer> timeouts = new HashMap<>();
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                timeouts.put(reader.nextName(), reader.nextInt());
+            }
+            reader.endObject();
+
+            return timeouts;
         }
 
         private OperationsMap readOperationsMap(JsonReader reader) throws IOException {
@@ -937,6 +1589,165 @@ public class PttDriver implements Validatable {
             return empty;
         }
 
+        void writeCompiled(DataOutputStream out) throws IOException {
+            writeString(out, mPttDownKeyIntent);
+            writeString(out, mPttUpKeyIntent);
+            out.writeInt(mDefaultPttDownKeyDelay);
+            writeString(out, mSerialDataType != null ? mSerialDataType.toString() : null);
+            writeString(out, mEOL);
+            writeString(out, mFraming != null ? mFraming.toString() : null);
+            out.writeInt(mFrameLength);
+            out.writeInt(mLengthFieldOffset);
+            out.writeInt(mLengthFieldSize);
+            writeUUID(out, mService);
+            writeUUID(out, mCharacteristic);
+            writeStringMap(out, mIntentMap);
+
+            out.writeBoolean(mCharacteristicIntentMaps != null);
+            if (mCharacteristicIntentMaps != null) {
+                out.writeInt(mCharacteristicIntentMaps.size());
+                for (Map.Entry<UUID, IntentMap> mapping : mCharacteristicIntentMaps.entrySet()) {
+                    writeUUID(out, mapping.getKey());
+                    writeStringMap(out, mapping.getValue());
+                }
+            }
+
+            out.writeBoolean(mDeDupe);
+            out.writeInt(mDeDupeTimeout);
+            out.writeInt(mDeDupeTimeouts.size());
+            for (Map.Entry<String, Integer> timeout : mDeDupeTimeouts.entrySet()) {
+                out.writeUTF(timeout.getKey());
+                out.writeInt(timeout.getValue());
+            }
+            writeStringList(out, mIntentsDeDuplicateNoTimeout);
+            writeStringMap(out, mOperationsMap);
+
+            out.writeBoolean(mFiles != null);
+            if (mFiles != null) {
+                out.writeInt(mFiles.size());
+                for (FileObject file : mFiles) {
+                    file.writeCompiled(out);
+                }
+            }
+            out.writeInt(mGestureKeys.size());
+            for (GestureKey key : mGestureKeys) {
+                key.writeCompiled(out);
+            }
+            out.writeInt(mGestureChords.size());
+            for (GestureChord chord : mGestureChords) {
+                chord.writeCompiled(out);
+            }
+
+            out.writeInt(mIntentDescriptors.size());
+            for (IntentDescriptor intent : mIntentDescriptors.values()) {
+                intent.writeTo(out);
+            }
+            writeStringList(out, mIntentDescriptorErrors);
+
+            getSerialMatcher().writeTo(out);
+            int characteristicMatcherCount = 0;
+            if (mCharacteristicIntentMaps != null) {
+                for (Map.Entry<UUID, IntentMap> mapping : mCharacteristicIntentMaps.entrySet()) {
+                    if (mapping.getValue() != null)
+                        characteristicMatcherCount++;
+                }
+            }
+            out.writeInt(characteristicMatcherCount);
+            if (mCharacteristicIntentMaps != null) {
+                for (Map.Entry<UUID, IntentMap> mapping : mCharacteristicIntentMaps.entrySet()) {
+                    if (mapping.getValue() != null) {
+                        writeUUID(out, mapping.getKey());
+                        getCharacteristicMatcher(mapping.getKey()).writeTo(out);
+                    }
+                }
+            }
+        }
+        void readCompiled(DataInputStream in) throws IOException {
+            mPttDownKeyIntent = readString(in);
+            mPttUpKeyIntent = readString(in);
+            mDefaultPttDownKeyDelay = in.readInt();
+            String serialDataType = readString(in);
+            mSerialDataType = serialDataType != null ? DataType.toDataType(serialDataType) : null;
+            mEOL = readString(in);
+            String framing = readString(in);
+            mFraming = framing != null ? FramingType.toFramingType(framing) : null;
+            mFrameLength = in.readInt();
+            mLengthFieldOffset = in.readInt();
+            mLengthFieldSize = in.readInt();
+            mService = readUUID(in);
+            mCharacteristic = readUUID(in);
+            mIntentMap = readStringMap(in, new IntentMap());
+
+            mCharacteristicIntentMaps = null;
+            if (in.readBoolean()) {
+                int count = in.readInt();
+
+                mCharacteristicIntentMaps = new HashMap<>();
+                for (int i = 0; i < count; i++) {
+                    UUID characteristic = readUUID(in);
+                    mCharacteristicIntentMaps.put(characteristic, readStringMap(in, new IntentMap()));
+                }
+            }
+
+            mDeDupe = in.readBoolean();
+            mDeDupeTimeout = in.readInt();
+            int timeoutCount = in.readInt();
+            mDeDupeTimeouts = new HashMap<>();
+            for (int i = 0; i < timeoutCount; i++) {
+                mDeDupeTimeouts.put(in.readUTF(), in.readInt());
+            }
+            mIntentsDeDuplicateNoTimeout = readStringList(in);
+            mOperationsMap = readStringMap(in, new OperationsMap());
+
+            mFiles = null;
+            if (in.readBoolean()) {
+                int count = in.readInt();
+
+                mFiles = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    FileObject file = new FileObject();
+                    file.readCompiled(in);
+                    mFiles.add(file);
+                }
+            }
+            int keyCount = in.readInt();
+            mGestureKeys = new ArrayList<>(keyCount);
+            for (int i = 0; i < keyCount; i++) {
+                GestureKey key = new GestureKey();
+                key.readCompiled(in);
+                mGestureKeys.add(key);
+            }
+            int chordCount = in.readInt();
+            mGestureChords = new ArrayList<>(chordCount);
+            for (int i = 0; i < chordCount; i++) {
+                GestureChord chord = new GestureChord();
+                chord.readCompiled(in);
+                mGestureChords.add(chord);
+            }
+
+            int intentCount = in.readInt();
+            IntentDescriptor[] intents = new IntentDescriptor[intentCount];
+            mIntentDescriptors = new HashMap<>();
+            for (int i = 0; i < intentCount; i++) {
+                IntentDescriptor intent = IntentDescriptor.readFrom(in);
+
+                if (intent.getId() < 0 || intent.getId() >= intentCount || intents[intent.getId()] != null)
+                    throw new IOException("Compiled intent id " + intent.getId() + " is invalid");
+
+                intents[intent.getId()] = intent;
+                mIntentDescriptors.put(intent.getValue(), intent);
+            }
+            mIntentDescriptorErrors = readStringList(in);
+
+            mSerialMatcher = IntentMatcher.readFrom(in, intents);
+            int matcherCount = in.readInt();
+            mCharacteristicMatchers = new HashMap<>();
+            for (int i = 0; i < matcherCount; i++) {
+                UUID characteristic = readUUID(in);
+                mCharacteristicMatchers.put(characteristic, IntentMatcher.readFrom(in, intents));
+            }
+        }
+
         @Override
         public Map<String, List<String>> getAllValidationErrors() {
             HashMap<String, List<String>> result = new HashMap<>();
@@ -953,6 +1764,9 @@ public class PttDriver implements Validatable {
 
         @Override
         public boolean isValid() {
+            if (mFrozen)
+                return mValid;
+
             /*boolean typeValid = getType() != ConnectionType.BLE_SERIAL || (getService() != null && getCharacteristic() != null);
 
             return typeValid &&
@@ -982,6 +1796,69 @@ public class PttDriver implements Validatable {
                 mValidationErrors.add("\'eol\' must not be null for \'serialDataType\' of \'ascii\'");
             }
 
+            if (!getFraming().isValid()) {
+                valid = false;
+                mValidationErrors.add("\'framing\' of \'" + getFraming() + "\' is invalid");
+            } else if (getFraming() == FramingType.EOL && getEOL() == null) {
+                valid = false;
+                mValidationErrors.add("\'eol\' must not be null for \'framing\' of \'eol\'");
+            } else if (getFraming() == FramingType.FIXED && getFrameLength() <= 0) {
+                valid = false;
+                mValidationErrors.add("\'frameLength\' must be greater than 0 for \'framing\' of \'fixed\'");
+            } else if (getFraming() == FramingType.LENGTH) {
+                if (getLengthFieldSize() != 1 && getLengthFieldSize() != 2 && getLengthFieldSize() != 4) {
+                    valid = false;
+                    mValidationErrors.add("\'lengthFieldSize\' must be 1, 2 or 4 for \'framing\' of \'length\'");
+                }
+                if (getLengthFieldOffset() < 0) {
+                    valid = false;
+                    mValidationErrors.add("\'lengthFieldOffset\' must not be negative");
+                }
+            }
+
+            if (!mIntentDescriptorErrors.isEmpty()) {
+                valid = false;
+                mValidationErrors.addAll(mIntentDescriptorErrors);
+            }
+
+            if (getPttUpKeyIntent() != null && getIntentDescriptor(getPttUpKeyIntent()) == null) {
+                valid = false;
+                mValidationErrors.add("\'pttUpKeyIntent\' intent \'" + getPttUpKeyIntent() + "\' is not in an intent map");
+            }
+
+            for (Map.Entry<String, Integer> timeout : mDeDupeTimeouts.entrySet()) {
+                if (getIntentDescriptor(timeout.getKey()) == null) {
+                    valid = false;
+                    mValidationErrors.add("\'intentDeDuplicateTimeouts\' intent \'" + timeout.getKey() + "\' is not in an intent map");
+                } else if (timeout.getValue() < 0) {
+                    valid = false;
+                    mValidationErrors.add("\'intentDeDuplicateTimeouts\' of \'" + timeout.getKey() + "\' must not be negative");
+                }
+            }
+
+            for (GestureKey key : mGestureKeys) {
+                if (!key.isValid()) {
+                    valid = false;
+                    mValidationErrors.addAll(key.getValidationErrors());
+                } else if (getIntentDescriptor(key.getDown()) == null || getIntentDescriptor(key.getUp()) == null) {
+                    valid = false;
+                    mValidationErrors.add("\'gestureKeys\' key \'" + key.getDown() + "\' must have its down and up intents in an intent map");
+                }
+            }
+            for (GestureChord chord : mGestureChords) {
+                if (!chord.isValid()) {
+                    valid = false;
+                    mValidationErrors.addAll(chord.getValidationErrors());
+                } else {
+                    for (String key : chord.getKeys()) {
+                        if (getGestureKey(key) == null) {
+                            valid = false;
+                            mValidationErrors.add("\'gestureChords\' key \'" + key + "\' is not the down intent of a gesture key");
+                        }
+                    }
+                }
+            }
+
             // Type specific fields
             switch (getType()) {
                 case BLE:
@@ -1068,22 +1945,75 @@ public class PttDriver implements Validatable {
                     break;
             }
 
+            mValid = valid;
             return valid;
         }
 
         public UUID getService() { return mService; }
         public UUID getCharacteristic() { return mCharacteristic; }
         public String getPttDownKeyIntent() { return mPttDownKeyIntent; }
+        // Release paired with the ptt down intent, cancels it while it is delayed
+        public String getPttUpKeyIntent() { return mPttUpKeyIntent; }
         public int getDefaultPttDownKeyDelay() { return mDefaultPttDownKeyDelay; }
         public String getEOL() { return mEOL; }
+        // Drivers that predate framing split the stream of an spp or hfp socket on their EOL. A ble or
+        // ble-serial notification is already a whole message, with or without the EOL, so it is only
+        // framed when the driver asks for it.
+        public FramingType getFraming() {
+            if (mFraming != null)
+                return mFraming;
+            return getEOL() != null && isStream() ? FramingType.EOL : FramingType.NONE;
+        }
+        private boolean isStream() {
+            return getType() == ConnectionType.SPP || getType() == ConnectionType.HFP;
+        }
+        public int getFrameLength() { return mFrameLength; }
+        public int getLengthFieldOffset() { return mLengthFieldOffset; }
+        public int getLengthFieldSize() { return mLengthFieldSize; }
         public boolean getIntentDeDuplicate() { return mDeDupe; }
         public int getIntentDeDuplicateTimeout() { return mDeDupeTimeout; }
+        public Map<String, Integer> getIntentDeDuplicateTimeouts() { return mDeDupeTimeouts; }
+        // Window of a single intent, falls back to intentDeDuplicateTimeout
+        public int getIntentDeDuplicateTimeout(String intent) {
+            Integer timeout = mDeDupeTimeouts.get(intent);
+
+            return timeout != null ? timeout : mDeDupeTimeout;
+        }
         public List<String> getIntentsDeDuplicateNoTimeout() { return mIntentsDeDuplicateNoTimeout; }
         public DataType getSerialDataType() { return mSerialDataType; }
         public IntentMap getIntentMap() { return mIntentMap; }
         public Map<UUID, IntentMap> getCharacteristicIntentMaps() { return mCharacteristicIntentMaps; }
         public OperationsMap getOperationsMap() { return mOperationsMap; }
         public List<FileObject> getFiles() { return mFiles; }
+        public List<GestureKey> getGestureKeys() { return mGestureKeys; }
+        public List<GestureChord> getGestureChords() { return mGestureChords; }
+        public GestureKey getGestureKey(String down) {
+            for (GestureKey key : mGestureKeys) {
+                if (down.equals(key.getDown()))
+                    return key;
+            }
+            return null;
+        }
+        public IntentDescriptor getIntentDescriptor(String value) { return mIntentDescriptors.get(value); }
+        // Matcher for the intent map, see IntentMatcher.forSerial
+        public synchronized IntentMatcher getSerialMatcher() {
+            if (mSerialMatcher == null)
+                mSerialMatcher = IntentMatcher.forSerial(this, getFraming() == FramingType.EOL);
+            return mSerialMatcher;
+        }
+        // Matcher for a characteristic map, null when the characteristic has none
+        public synchronized IntentMatcher getCharacteristicMatcher(UUID characteristic) {
+            IntentMatcher matcher = mCharacteristicMatchers.get(characteristic);
+
+            if (matcher == null && mCharacteristicIntentMaps != null && mCharacteristicIntentMaps.get(characteristic) != null) {
+                matcher = IntentMatcher.forCharacteristic(this, mCharacteristicIntentMaps.get(characteristic));
+                mCharacteristicMatchers.put(characteristic, matcher);
+            }
+
+            return matcher;
+        }
+        public Collection<IntentDescriptor> getIntentDescriptors() { return mIntentDescriptors.values(); }
+        public int getIntentDescriptorCount() { return mIntentDescriptors.size(); }
 
         private StringBuilder toStringBuilder(StringBuilder builder, String linePrefix) {
             if (builder == null) {
@@ -1105,6 +2035,11 @@ public class PttDriver implements Validatable {
             builder.append(getPttDownKeyIntent());
             builder.append("\n");
 
+            builder.append(linePrefix);
+            builder.append("pttUpKeyIntent (O): ");
+            builder.append(getPttUpKeyIntent() != null ? getPttUpKeyIntent() : "");
+            builder.append("\n");
+
             builder.append(linePrefix);
             builder.append("defaultPttDownKeyDelay (O): ");
             builder.append("" + getDefaultPttDownKeyDelay());
@@ -1120,6 +2055,11 @@ public class PttDriver implements Validatable {
             builder.append("" + getIntentDeDuplicateTimeout());
             builder.append("\n");
 
+            builder.append(linePrefix);
+            builder.append("intentDeDuplicateTimeouts (O - default: {}): ");
+            builder.append("" + getIntentDeDuplicateTimeouts());
+            builder.append("\n");
+
             builder.append(linePrefix);
             builder.append("intentsDeDuplicateNoTimeout (O - default: []): ");
             builder.append("" + getIntentsDeDuplicateNoTimeout());
@@ -1135,6 +2075,26 @@ public class PttDriver implements Validatable {
             builder.append(getSerialDataType());
             builder.append("\n");
 
+            builder.append(linePrefix);
+            builder.append("framing (O - default: eol if eol is set and the type is spp or hfp, otherwise none): ");
+            builder.append(getFraming());
+            builder.append("\n");
+
+            builder.append(linePrefix);
+            builder.append("frameLength (M if framing is fixed): ");
+            builder.append("" + getFrameLength());
+            builder.append("\n");
+
+            builder.append(linePrefix);
+            builder.append("lengthFieldOffset (O - default: 0): ");
+            builder.append("" + getLengthFieldOffset());
+            builder.append("\n");
+
+            builder.append(linePrefix);
+            builder.append("lengthFieldSize (O - default: 1): ");
+            builder.append("" + getLengthFieldSize());
+            builder.append("\n");
+
             builder.append(linePrefix);
             builder.append("characteristicMaps ():\n");
             if (getCharacteristicIntentMaps() != null) {
@@ -1201,6 +2161,18 @@ public class PttDriver implements Validatable {
                 builder.append("\n");
             }
 
+            builder.append(linePrefix);
+            builder.append("gestureKeys (O):\n");
+            for (GestureKey key : getGestureKeys()) {
+                key.toStringBuilder(builder, linePrefix + "\t");
+            }
+
+            builder.append(linePrefix);
+            builder.append("gestureChords (O):\n");
+            for (GestureChord chord : getGestureChords()) {
+                chord.toStringBuilder(builder, linePrefix + "\t");
+            }
+
             return builder;
         }
 
@@ -1224,10 +2196,21 @@ public class PttDriver implements Validatable {
                 }
 
                 writer.name("pttDownKeyIntent").value(getPttDownKeyIntent());
+                if (getPttUpKeyIntent() != null) {
+                    writer.name("pttUpKeyIntent").value(getPttUpKeyIntent());
+                }
                 writer.name("defaultPttDownKeyDelay").value(getDefaultPttDownKeyDelay());
                 writer.name("intentDeDuplicate").value(getIntentDeDuplicate());
                 writer.name("intentDeDuplicateTimeout").value(getIntentDeDuplicateTimeout());
 
+                if (!getIntentDeDuplicateTimeouts().isEmpty()) {
+                    writer.name("intentDeDuplicateTimeouts").beginObject();
+                    for (Map.Entry<String, Integer> timeout : getIntentDeDuplicateTimeouts().entrySet()) {
+                        writer.name(timeout.getKey()).value(timeout.getValue());
+                    }
+                    writer.endObject();
+                }
+
                 writer.name("intentsDeDuplicateNoTimeout").beginArray();
                 for (String value : getIntentsDeDuplicateNoTimeout()) {
                     writer.value(value);
@@ -1239,6 +2222,17 @@ public class PttDriver implements Validatable {
                 }
                 writer.name("serialDataType").value(getSerialDataType().toString());
 
+                if (mFraming != null) {
+                    writer.name("framing").value(mFraming.toString());
+                }
+                if (getFraming() == FramingType.FIXED) {
+                    writer.name("frameLength").value(getFrameLength());
+                }
+                if (getFraming() == FramingType.LENGTH) {
+                    writer.name("lengthFieldOffset").value(getLengthFieldOffset());
+                    writer.name("lengthFieldSize").value(getLengthFieldSize());
+                }
+
                 if (getCharacteristicIntentMaps() != null) {
                     writer.name("characteristicMaps").beginObject();
                     for (Map.Entry<UUID, IntentMap> mapping : getCharacteristicIntentMaps().entrySet()) {
@@ -1273,6 +2267,21 @@ public class PttDriver implements Validatable {
                     writer.endArray();
                 }
 
+                if (!getGestureKeys().isEmpty()) {
+                    writer.name("gestureKeys").beginArray();
+                    for (GestureKey key : getGestureKeys()) {
+                        key.toJson(writer);
+                    }
+                    writer.endArray();
+                }
+                if (!getGestureChords().isEmpty()) {
+                    writer.name("gestureChords").beginArray();
+                    for (GestureChord chord : getGestureChords()) {
+                        chord.toJson(writer);
+                    }
+                    writer.endArray();
+                }
+
                 writer.endObject();
             } catch (Exception e) {
                 e.printStackTrace();
@@ -1281,7 +2290,6 @@ public class PttDriver implements Validatable {
             return writer;
         }
 
-        @NonNull
         public String toString() {
             return toStringBuilder(new StringBuilder(), "").toString();
         }
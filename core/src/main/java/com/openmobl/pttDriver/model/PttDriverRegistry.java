@@ -0,0 +1,114 @@
+package com.openmobl.pttDriver.model;
+
+import com.openmobl.pttDriver.platform.Log;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process wide cache of loaded drivers, so every connection, reconnection and editor showing a stored
+ * driver shares one validated {@link PttDriver} instead of loading its own.
+ *
+ * Entries are keyed by the id of the stored driver and checked against the hash of its JSON, a driver
+ * whose JSON changed is loaded again. The least recently used driver is evicted once the registry is
+ * full. Drivers handed out are {@link PttDriver#freeze() frozen} once loaded, as they are shared between
+ * threads: reading JSON into them throws and validating them does not change them.
+ */
+public class PttDriverRegistry {
+    private static final String TAG = PttDriverRegistry.class.getName();
+
+    public static final int DEFAULT_CAPACITY = 16;
+
+    private static final PttDriverRegistry sInstance = new PttDriverRegistry(DEFAULT_CAPACITY);
+
+    private static class CachedDriver {
+        final String mHash;
+        final PttDriver mDriver;
+
+        CachedDriver(String hash, PttDriver driver) {
+            mHash = hash;
+            mDriver = driver;
+        }
+    }
+
+    private final int mCapacity;
+    // Access ordered, the eldest entry is the least recently used
+    private final LinkedHashMap<Integer, CachedDriver> mDrivers;
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+
+    public static PttDriverRegistry getInstance() {
+        return sInstance;
+    }
+
+    public PttDriverRegistry(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+
+        mCapacity = capacity;
+        mDrivers = new LinkedHashMap<Integer, CachedDriver>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, CachedDriver> eldest) {
+                if (size() > mCapacity) {
+                    mEvictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the shared driver stored under the id, loading it when it is not cached or its JSON
+     * changed. Only valid drivers are cached, an invalid one is returned to the caller to report. Either
+     * way the driver is frozen.
+     *
+     * @param driverId id of the stored driver, drivers that were never stored (negative id) are not cached
+     * @param compiled compiled driver and the hash of the JSON it was compiled from, see {@link CompiledDriver}
+     */
+    public PttDriver get(int driverId, String json, byte[] compiled, String compiledHash) throws IOException {
+        // Keyed on the JSON itself, a compiled driver left behind by an edit must not hide it
+        String hash = CompiledDriver.hash(json);
+
+        synchronized (this) {
+            CachedDriver entry = mDrivers.get(driverId);
+
+            if (entry != null && entry.mHash.equals(hash)) {
+                mHits++;
+                return entry.mDriver;
+            }
+            mMisses++;
+        }
+
+        // Loaded outside the lock, two threads missing the same driver both load it and the last one wins
+        PttDriver driver = CompiledDriver.load(json, compiled, compiledHash);
+
+        driver.freeze();
+        if (driverId >= 0 && driver.isValid()) {
+            synchronized (this) {
+                mDrivers.put(driverId, new CachedDriver(hash, driver));
+            }
+        } else {
+            Log.v(TAG, "Not caching driver " + driverId);
+        }
+
+        return driver;
+    }
+
+    // Called when the stored driver is updated or removed
+    public synchronized void invalidate(int driverId) {
+        mDrivers.remove(driverId);
+    }
+
+    public synchronized void clear() {
+        mDrivers.clear();
+    }
+
+    public synchronized int size() { return mDrivers.size(); }
+    public int getCapacity() { return mCapacity; }
+    public synchronized long getHits() { return mHits; }
+    public synchronized long getMisses() { return mMisses; }
+    public synchronized long getEvictions() { return mEvictions; }
+}
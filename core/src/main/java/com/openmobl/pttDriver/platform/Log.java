@@ -0,0 +1,51 @@
+package com.openmobl.pttDriver.platform;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Logging for the core, with the priorities and methods of android.util.Log. Messages go to the
+ * logger of the {@link Platform}.
+ */
+public final class Log {
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    private Log() {
+    }
+
+    public static void v(String tag, String message) { println(VERBOSE, tag, message, null); }
+    public static void v(String tag, String message, Throwable tr) { println(VERBOSE, tag, message, tr); }
+    public static void d(String tag, String message) { println(DEBUG, tag, message, null); }
+    public static void d(String tag, String message, Throwable tr) { println(DEBUG, tag, message, tr); }
+    public static void i(String tag, String message) { println(INFO, tag, message, null); }
+    public static void i(String tag, String message, Throwable tr) { println(INFO, tag, message, tr); }
+    public static void w(String tag, String message) { println(WARN, tag, message, null); }
+    public static void w(String tag, String message, Throwable tr) { println(WARN, tag, message, tr); }
+    public static void e(String tag, String message) { println(ERROR, tag, message, null); }
+    public static void e(String tag, String message, Throwable tr) { println(ERROR, tag, message, tr); }
+
+    private static void println(int priority, String tag, String message, Throwable tr) {
+        if (tr != null) {
+            StringWriter trace = new StringWriter();
+
+            tr.printStackTrace(new PrintWriter(trace));
+            message = message + '\n' + trace;
+        }
+
+        Platform.getLogger().println(priority, tag, message);
+    }
+
+    static char priorityLetter(int priority) {
+        switch (priority) {
+            case VERBOSE: return 'V';
+            case DEBUG: return 'D';
+            case INFO: return 'I';
+            case WARN: return 'W';
+            default: return 'E';
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.openmobl.pttDriver.platform;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What the core needs from the platform it runs on: logging, a monotonic clock and key codes.
+ *
+ * The defaults suit a plain JVM. The app installs the Android implementations when it starts, before
+ * any core class is used.
+ */
+public final class Platform {
+    public static final int KEYCODE_UNKNOWN = 0;
+
+    public interface Logger {
+        void println(int priority, String tag, String message);
+    }
+
+    public interface Clock {
+        /**
+         * @return nanoseconds of a monotonic clock, SystemClock.elapsedRealtimeNanos() on Android
+         */
+        long nanoTime();
+    }
+
+    public interface KeyCodes {
+        /**
+         * @return the key code named, as in KeyEvent.keyCodeFromString(), or KEYCODE_UNKNOWN
+         */
+        int keyCodeFromString(String name);
+    }
+
+    private static volatile Logger sLogger = new JvmLogger();
+    private static volatile Clock sClock = System::nanoTime;
+    private static volatile KeyCodes sKeyCodes = new JvmKeyCodes();
+    private static volatile boolean sDebug;
+
+    private Platform() {
+    }
+
+    public static void setLogger(Logger logger) { sLogger = logger; }
+    public static Logger getLogger() { return sLogger; }
+
+    public static void setClock(Clock clock) { sClock = clock; }
+    public static Clock getClock() { return sClock; }
+
+    public static void setKeyCodes(KeyCodes keyCodes) { sKeyCodes = keyCodes; }
+    public static KeyCodes getKeyCodes() { return sKeyCodes; }
+
+    // Enables the logging of every event on hot paths, as in debug builds of the app
+    public static void setDebug(boolean debug) { sDebug = debug; }
+    public static boolean isDebug() { return sDebug; }
+
+    public static long nanoTime() {
+        return sClock.nanoTime();
+    }
+
+    // Prints info and above to stderr, everything in debug
+    private static class JvmLogger implements Logger {
+        @Override
+        public void println(int priority, String tag, String message) {
+            if (priority >= Log.INFO || sDebug)
+                System.err.println(Log.priorityLetter(priority) + "/" + tag + ": " + message);
+        }
+    }
+
+    // The key codes of KeyEvent that headsets and remote speaker mics send, or their numbers
+    private static class JvmKeyCodes implements KeyCodes {
+        private static final String PREFIX = "KEYCODE_";
+        private static final String[] NAMES = {
+                "UNKNOWN", "SOFT_LEFT", "SOFT_RIGHT", "HOME", "BACK", "CALL", "ENDCALL",
+                "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "STAR", "POUND",
+                "DPAD_UP", "DPAD_DOWN", "DPAD_LEFT", "DPAD_RIGHT", "DPAD_CENTER",
+                "VOLUME_UP", "VOLUME_DOWN", "POWER", "CAMERA", "CLEAR",
+                "A", "B", "C", "D", "E", "F", "G", "H", "I", "J", "K", "L", "M",
+                "N", "O", "P", "Q", "R", "S", "T", "U", "V", "W", "X", "Y", "Z",
+                "COMMA", "PERIOD", "ALT_LEFT", "ALT_RIGHT", "SHIFT_LEFT", "SHIFT_RIGHT", "TAB", "SPACE",
+                "SYM", "EXPLORER", "ENVELOPE", "ENTER", "DEL", "GRAVE", "MINUS", "EQUALS",
+                "LEFT_BRACKET", "RIGHT_BRACKET", "BACKSLASH", "SEMICOLON", "APOSTROPHE", "SLASH",
+                "AT", "NUM", "HEADSETHOOK", "FOCUS", "PLUS", "MENU", "NOTIFICATION", "SEARCH",
+                "MEDIA_PLAY_PAUSE", "MEDIA_STOP", "MEDIA_NEXT", "MEDIA_PREVIOUS", "MEDIA_REWIND",
+                "MEDIA_FAST_FORWARD", "MUTE", "PAGE_UP", "PAGE_DOWN", "PICTSYMBOLS", "SWITCH_CHARSET",
+                "BUTTON_A", "BUTTON_B", "BUTTON_C", "BUTTON_X", "BUTTON_Y", "BUTTON_Z",
+                "BUTTON_L1", "BUTTON_R1", "BUTTON_L2", "BUTTON_R2", "BUTTON_THUMBL", "BUTTON_THUMBR",
+                "BUTTON_START", "BUTTON_SELECT", "BUTTON_MODE", "ESCAPE", "FORWARD_DEL",
+                "CTRL_LEFT", "CTRL_RIGHT", "CAPS_LOCK", "SCROLL_LOCK", "META_LEFT", "META_RIGHT",
+                "FUNCTION", "SYSRQ", "BREAK", "MOVE_HOME", "MOVE_END", "INSERT", "FORWARD",
+                "MEDIA_PLAY", "MEDIA_PAUSE", "MEDIA_CLOSE", "MEDIA_EJECT", "MEDIA_RECORD",
+                "F1", "F2", "F3", "F4", "F5", "F6", "F7", "F8", "F9", "F10", "F11", "F12"
+        };
+        private static final int VOLUME_MUTE = 164;
+        private static final int BUTTON_1 = 188;
+        private static final int BUTTON_COUNT = 16;
+
+        private final Map<String, Integer> mKeyCodes = new HashMap<>();
+
+        JvmKeyCodes() {
+            for (int i = 0; i < NAMES.length; i++) {
+                mKeyCodes.put(PREFIX + NAMES[i], i);
+            }
+            mKeyCodes.put(PREFIX + "VOLUME_MUTE", VOLUME_MUTE);
+            for (int i = 0; i < BUTTON_COUNT; i++) {
+                mKeyCodes.put(PREFIX + "BUTTON_" + (i + 1), BUTTON_1 + i);
+            }
+        }
+
+        @Override
+        public int keyCodeFromString(String name) {
+            Integer keyCode = mKeyCodes.get(name);
+
+            if (keyCode != null)
+                return keyCode;
+
+            try {
+                return Math.max(Integer.parseInt(name), KEYCODE_UNKNOWN);
+            } catch (NumberFormatException e) {
+                return KEYCODE_UNKNOWN;
+            }
+        }
+    }
+}
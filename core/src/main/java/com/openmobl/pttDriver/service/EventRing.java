@@ -0,0 +1,107 @@
+package com.openmobl.pttDriver.service;
+
+import com.openmobl.pttDriver.bt.SerialFramer;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single producer, single consumer ring of device reads, the hand over from a socket thread to the
+ * thread that dispatches its events.
+ *
+ * Reads are copied into preallocated slots, so nothing is allocated per event. Only one thread may
+ * offer and only one thread may drain. A slot is published to the consumer by the ordered write of
+ * the tail and handed back to the producer by the ordered write of the head.
+ */
+public class EventRing {
+    public static final int SLOT_COUNT = 64; // Power of two
+    // Holds any frame of a framer, and the reads of the sockets, which are smaller
+    public static final int SLOT_SIZE = SerialFramer.MAX_FRAME_SIZE;
+
+    public interface Consumer {
+        void onEvent(byte[] data, int length, UUID service, UUID characteristic, long readTime, long time);
+    }
+
+    private final byte[][] mSlotData = new byte[SLOT_COUNT][SLOT_SIZE];
+    private final int[] mSlotLength = new int[SLOT_COUNT];
+    private final UUID[] mSlotService = new UUID[SLOT_COUNT];
+    private final UUID[] mSlotCharacteristic = new UUID[SLOT_COUNT];
+    private final long[] mSlotReadTime = new long[SLOT_COUNT];
+    private final long[] mSlotTime = new long[SLOT_COUNT];
+
+    // Next slot to consume, only advanced by the consumer
+    private final AtomicLong mHead = new AtomicLong();
+    // Next slot to fill, only advanced by the producer
+    private final AtomicLong mTail = new AtomicLong();
+
+    private volatile long mMaxDepth;
+
+    /**
+     * Copies a read into the next slot, from the producer thread.
+     *
+     * @param readTime socket read time, as taken from the latency tracer
+     * @param time when the read was offered
+     * @return false if the ring is full or the read is larger than a slot
+     */
+    public boolean offer(byte[] buffer, int offset, int length, UUID service, UUID characteristic, long readTime, long time) {
+        long tail = mTail.get();
+        long depth = tail - mHead.get();
+
+        if (depth >= SLOT_COUNT || length > SLOT_SIZE)
+            return false;
+
+        int slot = (int)(tail & (SLOT_COUNT - 1));
+
+        System.arraycopy(buffer, offset, mSlotData[slot], 0, length);
+        mSlotLength[slot] = length;
+        mSlotService[slot] = service;
+        mSlotCharacteristic[slot] = characteristic;
+        mSlotReadTime[slot] = readTime;
+        mSlotTime[slot] = time;
+
+        // Publishes the slot contents to the consumer
+        mTail.lazySet(tail + 1);
+
+        if (depth + 1 > mMaxDepth)
+            mMaxDepth = depth + 1;
+
+        return true;
+    }
+
+    /**
+     * Hands every published read to the consumer in order, from the consumer thread. The data of a
+     * slot is only valid until the consumer returns.
+     *
+     * @return the number of reads consumed
+     */
+    public int drain(Consumer consumer) {
+        long head = mHead.get();
+        long start = head;
+
+        while (head < mTail.get()) {
+            int slot = (int)(head & (SLOT_COUNT - 1));
+
+            try {
+                consumer.onEvent(mSlotData[slot], mSlotLength[slot], mSlotService[slot], mSlotCharacteristic[slot],
+                        mSlotReadTime[slot], mSlotTime[slot]);
+            } finally {
+                // Hands the slot back to the producer
+                mHead.lazySet(++head);
+            }
+        }
+
+        return (int)(head - start);
+    }
+
+    public boolean isEmpty() {
+        return mHead.get() == mTail.get();
+    }
+
+    public int getDepth() {
+        return (int)(mTail.get() - mHead.get());
+    }
+
+    public long getMaxDepth() {
+        return mMaxDepth;
+    }
+}
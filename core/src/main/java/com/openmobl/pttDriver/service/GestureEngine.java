@@ -0,0 +1,303 @@
+package com.openmobl.pttDriver.service;
+
+import com.openmobl.pttDriver.model.IntentDescriptor;
+import com.openmobl.pttDriver.model.PttDriver;
+import com.openmobl.pttDriver.platform.Log;
+import com.openmobl.pttDriver.platform.Platform;
+import com.openmobl.pttDriver.utils.TimerWheel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns the key edges of a driver into gestures: long press, hold repeat, double press and chords.
+ *
+ * Only keys listed in gestureKeys are handled here, every other intent is left to the caller and
+ * keeps its latency. A key with gestures cannot know a plain press from the start of a gesture, so
+ * its plain press is sent, down then up, once the gesture is ruled out.
+ *
+ * State is preallocated per key and every key has a single reusable timer. Must be used from the
+ * thread of the scheduler.
+ */
+public class GestureEngine {
+    private static final String TAG = GestureEngine.class.getName();
+
+    public interface IntentListener {
+        void onIntent(IntentDescriptor intent);
+    }
+
+    private enum KeyState {
+        IDLE,
+        // Down, waiting for the other keys of a chord
+        CHORD_WAIT,
+        // Down, waiting for the long press timeout
+        PRESSED,
+        // Held past the long press timeout, repeating if configured
+        LONG_HELD,
+        // Released, waiting for a second press
+        WAIT_DOUBLE,
+        // Down sent as is, the up follows it
+        PASSED,
+        // Consumed by a gesture, the up is dropped
+        CONSUMED
+    }
+
+    private class Key extends TimerWheel.Timeout {
+        final IntentDescriptor mDown;
+        final IntentDescriptor mUp;
+        final IntentDescriptor mLongPress;
+        final IntentDescriptor mDoublePress;
+        final IntentDescriptor mHoldRepeat;
+        final int mLongPressTimeout;
+        final int mDoublePressTimeout;
+        final int mHoldRepeatInterval;
+        final boolean mHasGestures;
+
+        Chord[] mChords = new Chord[0];
+        int mChordTimeout;
+        KeyState mState = KeyState.IDLE;
+
+        Key(PttDriver.PttReadObj readObj, PttDriver.GestureKey config) {
+            mDown = readObj.getIntentDescriptor(config.getDown());
+            mUp = readObj.getIntentDescriptor(config.getUp());
+            mLongPress = descriptor(readObj, config.getLongPress());
+            mDoublePress = descriptor(readObj, config.getDoublePress());
+            mHoldRepeat = descriptor(readObj, config.getHoldRepeat());
+            mLongPressTimeout = config.getLongPressTimeout();
+            mDoublePressTimeout = config.getDoublePressTimeout();
+            mHoldRepeatInterval = config.getHoldRepeatInterval();
+            mHasGestures = config.hasGestures();
+        }
+
+        @Override
+        protected void onTimeout(long now) {
+            onKeyTimeout(this);
+        }
+    }
+
+    private static class Chord {
+        final IntentDescriptor mIntent;
+        final Key[] mKeys;
+
+        Chord(IntentDescriptor intent, Key[] keys) {
+            mIntent = intent;
+            mKeys = keys;
+        }
+    }
+
+    private final TimeoutScheduler mScheduler;
+    private final IntentListener mListener;
+    private final Key[] mKeys;
+    // Indexed by descriptor id
+    private final Key[] mKeysByDown;
+    private final Key[] mKeysByUp;
+
+    private GestureEngine(TimeoutScheduler scheduler, IntentListener listener, PttDriver.PttReadObj readObj) {
+        mScheduler = scheduler;
+        mListener = listener;
+        mKeysByDown = new Key[readObj.getIntentDescriptorCount()];
+        mKeysByUp = new Key[readObj.getIntentDescriptorCount()];
+
+        List<Key> keys = new ArrayList<>();
+
+        for (PttDriver.GestureKey config : readObj.getGestureKeys()) {
+            Key key = new Key(readObj, config);
+
+            keys.add(key);
+            mKeysByDown[key.mDown.getId()] = key;
+            mKeysByUp[key.mUp.getId()] = key;
+        }
+
+        for (PttDriver.GestureChord config : readObj.getGestureChords()) {
+            Key[] members = new Key[config.getKeys().size()];
+
+            for (int i = 0; i < members.length; i++) {
+                members[i] = mKeysByDown[readObj.getIntentDescriptor(config.getKeys().get(i)).getId()];
+            }
+
+            Chord chord = new Chord(readObj.getIntentDescriptor(config.getIntent()), members);
+
+            for (Key member : members) {
+                Chord[] chords = new Chord[member.mChords.length + 1];
+
+                System.arraycopy(member.mChords, 0, chords, 0, member.mChords.length);
+                chords[member.mChords.length] = chord;
+                member.mChords = chords;
+                member.mChordTimeout = Math.max(member.mChordTimeout, config.getChordTimeout());
+            }
+        }
+
+        // Keys without gestures or chords pass straight through
+        for (Key key : keys) {
+            if (!key.mHasGestures && key.mChords.length == 0) {
+                mKeysByDown[key.mDown.getId()] = null;
+                mKeysByUp[key.mUp.getId()] = null;
+            }
+        }
+
+        mKeys = keys.toArray(new Key[0]);
+    }
+
+    /**
+     * @return an engine for the gestures of the driver, or null if it defines none
+     */
+    public static GestureEngine create(TimeoutScheduler scheduler, IntentListener listener, PttDriver.PttReadObj readObj) {
+        if (readObj.getGestureKeys().isEmpty() || !readObj.isValid())
+            return null;
+
+        return new GestureEngine(scheduler, listener, readObj);
+    }
+
+    private static IntentDescriptor descriptor(PttDriver.PttReadObj readObj, String value) {
+        return value != null ? readObj.getIntentDescriptor(value) : null;
+    }
+
+    /**
+     * @return true if the intent was taken by the engine, false if the caller sends it as usual
+     */
+    public boolean process(IntentDescriptor intent) {
+        Key key = mKeysByDown[intent.getId()];
+
+        if (key != null) {
+            onKeyDown(key);
+            return true;
+        }
+
+        key = mKeysByUp[intent.getId()];
+
+        if (key != null) {
+            onKeyUp(key);
+            return true;
+        }
+
+        return false;
+    }
+
+    public void reset() {
+        for (Key key : mKeys) {
+            mScheduler.cancel(key);
+            key.mState = KeyState.IDLE;
+        }
+    }
+
+    private void onKeyDown(Key key) {
+        switch (key.mState) {
+            case IDLE:
+                if (key.mChords.length > 0) {
+                    key.mState = KeyState.CHORD_WAIT;
+                    mScheduler.schedule(key, key.mChordTimeout);
+                    checkChords(key);
+                } else {
+                    startPress(key);
+                }
+                break;
+            case WAIT_DOUBLE:
+                mScheduler.cancel(key);
+                key.mState = KeyState.CONSUMED;
+                send(key.mDoublePress);
+                break;
+            default:
+                // Repeated down edges while held
+                break;
+        }
+    }
+
+    private void onKeyUp(Key key) {
+        switch (key.mState) {
+            case CHORD_WAIT:
+                // Released before the chord completed, a plain press of this key
+                mScheduler.cancel(key);
+                startPress(key);
+                onKeyUp(key);
+                break;
+            case PRESSED:
+                mScheduler.cancel(key);
+                if (key.mDoublePress != null) {
+                    key.mState = KeyState.WAIT_DOUBLE;
+                    mScheduler.schedule(key, key.mDoublePressTimeout);
+                } else {
+                    key.mState = KeyState.IDLE;
+                    send(key.mDown);
+                    send(key.mUp);
+                }
+                break;
+            case LONG_HELD:
+                mScheduler.cancel(key);
+                key.mState = KeyState.IDLE;
+                break;
+            case CONSUMED:
+                key.mState = KeyState.IDLE;
+                break;
+            case PASSED:
+            case IDLE:
+                key.mState = KeyState.IDLE;
+                send(key.mUp);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void onKeyTimeout(Key key) {
+        switch (key.mState) {
+            case CHORD_WAIT:
+                startPress(key);
+                break;
+            case PRESSED:
+                key.mState = KeyState.LONG_HELD;
+                send(key.mLongPress != null ? key.mLongPress : key.mHoldRepeat);
+                if (key.mHoldRepeat != null)
+                    mScheduler.schedule(key, key.mHoldRepeatInterval);
+                break;
+            case LONG_HELD:
+                send(key.mHoldRepeat);
+                mScheduler.schedule(key, key.mHoldRepeatInterval);
+                break;
+            case WAIT_DOUBLE:
+                key.mState = KeyState.IDLE;
+                send(key.mDown);
+                send(key.mUp);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void startPress(Key key) {
+        if (!key.mHasGestures) {
+            key.mState = KeyState.PASSED;
+            send(key.mDown);
+        } else {
+            key.mState = KeyState.PRESSED;
+            if (key.mLongPress != null || key.mHoldRepeat != null)
+                mScheduler.schedule(key, key.mLongPressTimeout);
+        }
+    }
+
+    private void checkChords(Key key) {
+        for (Chord chord : key.mChords) {
+            boolean complete = true;
+
+            for (Key member : chord.mKeys) {
+                complete &= member.mState == KeyState.CHORD_WAIT;
+            }
+
+            if (complete) {
+                for (Key member : chord.mKeys) {
+                    mScheduler.cancel(member);
+                    member.mState = KeyState.CONSUMED;
+                }
+
+                send(chord.mIntent);
+                return;
+            }
+        }
+    }
+
+    private void send(IntentDescriptor intent) {
+        if (Platform.isDebug())
+            Log.v(TAG, "Gesture intent: " + intent);
+
+        mListener.onIntent(intent);
+    }
+}
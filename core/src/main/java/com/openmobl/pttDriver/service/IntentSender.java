@@ -0,0 +1,144 @@
+package com.openmobl.pttDriver.service;
+
+import com.openmobl.pttDriver.model.IntentDeDuplicator;
+import com.openmobl.pttDriver.model.IntentDescriptor;
+import com.openmobl.pttDriver.model.PttDriver;
+import com.openmobl.pttDriver.platform.Log;
+import com.openmobl.pttDriver.platform.Platform;
+import com.openmobl.pttDriver.utils.LatencyTracer;
+import com.openmobl.pttDriver.utils.TimerWheel;
+
+/**
+ * Sends the intents matched for a driver, applying de-duplication and delays.
+ *
+ * Each intent has one reusable pending entry on the scheduler. When the driver defines a
+ * pttUpKeyIntent, a release arriving while the ptt down intent is still delayed cancels the press
+ * and is dropped itself, so a quick tap sends nothing. Without one any other intent cancels the
+ * delayed ones, as the last intent wins.
+ *
+ * Must be used from the thread of the scheduler.
+ */
+public class IntentSender {
+    private static final String TAG = IntentSender.class.getName();
+
+    private class PendingIntent extends TimerWheel.Timeout {
+        private final IntentDescriptor mIntent;
+        // Trace of the event that scheduled it
+        private boolean mTraced;
+        private long mTraceStartNanos;
+        private long mTraceLastMarkNanos;
+
+        PendingIntent(IntentDescriptor intent) {
+            mIntent = intent;
+        }
+
+        @Override
+        protected void onTimeout(long now) {
+            if (mTraced)
+                mTracer.resumeEvent(mTraceStartNanos, mTraceLastMarkNanos);
+
+            broadcast(mIntent);
+
+            if (mTraced)
+                mTracer.endEvent();
+        }
+    }
+
+    private final PttEventPipeline.IntentSink mSink;
+    private final TimeoutScheduler mScheduler;
+    private final LatencyTracer mTracer;
+    private final MetricsRegistry mMetrics;
+    private final IntentDeDuplicator mDeDuplicator;
+    private final PendingIntent[] mPending;
+    private final IntentDescriptor mPttDownIntent;
+    private final IntentDescriptor mPttUpIntent;
+    private boolean mDeDuplicate = true;
+
+    public IntentSender(PttEventPipeline.IntentSink sink, TimeoutScheduler scheduler, LatencyTracer tracer,
+                        MetricsRegistry metrics, PttDriver.PttReadObj readObj) {
+        mSink = sink;
+        mScheduler = scheduler;
+        mTracer = tracer;
+        mMetrics = metrics;
+        mDeDuplicator = new IntentDeDuplicator(readObj);
+        mPending = new PendingIntent[readObj.getIntentDescriptorCount()];
+
+        for (IntentDescriptor intent : readObj.getIntentDescriptors()) {
+            mPending[intent.getId()] = new PendingIntent(intent);
+        }
+
+        mPttDownIntent = readObj.getPttDownKeyIntent() != null ? readObj.getIntentDescriptor(readObj.getPttDownKeyIntent()) : null;
+        mPttUpIntent = readObj.getPttUpKeyIntent() != null ? readObj.getIntentDescriptor(readObj.getPttUpKeyIntent()) : null;
+    }
+
+    // Off to send every intent whatever the de-dupe settings of the driver, for load tests
+    public void setDeDuplicate(boolean deDuplicate) {
+        mDeDuplicate = deDuplicate;
+    }
+
+    public void send(IntentDescriptor intent, int delayMillis) {
+        if (intent == mPttUpIntent && mPttDownIntent != null) {
+            PendingIntent press = mPending[mPttDownIntent.getId()];
+
+            if (press.isPending()) {
+                Log.d(TAG, "Released within the ptt down delay, dropping " + mPttDownIntent + " and " + intent);
+
+                mScheduler.cancel(press);
+                mDeDuplicator.forget(mPttDownIntent);
+                mMetrics.increment(MetricsRegistry.Counter.CANCELLED_PRESSES);
+                return;
+            }
+        }
+
+        boolean duplicate = mDeDuplicate && !mDeDuplicator.shouldSend(intent, mScheduler.nowNanos());
+
+        mTracer.mark(LatencyTracer.Stage.DEDUPE);
+        if (duplicate) {
+            mMetrics.increment(MetricsRegistry.Counter.DEDUPE_DROPS);
+            return;
+        }
+
+        if (mPttUpIntent == null)
+            cancelPending();
+
+        if (delayMillis > 0) {
+            PendingIntent pending = mPending[intent.getId()];
+
+            mScheduler.schedule(pending, delayMillis);
+            mTracer.mark(LatencyTracer.Stage.SCHEDULE);
+
+            pending.mTraced = mTracer.isEventOpen();
+            pending.mTraceStartNanos = mTracer.getEventStartNanos();
+            pending.mTraceLastMarkNanos = mTracer.getLastMarkNanos();
+        } else {
+            mTracer.mark(LatencyTracer.Stage.SCHEDULE);
+            broadcast(intent);
+        }
+    }
+
+    public void cancelPending() {
+        for (PendingIntent pending : mPending) {
+            if (pending.isPending())
+                mScheduler.cancel(pending);
+        }
+    }
+
+    public void reset() {
+        cancelPending();
+        mDeDuplicator.reset();
+    }
+
+    private void broadcast(IntentDescriptor intent) {
+        try {
+            if (Platform.isDebug())
+                Log.d(TAG, "Sending intent: " + intent);
+
+            mSink.send(intent);
+            mTracer.markSent(intent);
+            mMetrics.increment(MetricsRegistry.Counter.INTENTS_SENT);
+            // libsu and `am broadcast -a <intentName>` to support protected intents?
+        } catch (Exception e) {
+            Log.d(TAG, "Exception sending intent: " + e);
+        }
+    }
+}
@@ -0,0 +1,485 @@
+package com.openmobl.pttDriver.service;
+
+import com.openmobl.pttDriver.bt.FramingSerialListener;
+import com.openmobl.pttDriver.bt.LoopbackSerialSocket;
+import com.openmobl.pttDriver.bt.SerialFramer;
+import com.openmobl.pttDriver.bt.SerialListener;
+import com.openmobl.pttDriver.bt.hfp.AtCommandHandler;
+import com.openmobl.pttDriver.bt.hfp.AtCommandResult;
+import com.openmobl.pttDriver.bt.hfp.AtParser;
+import com.openmobl.pttDriver.model.IntentDescriptor;
+import com.openmobl.pttDriver.model.PttDriver;
+import com.openmobl.pttDriver.platform.Platform;
+import com.openmobl.pttDriver.utils.LatencyHistogram;
+import com.openmobl.pttDriver.utils.LatencyTracer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays synthetic RSM traffic at a set rate into a {@link LoopbackSerialSocket} and runs it through
+ * the pipeline of a driver as the service does: framing on the socket thread, then the
+ * {@link EventRing} of DeviceEventDispatcher to one dispatch thread that matches, answers AT
+ * commands, de-dupes, delays and dispatches.
+ *
+ * The traffic of a {@link Profile} is a repeating sequence of presses and releases with some other
+ * keys, AT commands for hands-free devices and battery reports. Frames can be sent in bursts at the
+ * same average rate, and split into fragments to exercise reassembly. Presses and releases follow
+ * each other far closer than the de-dupe window of a driver, so most are dropped as duplicates and
+ * the latency histograms only see the few that get through. Turning de-dupe off sends an intent for
+ * every key frame, to measure the whole path at the offered rate.
+ *
+ * Each run reports the rate achieved, the queue drops and the histograms of the latency tracer, plus
+ * how late delayed intents fire, each with the number of samples it holds. A sweep doubles the rate until the pipeline saturates, which is when
+ * frames are dropped or fewer than 95% of the offered rate are read.
+ *
+ * Usage: LoadGenerator driver.json profile [--rate n] [--seconds n] [--burst n] [--fragment n] [--no-dedupe] [--sweep]
+ */
+public class LoadGenerator {
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final double SATURATED_RATIO = 0.95;
+
+    public enum Profile {
+        // SPP, ASCII keys ended by NUL
+        MOTOROLA_OCW(new String[] { "+PTTE=P\0", "+PTTB1=R\0", "+PTTB2=R\0" }, new String[0], "\0", true),
+        B01(new String[] { "C:SOS1\0", "C:VP\0", "C:VM\0" }, new String[0], "\0", true),
+        // HFP, keys among the AT commands of the hands-free link, ended by CR
+        HYTERA_HFP(new String[] { "P1\r", "P2\r", "C:SOS1\r" },
+                new String[] { "AT+VGS=9\r", "AT+VGM=8\r", "AT+CIND?\r", "AT+CSQ\r" }, "\r", false);
+
+        // Out of every CYCLE frames, all others are presses and releases
+        static final int CYCLE = 20;
+        static final int KEYS_PER_CYCLE = 2;
+        static final int AT_PER_CYCLE = 2;
+        static final int BATTERY_EVERY = 100;
+
+        private final byte[] mPress;
+        private final byte[] mRelease;
+        private final byte[][] mKeys;
+        private final byte[][] mAtCommands;
+        private final boolean mBattery;
+
+        Profile(String[] keys, String[] atCommands, String eol, boolean battery) {
+            mPress = ("+PTT=P" + eol).getBytes(StandardCharsets.US_ASCII);
+            mRelease = ("+PTT=R" + eol).getBytes(StandardCharsets.US_ASCII);
+            mKeys = toBytes(keys);
+            mAtCommands = toBytes(atCommands);
+            mBattery = battery;
+        }
+
+        private static byte[][] toBytes(String[] values) {
+            byte[][] bytes = new byte[values.length][];
+
+            for (int i = 0; i < values.length; i++) {
+                bytes[i] = values[i].getBytes(StandardCharsets.US_ASCII);
+            }
+            return bytes;
+        }
+
+        // The frame n of the sequence
+        byte[] frame(long n) {
+            int position = (int)(n % CYCLE);
+            long cycle = n / CYCLE;
+
+            if (position < KEYS_PER_CYCLE)
+                return mKeys[(int)((cycle * KEYS_PER_CYCLE + position) % mKeys.length)];
+            if (mAtCommands.length > 0 && position < KEYS_PER_CYCLE + AT_PER_CYCLE)
+                return mAtCommands[(int)((cycle * AT_PER_CYCLE + position) % mAtCommands.length)];
+
+            return position % 2 == 0 ? mPress : mRelease;
+        }
+
+        boolean hasBattery() { return mBattery; }
+    }
+
+    public static class Result {
+        private final int mOfferedRate;
+        private final long mSent;
+        private final long mRead;
+        private final long mDropped;
+        private final long mIntents;
+        private final long mBatteryEvents;
+        private final long mMaxQueueDepth;
+        private final long mElapsedNanos;
+        private final LatencyTracer mTracer;
+        private final LatencyHistogram mTimerLateness;
+        private final MetricsRegistry mMetrics;
+
+        Result(int offeredRate, long sent, long read, long dropped, long intents, long batteryEvents, long maxQueueDepth,
+               long elapsedNanos, LatencyTracer tracer, LatencyHistogram timerLateness, MetricsRegistry metrics) {
+            mOfferedRate = offeredRate;
+            mSent = sent;
+            mRead = read;
+            mDropped = dropped;
+            mIntents = intents;
+            mBatteryEvents = batteryEvents;
+            mMaxQueueDepth = maxQueueDepth;
+            mElapsedNanos = elapsedNanos;
+            mTracer = tracer;
+            mTimerLateness = timerLateness;
+            mMetrics = metrics;
+        }
+
+        public int getOfferedRate() { return mOfferedRate; }
+        public double getReadRate() { return mElapsedNanos > 0 ? mRead * 1e9 / mElapsedNanos : 0; }
+        public long getSent() { return mSent; }
+        public long getRead() { return mRead; }
+        public long getDropped() { return mDropped; }
+        public long getIntents() { return mIntents; }
+        public long getBatteryEvents() { return mBatteryEvents; }
+        public long getMaxQueueDepth() { return mMaxQueueDepth; }
+        public LatencyTracer getTracer() { return mTracer; }
+        // Time between the deadline of a delayed intent or gesture and when it fired
+        public LatencyHistogram getTimerLateness() { return mTimerLateness; }
+        public MetricsRegistry getMetrics() { return mMetrics; }
+
+        public boolean isSaturated() {
+            return mDropped > 0 || getReadRate() < mOfferedRate * SATURATED_RATIO;
+        }
+
+        public void report(PrintStream out) {
+            out.println(String.format(Locale.US, "offered %d frames/s, read %.0f frames/s, sent %d, dropped %d, max queue %d",
+                    mOfferedRate, getReadRate(), mSent, mDropped, mMaxQueueDepth));
+            out.println("intents sent: " + mIntents +
+                    ", unmatched: " + mMetrics.get(MetricsRegistry.Counter.UNMATCHED_KEYS) +
+                    ", de-dupe drops: " + mMetrics.get(MetricsRegistry.Counter.DEDUPE_DROPS) +
+                    ", cancelled presses: " + mMetrics.get(MetricsRegistry.Counter.CANCELLED_PRESSES) +
+                    ", battery events: " + mBatteryEvents);
+            out.print(mTracer.report());
+            out.println(String.format(Locale.US, "timer lateness: n=%d p50=%.2f p99=%.2f max=%.2f ms",
+                    mTimerLateness.getCount(),
+                    mTimerLateness.getPercentileNanos(50) / 1e6,
+                    mTimerLateness.getPercentileNanos(99) / 1e6,
+                    mTimerLateness.getMaxNanos() / 1e6));
+        }
+    }
+
+    /**
+     * The dispatch side: frames handed over from the socket thread and handled on a thread of its
+     * own, with the timeouts of the pipeline fired on that thread as they come due.
+     */
+    private class Dispatcher implements SerialListener, Runnable {
+        private final EventRing mRing = new EventRing();
+        private final EventRing.Consumer mProcess = this::process;
+
+        private final LoopbackSerialSocket mSocket;
+        private final LatencyTracer mTracer;
+        private final MetricsRegistry mMetrics;
+        private final VirtualScheduler mScheduler;
+        private final PttEventPipeline mPipeline;
+        private final AtParser mAtParser;
+        private final LatencyHistogram mTimerLateness = new LatencyHistogram();
+        private final Thread mThread;
+
+        private volatile boolean mRunning = true;
+        private long mDropped;
+        private long mIntents;
+        private long mBatteryEvents;
+        // Set while the scheduler fires timeouts, so only timed intents count towards the lateness
+        private boolean mFiringTimeouts;
+
+        Dispatcher(LoopbackSerialSocket socket, LatencyTracer tracer, MetricsRegistry metrics) {
+            mSocket = socket;
+            mTracer = tracer;
+            mMetrics = metrics;
+            mScheduler = new VirtualScheduler(Platform.nanoTime());
+            mPipeline = new PttEventPipeline(mDriver, mScheduler, this::onIntent, tracer, metrics);
+            mPipeline.setDeDuplicate(mDeDuplicate);
+            mAtParser = mDriver.getType() == PttDriver.ConnectionType.HFP ? createAtParser() : null;
+            mThread = new Thread(this, "LoadGenerator dispatch");
+        }
+
+        void start() {
+            mThread.start();
+        }
+
+        void stop() throws InterruptedException {
+            mRunning = false;
+            LockSupport.unpark(mThread);
+            mThread.join();
+        }
+
+        private void onIntent(IntentDescriptor intent) {
+            // Timeouts fire at their deadline in virtual time, the difference is how late the thread got to them
+            if (mFiringTimeouts)
+                mTimerLateness.record(Platform.nanoTime() - mScheduler.nowNanos());
+            mIntents++;
+        }
+
+        @Override
+        public void onSerialRead(byte[] data, UUID service, UUID characteristic) {
+            onSerialRead(data, 0, data.length, service, characteristic);
+        }
+
+        @Override
+        public void onSerialRead(byte[] buffer, int offset, int length, UUID service, UUID characteristic) {
+            long now = LatencyTracer.now();
+
+            mMetrics.increment(MetricsRegistry.Counter.FRAMES_DECODED);
+            if (!mRing.offer(buffer, offset, length, service, characteristic, mTracer.takeSocketRead(now), now)) {
+                mDropped++;
+                mMetrics.increment(MetricsRegistry.Counter.QUEUE_DROPS);
+                return;
+            }
+
+            LockSupport.unpark(mThread);
+        }
+
+        @Override
+        public void run() {
+            while (mRunning || !mRing.isEmpty()) {
+                mFiringTimeouts = true;
+                mScheduler.advanceTo(Platform.nanoTime());
+                mFiringTimeouts = false;
+
+                if (mRing.isEmpty()) {
+                    long untilDeadline = mScheduler.nextDeadline() - Platform.nanoTime();
+
+                    LockSupport.parkNanos(Math.max(0, Math.min(untilDeadline, IDLE_PARK_NANOS)));
+                    continue;
+                }
+
+                mRing.drain(mProcess);
+            }
+        }
+
+        // What the service does with a frame
+        private void process(byte[] frame, int length, UUID service, UUID characteristic, long readTime, long time) {
+            mTracer.startEvent(readTime, time);
+
+            IntentDescriptor intent = mPipeline.match(frame, 0, length, characteristic);
+
+            if (mAtParser != null) {
+                AtCommandResult result = intent == null ?
+                        mAtParser.process(new String(frame, 0, length, StandardCharsets.US_ASCII)) :
+                        new AtCommandResult(AtCommandResult.OK);
+
+                try {
+                    mSocket.write(result.toString().getBytes(StandardCharsets.US_ASCII));
+                } catch (IOException ignored) {
+                }
+            }
+
+            mPipeline.dispatch(intent);
+            mTracer.endEvent();
+        }
+
+        @Override public void onSerialConnect() { }
+        @Override public void onSerialConnect(UUID service, UUID characteristic) { }
+        @Override public void onSerialConnectError(Exception e) { }
+        @Override public void onSerialDisconnect() { }
+        @Override public void onSerialIoError(Exception e) { }
+
+        @Override
+        public void onBatteryEvent(byte level) {
+            mBatteryEvents++;
+        }
+    }
+
+    private final PttDriver mDriver;
+    private final Profile mProfile;
+    private int mBurst = 1;
+    private int mFragmentSize;
+    private boolean mDeDuplicate = true;
+
+    public LoadGenerator(PttDriver driver, Profile profile) {
+        mDriver = driver;
+        mProfile = profile;
+    }
+
+    // Frames sent back to back, the gap after a burst keeps the average rate
+    public void setBurst(int burst) {
+        mBurst = Math.max(1, burst);
+    }
+
+    // Splits every frame into reads of this many bytes, 0 to keep frames whole
+    public void setFragmentSize(int fragmentSize) {
+        mFragmentSize = Math.max(0, fragmentSize);
+    }
+
+    // Off to send an intent for every key frame, whatever the de-dupe window of the driver
+    public void setDeDuplicate(boolean deDuplicate) {
+        mDeDuplicate = deDuplicate;
+    }
+
+    public Result run(int rate, long durationMillis) throws IOException, InterruptedException {
+        LoopbackSerialSocket socket = new LoopbackSerialSocket(mProfile.name(), "00:00:00:00:00:00");
+        LatencyTracer tracer = new LatencyTracer();
+        MetricsRegistry metrics = new MetricsRegistry();
+        Dispatcher dispatcher = new Dispatcher(socket, tracer, metrics);
+        SerialFramer framer = PttEventPipeline.usesSerialIntentMap(mDriver) ? SerialFramer.create(mDriver.getReadObj()) : null;
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long frames = rate * durationMillis / 1000;
+
+        tracer.setName(mDriver.getDriverName());
+        tracer.setIntents(mDriver.getReadObj().getIntentDescriptors(), mDriver.getReadObj().getIntentDescriptorCount());
+        // The responses to AT commands are not checked, only their cost
+        socket.setPeer((peer, data) -> { });
+        socket.setMetrics(metrics);
+        dispatcher.start();
+        socket.connect(framer != null ? new FramingSerialListener(dispatcher, framer, tracer) : dispatcher);
+
+        long start = Platform.nanoTime();
+
+        for (long n = 0; n < frames; n++) {
+            if (n % mBurst == 0)
+                parkUntil(start + n * intervalNanos);
+
+            byte[] frame = mProfile.frame(n);
+
+            if (mFragmentSize > 0) {
+                socket.injectFragmented(frame, mFragmentSize, 0);
+            } else {
+                socket.inject(frame);
+            }
+            if (mProfile.hasBattery() && n % Profile.BATTERY_EVERY == 0)
+                socket.injectBatteryLevel((byte)(100 - n / Profile.BATTERY_EVERY % 100), 0);
+        }
+
+        // Let the socket and the dispatch thread catch up, then the delayed intents play out
+        while (socket.getPendingCount() > 0) {
+            Thread.sleep(1);
+        }
+        long elapsed = Platform.nanoTime() - start;
+
+        Thread.sleep(mDriver.getReadObj().getDefaultPttDownKeyDelay() + 100);
+        socket.disconnect(true);
+        dispatcher.stop();
+
+        return new Result(rate, frames, metrics.get(MetricsRegistry.Counter.FRAMES_DECODED),
+                dispatcher.mDropped, dispatcher.mIntents, dispatcher.mBatteryEvents, dispatcher.mRing.getMaxDepth(), elapsed,
+                tracer, dispatcher.mTimerLateness, metrics);
+    }
+
+    /**
+     * Doubles the rate from the one given until the pipeline saturates or the rate passes maxRate.
+     */
+    public List<Result> sweep(int rate, int maxRate, long durationMillis) throws IOException, InterruptedException {
+        List<Result> results = new ArrayList<>();
+
+        for (; rate <= maxRate; rate *= 2) {
+            Result result = run(rate, durationMillis);
+
+            results.add(result);
+            if (result.isSaturated())
+                break;
+        }
+        return results;
+    }
+
+    private static void parkUntil(long nanos) {
+        long remaining;
+
+        while ((remaining = nanos - Platform.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    // Answers like HfpSerialSocket, OK to anything it does not know
+    private static AtParser createAtParser() {
+        AtParser parser = new AtParser();
+
+        parser.register("+CIND", new AtCommandHandler() {
+            @Override
+            public AtCommandResult handleReadCommand() {
+                AtCommandResult result = new AtCommandResult(AtCommandResult.OK);
+
+                result.addResponse("+CIND: 1,1,0,0,5,0,5,1,0");
+                return result;
+            }
+        });
+        parser.register("+CSQ", new AtCommandHandler() {
+            @Override
+            public AtCommandResult handleActionCommand() {
+                AtCommandResult result = new AtCommandResult(AtCommandResult.OK);
+
+                result.addResponse("+CSQ: 31,99");
+                return result;
+            }
+        });
+        parser.register("", new AtCommandHandler() {
+            @Override
+            public AtCommandResult handleBasicCommand(String arg) {
+                return new AtCommandResult(AtCommandResult.OK);
+            }
+            @Override
+            public AtCommandResult handleSetCommand(Object[] args) {
+                return new AtCommandResult(AtCommandResult.OK);
+            }
+        });
+        return parser;
+    }
+
+    private static void printSweep(PrintStream out, List<Result> results) {
+        out.println("  offered       read  dropped  max queue    e2e n  e2e p50  e2e p99  e2e max  queue p99   late n  late p99 (ms)");
+        for (Result result : results) {
+            LatencyHistogram endToEnd = result.getTracer().getEndToEnd();
+            LatencyHistogram queue = result.getTracer().getStage(LatencyTracer.Stage.QUEUE);
+
+            out.println(String.format(Locale.US, "%9d %10.0f %8d %10d %8d %8.3f %8.3f %8.3f %10.3f %8d %9.3f",
+                    result.getOfferedRate(), result.getReadRate(), result.getDropped(), result.getMaxQueueDepth(),
+                    endToEnd.getCount(), endToEnd.getPercentileNanos(50) / 1e6, endToEnd.getPercentileNanos(99) / 1e6,
+                    endToEnd.getMaxNanos() / 1e6, queue.getPercentileNanos(99) / 1e6,
+                    result.getTimerLateness().getCount(), result.getTimerLateness().getPercentileNanos(99) / 1e6));
+        }
+
+        Result last = results.get(results.size() - 1);
+
+        out.println(last.isSaturated() ?
+                "saturated at " + last.getOfferedRate() + " frames/s" :
+                "not saturated up to " + last.getOfferedRate() + " frames/s");
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: LoadGenerator driver.json " + Arrays.toString(Profile.values()) +
+                    " [--rate n] [--seconds n] [--burst n] [--fragment n] [--no-dedupe] [--sweep]");
+            System.exit(2);
+        }
+
+        PttDriver driver;
+
+        try (FileInputStream in = new FileInputStream(new File(args[0]))) {
+            driver = new PttDriver(in);
+        }
+        if (!driver.isValid()) {
+            System.err.println("Invalid driver " + args[0] + ": " + driver.getAllValidationErrors());
+            System.exit(1);
+        }
+
+        LoadGenerator generator = new LoadGenerator(driver, Profile.valueOf(args[1].toUpperCase(Locale.US)));
+        int rate = 1000;
+        int seconds = 5;
+        boolean sweep = false;
+
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--rate": rate = Integer.parseInt(args[++i]); break;
+                case "--seconds": seconds = Integer.parseInt(args[++i]); break;
+                case "--burst": generator.setBurst(Integer.parseInt(args[++i])); break;
+                case "--fragment": generator.setFragmentSize(Integer.parseInt(args[++i])); break;
+                case "--no-dedupe": generator.setDeDuplicate(false); break;
+                case "--sweep": sweep = true; break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        if (sweep) {
+            printSweep(System.out, generator.sweep(rate, Integer.MAX_VALUE / 2, seconds * 1000L));
+        } else {
+            generator.run(rate, seconds * 1000L).report(System.out);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.openmobl.pttDriver.service;
+
+import com.google.gson.stream.JsonWriter;
+import com.openmobl.pttDriver.platform.Platform;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters of a device driver service, written by the service, its socket and its dispatcher, and
+ * printed by <code>adb shell dumpsys activity service &lt;service&gt; [--json]</code>.
+ *
+ * Counters are lock-free and incrementing one never allocates, so they can be updated per packet.
+ * Connection state changes are rare and are timed under a lock.
+ */
+public class MetricsRegistry {
+    public static final String ARG_JSON = "--json";
+
+    public enum Counter {
+        PACKETS_READ("packetsRead"),
+        FRAMES_DECODED("framesDecoded"),
+        QUEUE_DROPS("queueDrops"),
+        UNMATCHED_KEYS("unmatchedKeys"),
+        INTENTS_SENT("intentsSent"),
+        DEDUPE_DROPS("deDuplicateDrops"),
+        CANCELLED_PRESSES("cancelledPresses"),
+        RECONNECT_ATTEMPTS("reconnectAttempts"),
+        GATT_ERRORS("gattErrors");
+
+        private final String mName;
+
+        Counter(String name) {
+            mName = name;
+        }
+
+        @Override
+        public String toString() {
+            return mName;
+        }
+    }
+
+    // Values read when dumping, such as the depth of a queue
+    public interface Gauge {
+        long get();
+    }
+
+    private volatile String mName = "";
+    private final AtomicLongArray mCounters = new AtomicLongArray(Counter.values().length);
+    private final Map<String, Gauge> mGauges = new LinkedHashMap<>();
+
+    private final long[] mStateMillis = new long[DeviceConnectionState.values().length];
+    private DeviceConnectionState mState = DeviceConnectionState.Disconnected;
+    private long mStateSince = elapsedMillis();
+
+    public void setName(String name) {
+        mName = name != null ? name : "";
+    }
+    public String getName() { return mName; }
+
+    public void increment(Counter counter) {
+        mCounters.incrementAndGet(counter.ordinal());
+    }
+
+    public long get(Counter counter) {
+        return mCounters.get(counter.ordinal());
+    }
+
+    public synchronized void registerGauge(String name, Gauge gauge) {
+        mGauges.put(name, gauge);
+    }
+
+    public synchronized void enterState(DeviceConnectionState state) {
+        long now = elapsedMillis();
+
+        mStateMillis[mState.ordinal()] += now - mStateSince;
+        mState = state;
+        mStateSince = now;
+    }
+
+    public synchronized DeviceConnectionState getState() {
+        return mState;
+    }
+
+    // Includes the time spent so far in the current state
+    public synchronized long getStateMillis(DeviceConnectionState state) {
+        long millis = mStateMillis[state.ordinal()];
+
+        if (state == mState)
+            millis += elapsedMillis() - mStateSince;
+
+        return millis;
+    }
+
+    private static long elapsedMillis() {
+        return Platform.nanoTime() / 1000000;
+    }
+
+    public void dump(PrintWriter writer, String[] args) {
+        if (args != null && Arrays.asList(args).contains(ARG_JSON)) {
+            dumpJson(writer);
+        } else {
+            dumpText(writer);
+        }
+        writer.flush();
+    }
+
+    private synchronized void dumpText(PrintWriter writer) {
+        writer.println("device: " + getName());
+        writer.println("state: " + getState());
+
+        writer.println("counters:");
+        for (Counter counter : Counter.values()) {
+            writer.println("  " + counter + ": " + get(counter));
+        }
+
+        writer.println("stateMillis:");
+        for (DeviceConnectionState state : DeviceConnectionState.values()) {
+            writer.println("  " + state + ": " + getStateMillis(state));
+        }
+
+        writer.println("gauges:");
+        for (Map.Entry<String, Gauge> gauge : mGauges.entrySet()) {
+            writer.println("  " + gauge.getKey() + ": " + gauge.getValue().get());
+        }
+    }
+
+    private synchronized void dumpJson(PrintWriter writer) {
+        JsonWriter json = new JsonWriter(writer);
+
+        try {
+            json.beginObject();
+            json.name("device").value(getName());
+            json.name("state").value(getState().toString());
+
+            json.name("counters").beginObject();
+            for (Counter counter : Counter.values()) {
+                json.name(counter.toString()).value(get(counter));
+            }
+            json.endObject();
+
+            json.name("stateMillis").beginObject();
+            for (DeviceConnectionState state : DeviceConnectionState.values()) {
+                json.name(state.toString()).value(getStateMillis(state));
+            }
+            json.endObject();
+
+            json.name("gauges").beginObject();
+            for (Map.Entry<String, Gauge> gauge : mGauges.entrySet()) {
+                json.name(gauge.getKey()).value(gauge.getValue().get());
+            }
+            json.endObject();
+
+            json.endObject();
+            json.flush();
+            writer.println();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.openmobl.pttDriver.service;
+
+import com.openmobl.pttDriver.model.IntentDescriptor;
+import com.openmobl.pttDriver.model.IntentMatcher;
+import com.openmobl.pttDriver.model.PttDriver;
+import com.openmobl.pttDriver.utils.LatencyTracer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Decode, de-dupe, gesture and dispatch of the frames of one driver, from a frame to the intents
+ * handed to the sink.
+ *
+ * The services and the replay engine run the same pipeline, each with its own scheduler and sink.
+ * Must be used from the thread of the scheduler.
+ */
+public class PttEventPipeline {
+    public interface IntentSink {
+        void send(IntentDescriptor intent) throws Exception;
+    }
+
+    private final PttDriver.PttReadObj mReadObj;
+    private final IntentMatcher mSerialMatcher;
+    private final Map<UUID, IntentMatcher> mCharacteristicMatchers = new HashMap<>();
+    private final IntentDescriptor mPttDownKeyIntent;
+    private final IntentSender mSender;
+    private final GestureEngine mGestureEngine;
+    private final LatencyTracer mTracer;
+    private final MetricsRegistry mMetrics;
+    private volatile int mPttDownKeyDelay;
+
+    public PttEventPipeline(PttDriver driver, TimeoutScheduler scheduler, IntentSink sink,
+                            LatencyTracer tracer, MetricsRegistry metrics) {
+        mReadObj = driver.getReadObj();
+        mTracer = tracer;
+        mMetrics = metrics;
+
+        if (usesSerialIntentMap(driver)) {
+            mSerialMatcher = mReadObj.getSerialMatcher();
+        } else {
+            mSerialMatcher = null;
+
+            if (driver.getType() == PttDriver.ConnectionType.BLE && mReadObj.getCharacteristicIntentMaps() != null) {
+                for (Map.Entry<UUID, PttDriver.IntentMap> mapping : mReadObj.getCharacteristicIntentMaps().entrySet()) {
+                    if (mapping.getValue() != null) {
+                        mCharacteristicMatchers.put(mapping.getKey(), mReadObj.getCharacteristicMatcher(mapping.getKey()));
+                    }
+                }
+            }
+        }
+
+        mPttDownKeyIntent = mReadObj.getPttDownKeyIntent() != null ? mReadObj.getIntentDescriptor(mReadObj.getPttDownKeyIntent()) : null;
+        mPttDownKeyDelay = mReadObj.getDefaultPttDownKeyDelay();
+        mSender = new IntentSender(sink, scheduler, tracer, metrics, mReadObj);
+        mGestureEngine = GestureEngine.create(scheduler, intent -> mSender.send(intent, 0), mReadObj);
+    }
+
+    // Data read from the intent map, as opposed to per characteristic maps, arrives as a stream
+    public static boolean usesSerialIntentMap(PttDriver driver) {
+        return driver.getType() == PttDriver.ConnectionType.BLE_SERIAL ||
+                driver.getType() == PttDriver.ConnectionType.SPP ||
+                driver.getType() == PttDriver.ConnectionType.HFP ||
+                (driver.getType() == PttDriver.ConnectionType.BLE && driver.getReadObj().getCharacteristic() != null);
+    }
+
+    // Overrides the delay of the driver, as set by the user for a device
+    public void setPttDownKeyDelay(int delay) {
+        mPttDownKeyDelay = delay;
+    }
+
+    public void setDeDuplicate(boolean deDuplicate) {
+        mSender.setDeDuplicate(deDuplicate);
+    }
+
+    public IntentDescriptor match(byte[] buffer, int offset, int length, UUID characteristic) {
+        IntentMatcher matcher = mSerialMatcher != null ? mSerialMatcher : mCharacteristicMatchers.get(characteristic);
+
+        return matcher != null ? matcher.match(buffer, offset, length) : null;
+    }
+
+    /**
+     * Matches a frame and dispatches its intent.
+     *
+     * @return the intent matched, null if the frame is not a key of the driver
+     */
+    public IntentDescriptor process(byte[] buffer, int offset, int length, UUID characteristic) {
+        IntentDescriptor intent = match(buffer, offset, length, characteristic);
+
+        dispatch(intent);
+
+        return intent;
+    }
+
+    public void dispatch(IntentDescriptor intent) {
+        if (intent == null) {
+            mMetrics.increment(MetricsRegistry.Counter.UNMATCHED_KEYS);
+            return;
+        }
+
+        mTracer.mark(LatencyTracer.Stage.MATCH);
+
+        // Keys with gestures are sent by the gesture engine once it has decided what was pressed
+        if (mGestureEngine != null && mGestureEngine.process(intent))
+            return;
+
+        mSender.send(intent, intent == mPttDownKeyIntent ? mPttDownKeyDelay : 0);
+    }
+
+    public void cancelPending() {
+        mSender.cancelPending();
+    }
+
+    public void reset() {
+        mSender.reset();
+        if (mGestureEngine != null)
+            mGestureEngine.reset();
+    }
+}
@@ -0,0 +1,281 @@
+package com.openmobl.pttDriver.service;
+
+import com.google.gson.stream.JsonReader;
+import com.openmobl.pttDriver.bt.SerialFramer;
+import com.openmobl.pttDriver.model.IntentDescriptor;
+import com.openmobl.pttDriver.model.PttDriver;
+import com.openmobl.pttDriver.utils.LatencyHistogram;
+import com.openmobl.pttDriver.utils.LatencyTracer;
+import com.openmobl.pttDriver.utils.TextUtil;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Feeds recorded traffic through the {@link PttEventPipeline} of a driver and records the intents it
+ * sends instead of broadcasting them.
+ *
+ * Time is virtual: timeouts fire at the time of the traffic, so the intents and their times come out
+ * the same in both modes. FAST runs as quickly as the pipeline allows, REAL_TIME waits out the gaps
+ * between frames and timeouts as the device did.
+ *
+ * Captures are either a {@link TrafficCapture} file, of which the reads are replayed, or text with a
+ * frame per line: the time in milliseconds, the data in hex and optionally the characteristic uuid.
+ * Lines starting with # are comments.
+ *
+ * Usage: ReplayEngine driver.json capture [--realtime]
+ */
+public class ReplayEngine {
+    public enum Mode {
+        FAST,
+        REAL_TIME
+    }
+
+    public static class Frame {
+        private final long mTimeNanos;
+        private final UUID mCharacteristic;
+        private final byte[] mData;
+
+        public Frame(long timeNanos, UUID characteristic, byte[] data) {
+            mTimeNanos = timeNanos;
+            mCharacteristic = characteristic;
+            mData = data;
+        }
+
+        public long getTimeNanos() { return mTimeNanos; }
+        public UUID getCharacteristic() { return mCharacteristic; }
+        public byte[] getData() { return mData; }
+    }
+
+    public static class SentIntent {
+        private final long mTimeNanos;
+        private final IntentDescriptor mIntent;
+
+        SentIntent(long timeNanos, IntentDescriptor intent) {
+            mTimeNanos = timeNanos;
+            mIntent = intent;
+        }
+
+        // From the first frame of the replay
+        public long getTimeNanos() { return mTimeNanos; }
+        public IntentDescriptor getIntent() { return mIntent; }
+    }
+
+    private final PttDriver mDriver;
+    private final Mode mMode;
+    private final List<SentIntent> mSent = new ArrayList<>();
+    private final LatencyHistogram mProcessing = new LatencyHistogram();
+    private final MetricsRegistry mMetrics = new MetricsRegistry();
+    private int mPttDownKeyDelay = -1;
+    private long mFrames;
+    private long mElapsedNanos;
+
+    public ReplayEngine(PttDriver driver, Mode mode) {
+        mDriver = driver;
+        mMode = mode;
+    }
+
+    // Replays as a device with this ptt down delay, rather than the default of the driver
+    public void setPttDownKeyDelay(int delay) {
+        mPttDownKeyDelay = delay;
+    }
+
+    public List<SentIntent> getSentIntents() { return mSent; }
+    public MetricsRegistry getMetrics() { return mMetrics; }
+    // Time taken by the pipeline per read, without the waits of REAL_TIME
+    public LatencyHistogram getProcessing() { return mProcessing; }
+
+    public void run(List<Frame> frames) throws InterruptedException {
+        if (frames.isEmpty())
+            return;
+
+        final long start = frames.get(0).getTimeNanos();
+        final VirtualScheduler scheduler = new VirtualScheduler(start);
+        final PttEventPipeline pipeline = new PttEventPipeline(mDriver, scheduler,
+                intent -> mSent.add(new SentIntent(scheduler.nowNanos() - start, intent)),
+                new LatencyTracer(), mMetrics);
+        final SerialFramer framer = PttEventPipeline.usesSerialIntentMap(mDriver) ? SerialFramer.create(mDriver.getReadObj()) : null;
+        final UUID[] characteristic = new UUID[1];
+        final SerialFramer.FrameListener frameListener = (frame, offset, length) -> {
+            mMetrics.increment(MetricsRegistry.Counter.FRAMES_DECODED);
+            pipeline.process(frame, offset, length, characteristic[0]);
+        };
+        long wallStart = System.nanoTime();
+
+        if (mPttDownKeyDelay >= 0)
+            pipeline.setPttDownKeyDelay(mPttDownKeyDelay);
+
+        for (Frame frame : frames) {
+            advanceTo(scheduler, frame.getTimeNanos(), start, wallStart);
+
+            long before = System.nanoTime();
+
+            mMetrics.increment(MetricsRegistry.Counter.PACKETS_READ);
+            characteristic[0] = frame.getCharacteristic();
+            if (framer != null) {
+                framer.process(frame.getData(), 0, frame.getData().length, frameListener);
+            } else {
+                frameListener.onFrame(frame.getData(), 0, frame.getData().length);
+            }
+
+            mProcessing.record(System.nanoTime() - before);
+            mFrames++;
+        }
+
+        // Let the delayed intents and gestures still pending play out
+        while (scheduler.getPendingCount() > 0) {
+            advanceTo(scheduler, scheduler.nextDeadline(), start, wallStart);
+        }
+
+        mElapsedNanos = System.nanoTime() - wallStart;
+    }
+
+    private void advanceTo(VirtualScheduler scheduler, long nanos, long start, long wallStart) throws InterruptedException {
+        if (mMode == Mode.REAL_TIME) {
+            long next;
+
+            // Fire the timeouts before the frame at their own time
+            while ((next = Math.min(scheduler.nextDeadline(), nanos)) < nanos) {
+                sleepUntil(wallStart + next - start);
+                scheduler.advanceTo(next);
+            }
+            sleepUntil(wallStart + nanos - start);
+        }
+
+        scheduler.advanceTo(nanos);
+    }
+
+    private static void sleepUntil(long wallNanos) throws InterruptedException {
+        long remaining = wallNanos - System.nanoTime();
+
+        if (remaining > 0)
+            Thread.sleep(remaining / 1000000, (int)(remaining % 1000000));
+    }
+
+    public void report(PrintStream out) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+
+        for (SentIntent sent : mSent) {
+            Integer count = counts.get(sent.getIntent().getValue());
+
+            out.println(String.format(Locale.US, "%10.3f ms  %s", sent.getTimeNanos() / 1e6, sent.getIntent().getValue()));
+            counts.put(sent.getIntent().getValue(), count != null ? count + 1 : 1);
+        }
+
+        out.println();
+        for (Map.Entry<String, Integer> count : counts.entrySet()) {
+            out.println(count.getValue() + "  " + count.getKey());
+        }
+
+        out.println();
+        out.println("reads: " + mFrames + ", frames: " + mMetrics.get(MetricsRegistry.Counter.FRAMES_DECODED) +
+                ", unmatched: " + mMetrics.get(MetricsRegistry.Counter.UNMATCHED_KEYS) +
+                ", intents sent: " + mSent.size() +
+                ", de-dupe drops: " + mMetrics.get(MetricsRegistry.Counter.DEDUPE_DROPS) +
+                ", cancelled presses: " + mMetrics.get(MetricsRegistry.Counter.CANCELLED_PRESSES));
+        out.println(String.format(Locale.US, "processing per read: p50=%.2f p99=%.2f max=%.2f us",
+                mProcessing.getPercentileNanos(50) / 1e3,
+                mProcessing.getPercentileNanos(99) / 1e3,
+                mProcessing.getMaxNanos() / 1e3));
+        if (mElapsedNanos > 0) {
+            out.println(String.format(Locale.US, "throughput: %.0f reads/s over %.3f s (%s)",
+                    mFrames * 1e9 / mElapsedNanos, mElapsedNanos / 1e9, mMode));
+        }
+    }
+
+    /**
+     * Loads the frames read in a {@link TrafficCapture} file or a text capture.
+     */
+    public static List<Frame> load(File file) throws IOException {
+        if (isTrafficCapture(file)) {
+            List<Frame> frames = new ArrayList<>();
+
+            for (TrafficCapture.Record record : TrafficCapture.read(file)) {
+                if (record.getDirection() == TrafficCapture.Direction.READ)
+                    frames.add(new Frame(record.getTimeNanos(), record.getCharacteristic(), record.getData()));
+            }
+
+            return frames;
+        }
+
+        return loadText(file);
+    }
+
+    private static boolean isTrafficCapture(File file) throws IOException {
+        byte[] magic = new byte[4];
+
+        try (FileInputStream in = new FileInputStream(file)) {
+            return in.read(magic) == magic.length &&
+                    ((magic[0] & 0xFF) << 24 | (magic[1] & 0xFF) << 16 | (magic[2] & 0xFF) << 8 | (magic[3] & 0xFF)) == TrafficCapture.MAGIC;
+        }
+    }
+
+    private static List<Frame> loadText(File file) throws IOException {
+        List<Frame> frames = new ArrayList<>();
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            int lineNumber = 0;
+
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+
+                String[] fields = line.split("\\s+");
+
+                if (fields.length < 2)
+                    throw new IOException(file + ":" + lineNumber + ": expected <millis> <hex> [characteristic]");
+
+                try {
+                    long timeNanos = (long)(Double.parseDouble(fields[0]) * 1000000);
+                    UUID characteristic = fields.length > 2 ? UUID.fromString(fields[2]) : null;
+
+                    frames.add(new Frame(timeNanos, characteristic, TextUtil.fromHexString(fields[1])));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(file + ":" + lineNumber + ": " + e.getMessage());
+                }
+            }
+        }
+
+        return frames;
+    }
+
+    private static PttDriver loadDriver(File file) throws IOException {
+        try (InputStreamReader reader = new InputStreamReader(new FileInputStream(file), "UTF-8")) {
+            return new PttDriver(new JsonReader(reader));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: ReplayEngine driver.json capture [--realtime]");
+            System.exit(2);
+        }
+
+        PttDriver driver = loadDriver(new File(args[0]));
+
+        if (!driver.isValid()) {
+            System.err.println("Invalid driver " + args[0] + ": " + driver.getAllValidationErrors());
+            System.exit(1);
+        }
+
+        Mode mode = args.length > 2 && args[2].equals("--realtime") ? Mode.REAL_TIME : Mode.FAST;
+        ReplayEngine engine = new ReplayEngine(driver, mode);
+
+        engine.run(load(new File(args[1])));
+        engine.report(System.out);
+    }
+}
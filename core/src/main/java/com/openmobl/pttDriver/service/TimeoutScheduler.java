@@ -0,0 +1,20 @@
+package com.openmobl.pttDriver.service;
+
+import com.openmobl.pttDriver.utils.TimerWheel;
+
+/**
+ * Schedules the timeouts of the intent pipeline, on the clock it reads its times from.
+ */
+public interface TimeoutScheduler {
+    /**
+     * @return the current time in nanoseconds of a monotonic clock
+     */
+    long nowNanos();
+
+    /**
+     * Schedules or moves a timeout to fire after the delay, measured from this call.
+     */
+    void schedule(TimerWheel.Timeout timeout, long delayMillis);
+
+    void cancel(TimerWheel.Timeout timeout);
+}
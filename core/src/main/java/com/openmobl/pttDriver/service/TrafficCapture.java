@@ -0,0 +1,244 @@
+package com.openmobl.pttDriver.service;
+
+import com.openmobl.pttDriver.platform.Log;
+import com.openmobl.pttDriver.platform.Platform;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Bounded ring of the raw traffic of a device, kept in a memory mapped file so the last records
+ * survive the process dying.
+ *
+ * The file is a 64 byte header followed by fixed size slots, all big endian:
+ * <pre>
+ * header   0  int   magic "PTTC"
+ *          4  short version
+ *          6  short slot size
+ *          8  int   slot count
+ *          16 long  sequence of the next record, the record n is in the slot n % slot count
+ *          24 long  wall clock millis at open
+ *          32 long  platform clock nanos at open, to place the record timestamps
+ * slot     0  long  platform clock nanos, elapsedRealtimeNanos on Android
+ *          8  long  service uuid msb, lsb, 0 if none
+ *          24 long  characteristic uuid msb, lsb, 0 if none
+ *          40 short length of the data, the first MAX_DATA bytes of it are kept
+ *          42 byte  direction
+ *          43 byte  connection state ordinal
+ *          44       data
+ * </pre>
+ *
+ * Recording copies into the mapping under a lock and allocates nothing. The lock is needed as there
+ * are two writers, the socket thread records the reads while the writes are recorded from the thread
+ * of the service sending them. Writes are rare, so the lock is almost never contended and costs an
+ * uncontended monitor enter per packet, small next to the copy and the packet rate of a device.
+ * An existing capture is appended to rather than cleared, so it still holds what led up to a crash.
+ */
+public class TrafficCapture {
+    private static final String TAG = TrafficCapture.class.getName();
+
+    public static final int MAGIC = 0x50545443;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+    public static final int SLOT_SIZE = 128;
+    public static final int SLOT_HEADER_SIZE = 44;
+    public static final int MAX_DATA = SLOT_SIZE - SLOT_HEADER_SIZE;
+    public static final int DEFAULT_SLOT_COUNT = 4096;
+
+    public static final int OFFSET_SEQUENCE = 16;
+
+    public enum Direction {
+        READ,
+        WRITE
+    }
+
+    public static class Record {
+        private final long mTimeNanos;
+        private final Direction mDirection;
+        private final DeviceConnectionState mState;
+        private final UUID mService;
+        private final UUID mCharacteristic;
+        private final byte[] mData;
+        private final int mLength;
+
+        Record(long timeNanos, Direction direction, DeviceConnectionState state, UUID service,
+               UUID characteristic, byte[] data, int length) {
+            mTimeNanos = timeNanos;
+            mDirection = direction;
+            mState = state;
+            mService = service;
+            mCharacteristic = characteristic;
+            mData = data;
+            mLength = length;
+        }
+
+        public long getTimeNanos() { return mTimeNanos; }
+        public Direction getDirection() { return mDirection; }
+        public DeviceConnectionState getState() { return mState; }
+        public UUID getService() { return mService; }
+        public UUID getCharacteristic() { return mCharacteristic; }
+        // The data kept, which is cut to MAX_DATA bytes
+        public byte[] getData() { return mData; }
+        // The length of the data as it was read or written
+        public int getLength() { return mLength; }
+        public boolean isTruncated() { return mLength > mData.length; }
+    }
+
+    private final ByteBuffer mBuffer;
+    private final int mSlotCount;
+    private long mSequence;
+    private volatile DeviceConnectionState mState = DeviceConnectionState.Disconnected;
+
+    private TrafficCapture(ByteBuffer buffer, int slotCount) {
+        mBuffer = buffer;
+        mSlotCount = slotCount;
+
+        if (buffer.getInt(0) == MAGIC && buffer.getShort(4) == VERSION &&
+                buffer.getShort(6) == SLOT_SIZE && buffer.getInt(8) == slotCount) {
+            mSequence = buffer.getLong(OFFSET_SEQUENCE);
+        } else {
+            buffer.putInt(0, MAGIC);
+            buffer.putShort(4, (short)VERSION);
+            buffer.putShort(6, (short)SLOT_SIZE);
+            buffer.putInt(8, slotCount);
+            mSequence = 0;
+            buffer.putLong(OFFSET_SEQUENCE, mSequence);
+        }
+        buffer.putLong(24, System.currentTimeMillis());
+        buffer.putLong(32, Platform.nanoTime());
+    }
+
+    /**
+     * Maps the capture file, or falls back to memory only if it cannot be mapped.
+     */
+    public static TrafficCapture open(File file, int slotCount) {
+        int size = HEADER_SIZE + slotCount * SLOT_SIZE;
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() != size)
+                raf.setLength(size);
+
+            // The mapping stays valid once the file is closed
+            return new TrafficCapture(raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size), slotCount);
+        } catch (IOException e) {
+            Log.d(TAG, "Could not map " + file + ", capturing in memory: " + e);
+            return new TrafficCapture(ByteBuffer.allocate(size), slotCount);
+        }
+    }
+
+    public void setState(DeviceConnectionState state) {
+        mState = state;
+    }
+
+    public void record(Direction direction, byte[] data, UUID service, UUID characteristic) {
+        record(direction, data, 0, data.length, service, characteristic);
+    }
+
+    public synchronized void record(Direction direction, byte[] data, int offset, int length,
+                                    UUID service, UUID characteristic) {
+        int slot = HEADER_SIZE + (int)(mSequence % mSlotCount) * SLOT_SIZE;
+
+        mBuffer.putLong(slot, Platform.nanoTime());
+        mBuffer.putLong(slot + 8, service != null ? service.getMostSignificantBits() : 0);
+        mBuffer.putLong(slot + 16, service != null ? service.getLeastSignificantBits() : 0);
+        mBuffer.putLong(slot + 24, characteristic != null ? characteristic.getMostSignificantBits() : 0);
+        mBuffer.putLong(slot + 32, characteristic != null ? characteristic.getLeastSignificantBits() : 0);
+        mBuffer.putShort(slot + 40, (short)Math.min(length, 0xFFFF));
+        mBuffer.put(slot + 42, (byte)direction.ordinal());
+        mBuffer.put(slot + 43, (byte)mState.ordinal());
+
+        mBuffer.position(slot + SLOT_HEADER_SIZE);
+        mBuffer.put(data, offset, Math.min(length, MAX_DATA));
+
+        // Published last, a reader never sees a half written slot as the newest record
+        mSequence++;
+        mBuffer.putLong(OFFSET_SEQUENCE, mSequence);
+    }
+
+    public synchronized long getRecordCount() {
+        return Math.min(mSequence, mSlotCount);
+    }
+
+    /**
+     * Reads the records of a capture or of a snapshot, oldest first.
+     */
+    public static List<Record> read(File file) throws IOException {
+        ByteBuffer buffer;
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION)
+            throw new IOException("Not a traffic capture: " + file);
+
+        int slotSize = buffer.getShort(6);
+        int slotCount = buffer.getInt(8);
+        long sequence = buffer.getLong(OFFSET_SEQUENCE);
+
+        if (slotSize != SLOT_SIZE || slotCount <= 0 || buffer.capacity() < HEADER_SIZE + (long)slotCount * slotSize)
+            throw new IOException("Unsupported traffic capture layout: " + file);
+
+        // Once the ring is full, the oldest slot is the one a crash could have left half written
+        long first = sequence >= slotCount ? sequence - slotCount + 1 : 0;
+        List<Record> records = new ArrayList<>();
+        Direction[] directions = Direction.values();
+        DeviceConnectionState[] states = DeviceConnectionState.values();
+
+        for (long record = first; record < sequence; record++) {
+            int slot = HEADER_SIZE + (int)(record % slotCount) * SLOT_SIZE;
+            int length = buffer.getShort(slot + 40) & 0xFFFF;
+            int direction = buffer.get(slot + 42) & 0xFF;
+            int state = buffer.get(slot + 43) & 0xFF;
+
+            // A slot damaged on disk, or written by a build with other states, is left out
+            if (direction >= directions.length || state >= states.length) {
+                Log.d(TAG, "Skipping record " + record + " with direction " + direction + " and state " + state);
+                continue;
+            }
+
+            byte[] data = new byte[Math.min(length, MAX_DATA)];
+
+            buffer.position(slot + SLOT_HEADER_SIZE);
+            buffer.get(data);
+
+            records.add(new Record(buffer.getLong(slot),
+                    directions[direction],
+                    states[state],
+                    uuidOf(buffer.getLong(slot + 8), buffer.getLong(slot + 16)),
+                    uuidOf(buffer.getLong(slot + 24), buffer.getLong(slot + 32)),
+                    data, length));
+        }
+
+        return records;
+    }
+
+    private static UUID uuidOf(long msb, long lsb) {
+        return (msb != 0 || lsb != 0) ? new UUID(msb, lsb) : null;
+    }
+
+    /**
+     * Writes a copy of the capture, in the same format, to a file.
+     */
+    public void snapshot(File file) throws IOException {
+        byte[] copy = new byte[mBuffer.capacity()];
+
+        synchronized (this) {
+            ByteBuffer view = mBuffer.duplicate();
+
+            view.position(0);
+            view.get(copy);
+        }
+
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(copy);
+        }
+    }
+}
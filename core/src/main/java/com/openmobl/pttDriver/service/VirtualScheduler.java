@@ -0,0 +1,60 @@
+package com.openmobl.pttDriver.service;
+
+import com.openmobl.pttDriver.utils.TimerWheel;
+
+/**
+ * Scheduler on a clock that only moves when told to, so timeouts fire as time is advanced rather
+ * than as it passes. Used to replay traffic as fast as it can be processed.
+ *
+ * Not thread safe, timeouts fire on the thread calling {@link #advanceTo(long)}.
+ */
+public class VirtualScheduler implements TimeoutScheduler {
+    private static final long TICK_NANOS = 1000000; // 1ms
+    private static final int BUCKET_COUNT = 512;
+
+    private final TimerWheel mWheel;
+    private long mNowNanos;
+
+    public VirtualScheduler(long startNanos) {
+        mNowNanos = startNanos;
+        mWheel = new TimerWheel(TICK_NANOS, BUCKET_COUNT, startNanos);
+    }
+
+    @Override
+    public long nowNanos() {
+        return mNowNanos;
+    }
+
+    @Override
+    public void schedule(TimerWheel.Timeout timeout, long delayMillis) {
+        mWheel.schedule(timeout, mNowNanos + delayMillis * 1000000L);
+    }
+
+    @Override
+    public void cancel(TimerWheel.Timeout timeout) {
+        mWheel.cancel(timeout);
+    }
+
+    /**
+     * Moves the clock forward, firing every timeout due by then at its own deadline.
+     */
+    public void advanceTo(long nanos) {
+        long next;
+
+        // One deadline at a time, so a timeout scheduling another sees the time it fired at
+        while ((next = mWheel.nextDeadline()) <= nanos) {
+            mNowNanos = Math.max(mNowNanos, next);
+            mWheel.advanceTo(mNowNanos);
+        }
+
+        mNowNanos = Math.max(mNowNanos, nanos);
+    }
+
+    public long nextDeadline() {
+        return mWheel.nextDeadline();
+    }
+
+    public int getPendingCount() {
+        return mWheel.getPendingCount();
+    }
+}
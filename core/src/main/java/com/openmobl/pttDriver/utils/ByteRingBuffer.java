@@ -0,0 +1,111 @@
+package com.openmobl.pttDriver.utils;
+
+/**
+ * Fixed size FIFO of bytes. The backing array is allocated once, so data can be appended and
+ * consumed for the lifetime of a connection without creating garbage.
+ *
+ * Not thread safe, it is expected to be owned by a single reader thread.
+ */
+public class ByteRingBuffer {
+    private final byte[] mBuffer;
+    private final int mMask;
+    private int mHead; // Next byte to read
+    private int mSize;
+
+    /**
+     * @param capacity rounded up to the next power of two
+     */
+    public ByteRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 1));
+
+        if (size < capacity)
+            size <<= 1;
+
+        mBuffer = new byte[size];
+        mMask = size - 1;
+    }
+
+    public int capacity() {
+        return mBuffer.length;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public boolean isFull() {
+        return mSize == mBuffer.length;
+    }
+
+    public void clear() {
+        mHead = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Appends as many bytes as fit.
+     *
+     * @return the number of bytes appended
+     */
+    public int write(byte[] src, int offset, int length) {
+        int count = Math.min(length, mBuffer.length - mSize);
+        int tail = (mHead + mSize) & mMask;
+        int first = Math.min(count, mBuffer.length - tail);
+
+        System.arraycopy(src, offset, mBuffer, tail, first);
+        System.arraycopy(src, offset + first, mBuffer, 0, count - first);
+
+        mSize += count;
+
+        return count;
+    }
+
+    /**
+     * @param index position relative to the oldest byte
+     */
+    public byte get(int index) {
+        return mBuffer[(mHead + index) & mMask];
+    }
+
+    /**
+     * @return the position of the first occurrence of pattern at or after from, or -1
+     */
+    public int indexOf(byte[] pattern, int from) {
+        int last = mSize - pattern.length;
+
+        for (int i = Math.max(from, 0); i <= last; i++) {
+            int j = 0;
+
+            while (j < pattern.length && get(i + j) == pattern[j]) {
+                j++;
+            }
+
+            if (j == pattern.length)
+                return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Copies length bytes starting at index into dst without consuming them.
+     */
+    public void copyTo(int index, byte[] dst, int dstOffset, int length) {
+        int start = (mHead + index) & mMask;
+        int first = Math.min(length, mBuffer.length - start);
+
+        System.arraycopy(mBuffer, start, dst, dstOffset, first);
+        System.arraycopy(mBuffer, 0, dst, dstOffset + first, length - first);
+    }
+
+    public void skip(int length) {
+        length = Math.min(length, mSize);
+
+        mHead = (mHead + length) & mMask;
+        mSize -= length;
+    }
+}
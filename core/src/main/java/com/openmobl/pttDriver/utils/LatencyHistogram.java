@@ -0,0 +1,98 @@
+package com.openmobl.pttDriver.utils;
+
+/**
+ * Fixed size histogram of durations in nanoseconds, with a relative error of at most 1/8.
+ *
+ * Durations are counted in microseconds, in 8 linear sub-buckets per power of two, from 1us up to
+ * about 19 hours. Recording is a few shifts and an array increment, nothing is allocated.
+ *
+ * Written by a single thread. Readers on other threads may see a count that is one record behind,
+ * which is fine for reporting.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 35;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final long[] mCounts = new long[BUCKET_COUNT];
+    private long mCount;
+    private long mTotalNanos;
+    private long mMaxNanos;
+
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+
+        mCounts[bucketOf(nanos / 1000)]++;
+        mCount++;
+        mTotalNanos += nanos;
+        if (nanos > mMaxNanos)
+            mMaxNanos = nanos;
+    }
+
+    public void reset() {
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] = 0;
+        }
+        mCount = 0;
+        mTotalNanos = 0;
+        mMaxNanos = 0;
+    }
+
+    public long getCount() { return mCount; }
+    public long getMaxNanos() { return mMaxNanos; }
+    public long getMeanNanos() {
+        long count = mCount;
+
+        return count > 0 ? mTotalNanos / count : 0;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the upper bound of the bucket holding the percentile, capped at the maximum
+     */
+    public long getPercentileNanos(double percentile) {
+        long count = mCount;
+
+        if (count == 0)
+            return 0;
+
+        long rank = Math.max(1, (long)Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+
+        for (int i = 0; i < mCounts.length; i++) {
+            seen += mCounts[i];
+            if (seen >= rank)
+                return Math.min(upperBoundOf(i) * 1000, mMaxNanos);
+        }
+
+        return mMaxNanos;
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS)
+            return (int)micros;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+
+        if (exponent > MAX_EXPONENT)
+            return BUCKET_COUNT - 1;
+
+        int subBucket = (int)(micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // Largest value, in microseconds, that falls in a bucket
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+
+        return ((SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+    }
+}
@@ -0,0 +1,196 @@
+package com.openmobl.pttDriver.utils;
+
+import com.openmobl.pttDriver.model.IntentDescriptor;
+import com.openmobl.pttDriver.platform.Platform;
+
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * Latency of the path from a socket read to the broadcast of its intent, for one device.
+ *
+ * Each event carries the time of its read and of its frame to the dispatch thread, which then marks
+ * every stage it goes through. The time between two marks is counted in the histogram of the later
+ * stage, and the time from the read to the broadcast in the histograms of the device and of the
+ * intent. A mark costs a clock read and a histogram increment, so tracing stays on.
+ *
+ * {@link #markSocketRead()} and {@link #takeSocketRead(long)} belong to the socket thread, the
+ * other marks to the dispatch thread. Intents sent from gesture timers have no read to trace.
+ */
+public class LatencyTracer {
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    public enum Stage {
+        FRAME("read to frame"),
+        QUEUE("frame to dispatch"),
+        MATCH("dispatch to match"),
+        DEDUPE("match to de-dupe"),
+        SCHEDULE("de-dupe to scheduled"),
+        BROADCAST("scheduled to sent");
+
+        private final String mDescription;
+
+        Stage(String description) {
+            mDescription = description;
+        }
+
+        public String getDescription() {
+            return mDescription;
+        }
+    }
+
+    private volatile String mName = "";
+    private final LatencyHistogram[] mStages;
+    private final LatencyHistogram mEndToEnd = new LatencyHistogram();
+    private volatile LatencyHistogram[] mIntents = new LatencyHistogram[0];
+    private volatile IntentDescriptor[] mIntentDescriptors = new IntentDescriptor[0];
+
+    // Socket thread
+    private long mSocketReadNanos = NO_TIME;
+
+    // Dispatch thread
+    private boolean mEventOpen;
+    private long mEventStartNanos;
+    private long mLastMarkNanos;
+
+    public LatencyTracer() {
+        mStages = new LatencyHistogram[Stage.values().length];
+        for (int i = 0; i < mStages.length; i++) {
+            mStages[i] = new LatencyHistogram();
+        }
+    }
+
+    public static long now() {
+        return Platform.nanoTime();
+    }
+
+    public void setName(String name) {
+        mName = name != null ? name : "";
+    }
+    public String getName() { return mName; }
+
+    /**
+     * Sizes the per intent histograms for a driver. Call when the driver changes, not per event.
+     */
+    public void setIntents(Collection<IntentDescriptor> intents, int count) {
+        LatencyHistogram[] histograms = new LatencyHistogram[count];
+        IntentDescriptor[] descriptors = new IntentDescriptor[count];
+
+        for (IntentDescriptor intent : intents) {
+            histograms[intent.getId()] = new LatencyHistogram();
+            descriptors[intent.getId()] = intent;
+        }
+
+        mIntentDescriptors = descriptors;
+        mIntents = histograms;
+    }
+
+    // Keeps the first read not yet part of a frame, which is when the frame started to arrive
+    public void markSocketRead() {
+        if (mSocketReadNanos == NO_TIME)
+            mSocketReadNanos = now();
+    }
+
+    public long takeSocketRead(long frameNanos) {
+        long read = mSocketReadNanos;
+
+        mSocketReadNanos = NO_TIME;
+
+        return read != NO_TIME ? read : frameNanos;
+    }
+
+    public void startEvent(long readNanos, long frameNanos) {
+        long now = now();
+
+        mStages[Stage.FRAME.ordinal()].record(frameNanos - readNanos);
+        mStages[Stage.QUEUE.ordinal()].record(now - frameNanos);
+
+        mEventOpen = true;
+        mEventStartNanos = readNanos;
+        mLastMarkNanos = now;
+    }
+
+    /**
+     * Continues an event later, such as a delayed intent, from the times saved when it was put off.
+     */
+    public void resumeEvent(long startNanos, long lastMarkNanos) {
+        mEventOpen = true;
+        mEventStartNanos = startNanos;
+        mLastMarkNanos = lastMarkNanos;
+    }
+
+    public void endEvent() {
+        mEventOpen = false;
+    }
+
+    public boolean isEventOpen() { return mEventOpen; }
+    public long getEventStartNanos() { return mEventStartNanos; }
+    public long getLastMarkNanos() { return mLastMarkNanos; }
+
+    public void mark(Stage stage) {
+        if (!mEventOpen)
+            return;
+
+        long now = now();
+
+        mStages[stage.ordinal()].record(now - mLastMarkNanos);
+        mLastMarkNanos = now;
+    }
+
+    public void markSent(IntentDescriptor intent) {
+        if (!mEventOpen)
+            return;
+
+        mark(Stage.BROADCAST);
+
+        long latency = mLastMarkNanos - mEventStartNanos;
+        LatencyHistogram[] intents = mIntents;
+
+        mEndToEnd.record(latency);
+        if (intent.getId() < intents.length && intents[intent.getId()] != null)
+            intents[intent.getId()].record(latency);
+    }
+
+    public LatencyHistogram getStage(Stage stage) {
+        return mStages[stage.ordinal()];
+    }
+
+    public LatencyHistogram getEndToEnd() {
+        return mEndToEnd;
+    }
+
+    public LatencyHistogram getIntent(IntentDescriptor intent) {
+        LatencyHistogram[] intents = mIntents;
+
+        return intent.getId() < intents.length ? intents[intent.getId()] : null;
+    }
+
+    public String report() {
+        StringBuilder builder = new StringBuilder();
+
+        appendLine(builder, "read to sent", mEndToEnd);
+        for (Stage stage : Stage.values()) {
+            appendLine(builder, stage.getDescription(), getStage(stage));
+        }
+
+        LatencyHistogram[] intents = mIntents;
+        IntentDescriptor[] descriptors = mIntentDescriptors;
+
+        for (int i = 0; i < intents.length && i < descriptors.length; i++) {
+            if (intents[i] != null && intents[i].getCount() > 0)
+                appendLine(builder, descriptors[i].getValue(), intents[i]);
+        }
+
+        return builder.toString();
+    }
+
+    private static void appendLine(StringBuilder builder, String label, LatencyHistogram histogram) {
+        builder.append(label);
+        builder.append(String.format(Locale.US, ": n=%d p50=%.2f p90=%.2f p99=%.2f max=%.2f ms\n",
+                histogram.getCount(),
+                histogram.getPercentileNanos(50) / 1e6,
+                histogram.getPercentileNanos(90) / 1e6,
+                histogram.getPercentileNanos(99) / 1e6,
+                histogram.getMaxNanos() / 1e6));
+    }
+}
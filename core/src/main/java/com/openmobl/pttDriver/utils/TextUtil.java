@@ -0,0 +1,60 @@
+package com.openmobl.pttDriver.utils;
+
+import java.io.ByteArrayOutputStream;
+
+public final class TextUtil {
+
+    final static String newline_crlf = "\r\n";
+    final static String newline_lf = "\n";
+
+    public static byte[] fromHexString(final CharSequence s) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        byte b = 0;
+        int nibble = 0;
+        for(int pos = 0; pos<s.length(); pos++) {
+            if(nibble==2) {
+                buf.write(b);
+                nibble = 0;
+                b = 0;
+            }
+            int c = s.charAt(pos);
+            if(c>='0' && c<='9') { nibble++; b *= 16; b += c-'0';    }
+            if(c>='A' && c<='F') { nibble++; b *= 16; b += c-'A'+10; }
+            if(c>='a' && c<='f') { nibble++; b *= 16; b += c-'a'+10; }
+        }
+        if(nibble>0)
+            buf.write(b);
+        return buf.toByteArray();
+    }
+
+    public static String toHexString(final byte[] buf) {
+        return toHexString(buf, 0, buf.length);
+    }
+
+    public static String toHexString(final byte[] buf, int begin, int end) {
+        StringBuilder sb = new StringBuilder(3*(end-begin));
+        toHexString(sb, buf, begin, end);
+        return sb.toString();
+    }
+
+    public static void toHexString(StringBuilder sb, final byte[] buf) {
+        toHexString(sb, buf, 0, buf.length);
+    }
+
+    public static void toHexString(StringBuilder sb, final byte[] buf, int begin, int end) {
+        for(int pos=begin; pos<end; pos++) {
+            if(sb.length()>0)
+                sb.append(' ');
+            int c;
+            c = (buf[pos]&0xff) / 16;
+            if(c >= 10) c += 'A'-10;
+            else        c += '0';
+            sb.append((char)c);
+            c = (buf[pos]&0xff) % 16;
+            if(c >= 10) c += 'A'-10;
+            else        c += '0';
+            sb.append((char)c);
+        }
+    }
+
+}
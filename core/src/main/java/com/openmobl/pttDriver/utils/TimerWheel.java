@@ -0,0 +1,243 @@
+package com.openmobl.pttDriver.utils;
+
+/**
+ * Hashed timer wheel. Timeouts are kept in buckets by deadline and remember their bucket, so scheduling
+ * and cancelling are constant time and a timeout object can be rescheduled any number of times without
+ * allocating.
+ *
+ * The wheel has no thread of its own, the owner advances it with {@link #advanceTo(long)} and uses
+ * {@link #nextDeadline()} to know when to do so next. The earliest deadline is kept as timeouts come
+ * and go, and only looked for again once it is cancelled or fired, through a bitmap of the occupied
+ * buckets. Not thread safe.
+ */
+public class TimerWheel {
+    // Bucket of a timeout that is due and waiting in the expired list to fire
+    private static final int EXPIRED = -1;
+
+    public static abstract class Timeout {
+        private TimerWheel mWheel;
+        private long mDeadline;
+        private long mTick;
+        private int mBucket;
+        private Timeout mPrev;
+        private Timeout mNext;
+
+        public boolean isPending() {
+            return mWheel != null;
+        }
+
+        public long getDeadline() {
+            return mDeadline;
+        }
+
+        protected abstract void onTimeout(long now);
+    }
+
+    private final long mTickNanos;
+    private final Timeout[] mBuckets;
+    private final long[] mOccupied;
+    private final int mMask;
+    private long mCurrentTick;
+    private int mPendingCount;
+    // Due timeouts of the tick being advanced, fired one at a time so callbacks may change the others
+    private Timeout mExpired;
+    private long mNextDeadline = Long.MAX_VALUE;
+    private boolean mNextDeadlineKnown = true;
+
+    /**
+     * @param tickNanos resolution of the wheel
+     * @param bucketCount rounded up to the next power of two
+     * @param now starting time
+     */
+    public TimerWheel(long tickNanos, int bucketCount, long now) {
+        int size = Integer.highestOneBit(Math.max(bucketCount, 1));
+
+        if (size < bucketCount)
+            size <<= 1;
+
+        mTickNanos = tickNanos;
+        mBuckets = new Timeout[size];
+        mOccupied = new long[(size + 63) / 64];
+        mMask = size - 1;
+        mCurrentTick = now / tickNanos;
+    }
+
+    public int getPendingCount() {
+        return mPendingCount;
+    }
+
+    /**
+     * Schedules a timeout, moving it if it is already pending.
+     */
+    public void schedule(Timeout timeout, long deadline) {
+        if (timeout.isPending())
+            cancel(timeout);
+
+        // Never put a timeout in a bucket that has already been passed
+        long tick = Math.max(deadline / mTickNanos, mCurrentTick);
+        int bucket = (int)(tick & mMask);
+
+        timeout.mWheel = this;
+        timeout.mDeadline = deadline;
+        timeout.mTick = tick;
+        link(timeout, bucket);
+
+        if (mNextDeadlineKnown)
+            mNextDeadline = Math.min(mNextDeadline, deadline);
+
+        mPendingCount++;
+    }
+
+    public boolean cancel(Timeout timeout) {
+        if (timeout.mWheel != this)
+            return false;
+
+        unlink(timeout);
+        timeout.mWheel = null;
+
+        mPendingCount--;
+
+        if (mPendingCount == 0) {
+            mNextDeadline = Long.MAX_VALUE;
+            mNextDeadlineKnown = true;
+        } else if (timeout.mDeadline == mNextDeadline) {
+            mNextDeadlineKnown = false;
+        }
+
+        return true;
+    }
+
+    public void cancelAll() {
+        while (mExpired != null) {
+            cancel(mExpired);
+        }
+        for (int i = 0; i < mBuckets.length; i++) {
+            while (mBuckets[i] != null) {
+                cancel(mBuckets[i]);
+            }
+        }
+    }
+
+    /**
+     * Fires every timeout whose deadline is at or before now, in tick order.
+     */
+    public void advanceTo(long now) {
+        long startTick = mCurrentTick;
+        long targetTick = now / mTickNanos;
+
+        // After a long idle period one turn of the wheel visits every bucket
+        long lastTick = Math.min(targetTick, startTick + mBuckets.length - 1);
+
+        // A timeout a callback schedules in the past goes to the bucket of the target tick, it fires in
+        // this advance if that bucket is still to be walked and in the next one otherwise
+        mCurrentTick = Math.max(startTick, targetTick);
+
+        for (long tick = startTick; tick <= lastTick; tick++) {
+            int bucket = (int)(tick & mMask);
+
+            // No callback runs while the bucket is walked
+            Timeout timeout = mBuckets[bucket];
+            while (timeout != null) {
+                Timeout next = timeout.mNext;
+
+                if (timeout.mDeadline <= now) {
+                    unlink(timeout);
+                    link(timeout, EXPIRED);
+                }
+                timeout = next;
+            }
+
+            while (mExpired != null) {
+                timeout = mExpired;
+                cancel(timeout);
+                timeout.onTimeout(now);
+            }
+        }
+    }
+
+    /**
+     * @return the earliest deadline of the pending timeouts, or Long.MAX_VALUE if there are none
+     */
+    public long nextDeadline() {
+        if (!mNextDeadlineKnown) {
+            mNextDeadline = findNextDeadline();
+            mNextDeadlineKnown = true;
+        }
+
+        return mNextDeadline;
+    }
+
+    private long findNextDeadline() {
+        long next = Long.MAX_VALUE;
+        long later = Long.MAX_VALUE;
+        int start = (int)(mCurrentTick & mMask);
+        int offset = 0;
+
+        for (Timeout timeout = mExpired; timeout != null; timeout = timeout.mNext) {
+            next = Math.min(next, timeout.mDeadline);
+        }
+
+        // The first occupied bucket, from the current tick on, with a timeout of this turn of the wheel
+        // holds the earliest deadline. Timeouts of later turns only count if there is no such bucket.
+        while (offset < mBuckets.length && next == Long.MAX_VALUE) {
+            int bucket = (start + offset) & mMask;
+            long word = mOccupied[bucket >>> 6] >>> (bucket & 63);
+
+            if (word == 0) {
+                offset += Math.min(64 - (bucket & 63), mBuckets.length - bucket);
+                continue;
+            }
+
+            offset += Long.numberOfTrailingZeros(word);
+            bucket = (start + offset) & mMask;
+
+            long tick = mCurrentTick + offset;
+            for (Timeout timeout = mBuckets[bucket]; timeout != null; timeout = timeout.mNext) {
+                if (timeout.mTick == tick) {
+                    next = Math.min(next, timeout.mDeadline);
+                } else {
+                    later = Math.min(later, timeout.mDeadline);
+                }
+            }
+            offset++;
+        }
+
+        return Math.min(next, later);
+    }
+
+    private void link(Timeout timeout, int bucket) {
+        Timeout head = bucket == EXPIRED ? mExpired : mBuckets[bucket];
+
+        timeout.mBucket = bucket;
+        timeout.mPrev = null;
+        timeout.mNext = head;
+        if (head != null)
+            head.mPrev = timeout;
+
+        if (bucket == EXPIRED) {
+            mExpired = timeout;
+        } else {
+            mBuckets[bucket] = timeout;
+            mOccupied[bucket >>> 6] |= 1L << bucket;
+        }
+    }
+
+    private void unlink(Timeout timeout) {
+        int bucket = timeout.mBucket;
+
+        if (timeout.mPrev != null) {
+            timeout.mPrev.mNext = timeout.mNext;
+        } else if (bucket == EXPIRED) {
+            mExpired = timeout.mNext;
+        } else {
+            mBuckets[bucket] = timeout.mNext;
+            if (timeout.mNext == null)
+                mOccupied[bucket >>> 6] &= ~(1L << bucket);
+        }
+        if (timeout.mNext != null)
+            timeout.mNext.mPrev = timeout.mPrev;
+
+        timeout.mPrev = null;
+        timeout.mNext = null;
+    }
+}